@@ -0,0 +1,27 @@
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Fills a planet crust of radius size into a new world, like initSphere.
+ */
+public class GenerateSphereWorkload implements bench.Workload {
+
+    private ForkJoinPool pool;
+    private PlanetGenerator generator;
+    private int radius;
+
+    public void setUp(int size) {
+        radius = size;
+        pool = new ForkJoinPool();
+        generator = new PlanetGenerator(pool);
+    }
+
+    public Object run() {
+        VoxelWorld world = new VoxelWorld();
+        generator.generateShell(world, 0, 0, 0, radius - 1, radius);
+        return world;
+    }
+
+    public void tearDown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,41 @@
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.shapes.SphereCollisionShape;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.math.Vector3f;
+
+import java.util.Random;
+
+/**
+ * A physics space with size cannon balls spread around a planet, a run is
+ * the gravity listener's tick over all of them.
+ */
+public class GravityTickWorkload implements bench.Workload {
+
+    private static final float STEP = 1f / 60f;
+
+    private PhysicsSpace space;
+    private GravitySystem gravity;
+
+    public void setUp(int size) {
+        space = new PhysicsSpace();
+        gravity = new GravitySystem();
+        gravity.addSource(GravitySource.sphere(Vector3f.ZERO, 60f, 9.81f));
+        SphereCollisionShape shape = new SphereCollisionShape(0.4f);
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            PhysicsRigidBody body = new PhysicsRigidBody(shape, 1f);
+            body.setPhysicsLocation(new Vector3f((random.nextFloat() - .5f) * 400f,
+                    (random.nextFloat() - .5f) * 400f, (random.nextFloat() - .5f) * 400f));
+            space.add(body);
+        }
+    }
+
+    public Object run() {
+        gravity.prePhysicsTick(space, STEP);
+        return gravity;
+    }
+
+    public void tearDown() {
+        space.destroy();
+    }
+}
@@ -0,0 +1,22 @@
+import com.jme3.bullet.collision.shapes.CapsuleCollisionShape;
+import com.jme3.math.Vector3f;
+
+/**
+ * A character like the game's player, a run reads its location.
+ */
+public class PhysicsLocationWorkload implements bench.Workload {
+
+    private DanielPhysicsCharacter character;
+
+    public void setUp(int size) {
+        character = new DanielPhysicsCharacter(new CapsuleCollisionShape(0.5f, 1f), 0.05f);
+        character.setPhysicsLocation(new Vector3f(-10f, 0f, -90f));
+    }
+
+    public Object run() {
+        return character.getPhysicsLocation();
+    }
+
+    public void tearDown() {
+    }
+}
@@ -0,0 +1,40 @@
+import com.bulletphysics.dynamics.DiscreteDynamicsWorld;
+import javax.vecmath.Vector3f;
+
+/**
+ * One character on a square brick field of size bricks a side, walking in a
+ * small circle so it stays on the field. A run is what the dynamics world
+ * does for the character in a tick: update its overlaps, recover from
+ * penetration and step.
+ */
+public class PlayerStepWorkload implements bench.Workload {
+
+    private static final float STEP = 1f / 60f;
+
+    private DiscreteDynamicsWorld world;
+    private DanielKinematicCharacterController character;
+    private final Vector3f walk = new Vector3f();
+    private float angle;
+
+    public void setUp(int size) {
+        CharacterWorld characterWorld = new CharacterWorld();
+        characterWorld.addBrickField(size);
+        character = characterWorld.addCharacter(0f, 0f);
+        world = characterWorld.getWorld();
+        world.stepSimulation(STEP, 0);
+    }
+
+    public Object run() {
+        angle += 0.2f;
+        walk.set((float) Math.cos(angle) * 0.1f, 0, (float) Math.sin(angle) * 0.1f);
+        character.setWalkDirection(walk);
+        world.updateSingleAabb(character.getGhostObject());
+        world.getBroadphase().calculateOverlappingPairs(world.getDispatcher());
+        character.preStep(world);
+        character.playerStep(world, STEP);
+        return character;
+    }
+
+    public void tearDown() {
+    }
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fills the crust of a planet into an empty world on all cores, what
+ * SuperMinecraftGalaxy.initSphere does when the game starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerateSphereBenchmark {
+
+    @Param({"30", "100"})
+    public int radius;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() {
+        workload = Workload.Loader.load("GenerateSphereWorkload", radius);
+    }
+
+    @TearDown
+    public void tearDown() {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public Object generate() {
+        return workload.run();
+    }
+}
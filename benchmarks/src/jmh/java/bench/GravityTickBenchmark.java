@@ -0,0 +1,47 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The gravity listener's prePhysicsTick for bodies falling onto one planet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GravityTickBenchmark {
+
+    @Param({"100", "1000"})
+    public int bodies;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() {
+        workload = Workload.Loader.load("GravityTickWorkload", bodies);
+    }
+
+    @TearDown
+    public void tearDown() {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public Object prePhysicsTick() {
+        return workload.run();
+    }
+}
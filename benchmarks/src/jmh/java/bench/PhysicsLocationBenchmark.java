@@ -0,0 +1,44 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading the location of a character, converted from jBullet's vecmath to
+ * a jME vector, as the game does every frame for the camera.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhysicsLocationBenchmark {
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() {
+        workload = Workload.Loader.load("PhysicsLocationWorkload", 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public Object getPhysicsLocation() {
+        return workload.run();
+    }
+}
@@ -0,0 +1,43 @@
+package bench;
+
+/**
+ * One piece of the game to measure. The game's classes are in the default
+ * package, which classes in a package cannot import, and JMH only runs
+ * benchmarks in a package. So every benchmark here loads its workload, a
+ * default package class next to it, by name.
+ */
+public interface Workload {
+
+    /**
+     * Builds what {@link #run()} works on, outside the measurement.
+     *
+     * @param size how big, meaning depends on the workload
+     */
+    void setUp(int size);
+
+    /**
+     * The measured operation.
+     *
+     * @return a result for the blackhole, so the work is not optimized away
+     */
+    Object run();
+
+    void tearDown();
+
+    final class Loader {
+
+        private Loader() {
+        }
+
+        public static Workload load(String className, int size) {
+            Workload workload;
+            try {
+                workload = (Workload) Class.forName(className).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("cannot create workload " + className, e);
+            }
+            workload.setUp(size);
+            return workload;
+        }
+    }
+}
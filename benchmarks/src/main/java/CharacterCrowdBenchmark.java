@@ -0,0 +1,72 @@
+import com.bulletphysics.dynamics.DiscreteDynamicsWorld;
+import java.util.concurrent.ForkJoinPool;
+import javax.vecmath.Vector3f;
+
+/**
+ * Reports how many characters a {@link CharacterManager} steps per second
+ * for 1, 4 and 8 threads. The characters walk in circles over a brick field
+ * and sweep with a {@link VoxelCapsuleSweep} each, the manager only steps
+ * those in parallel.<p>
+ *
+ * Usage: CharacterCrowdBenchmark [characters], defaults to 500.
+ */
+public class CharacterCrowdBenchmark {
+
+    private static final int[] THREADS = {1, 4, 8};
+    private static final int WARMUP = 300;
+    private static final int TICKS = 600;
+    private static final float STEP = 1f / 60f;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        System.out.println("characters  threads  tick ms  compute ms  characters/s  speedup");
+        double single = 0;
+        for (int threads : THREADS) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            double perSecond = run(pool, count, threads);
+            pool.shutdown();
+            if (single == 0) {
+                single = perSecond;
+            }
+            System.out.printf("  %7.2f%n", perSecond / single);
+        }
+    }
+
+    private static double run(ForkJoinPool pool, int count, int threads) {
+        int side = (int) Math.ceil(Math.sqrt(count));
+        CharacterWorld characterWorld = new CharacterWorld();
+        VoxelWorld voxels = new VoxelWorld();
+        characterWorld.addVoxelField(voxels, side * 2 + 4);
+        DiscreteDynamicsWorld world = characterWorld.getWorld();
+        CharacterManager manager = new CharacterManager(pool);
+        DanielKinematicCharacterController[] characters = new DanielKinematicCharacterController[count];
+        for (int i = 0; i < count; i++) {
+            characters[i] = characterWorld.addCharacter((i % side - side / 2) * 4f, 2.1f, (i / side - side / 2) * 4f,
+                    new VoxelCapsuleSweep(voxels));
+            manager.add(characters[i]);
+        }
+
+        Vector3f walk = new Vector3f();
+        long total = 0;
+        long compute = 0;
+        for (int tick = 0; tick < WARMUP + TICKS; tick++) {
+            world.stepSimulation(STEP, 0);
+            for (int i = 0; i < count; i++) {
+                float angle = tick * 0.02f + i;
+                walk.set((float) Math.cos(angle) * 0.1f, 0, (float) Math.sin(angle) * 0.1f);
+                characters[i].setWalkDirection(walk);
+            }
+            long start = System.nanoTime();
+            manager.updateAction(world, STEP);
+            long time = System.nanoTime() - start;
+            if (tick >= WARMUP) {
+                total += time;
+                compute += manager.getLastComputeNanos();
+            }
+        }
+        double tickMs = total / 1e6 / TICKS;
+        double perSecond = (double) count * TICKS / (total / 1e9);
+        System.out.printf("%10d  %7d  %7.2f  %10.2f  %12.0f", count, threads, tickMs, compute / 1e6 / TICKS, perSecond);
+        return perSecond;
+    }
+}
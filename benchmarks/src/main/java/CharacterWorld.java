@@ -0,0 +1,172 @@
+import com.bulletphysics.collision.broadphase.CollisionFilterGroups;
+import com.bulletphysics.collision.broadphase.DbvtBroadphase;
+import com.bulletphysics.collision.dispatch.CollisionDispatcher;
+import com.bulletphysics.collision.dispatch.CollisionFlags;
+import com.bulletphysics.collision.dispatch.DefaultCollisionConfiguration;
+import com.bulletphysics.collision.dispatch.GhostPairCallback;
+import com.bulletphysics.collision.dispatch.PairCachingGhostObject;
+import com.bulletphysics.collision.shapes.BoxShape;
+import com.bulletphysics.collision.shapes.CapsuleShape;
+import com.bulletphysics.dynamics.DiscreteDynamicsWorld;
+import com.bulletphysics.dynamics.RigidBody;
+import com.bulletphysics.dynamics.RigidBodyConstructionInfo;
+import com.bulletphysics.dynamics.constraintsolver.SequentialImpulseConstraintSolver;
+import com.bulletphysics.linearmath.Transform;
+import com.jme3.bullet.collision.shapes.MeshCollisionShape;
+import com.jme3.scene.Mesh;
+import javax.vecmath.Vector3f;
+
+/**
+ * A plain jBullet world with a field of static bricks to walk characters on,
+ * for the character benchmarks. Bricks have the size and spacing of the
+ * game's voxel bricks.
+ */
+public class CharacterWorld {
+
+    private final DefaultCollisionConfiguration configuration = new DefaultCollisionConfiguration();
+    private final DbvtBroadphase broadphase = new DbvtBroadphase();
+    private final DiscreteDynamicsWorld world;
+    private final BoxShape brick = new BoxShape(new Vector3f(1f, 1f, 1f));
+    private boolean charactersCollide;
+
+    public CharacterWorld() {
+        broadphase.getOverlappingPairCache().setInternalGhostPairCallback(new GhostPairCallback());
+        world = new DiscreteDynamicsWorld(new CollisionDispatcher(configuration), broadphase,
+                new SequentialImpulseConstraintSolver(), configuration);
+    }
+
+    /**
+     * Adds a flat square of bricks centered at the origin, their tops at y = 0.
+     *
+     * @param size number of bricks along x and z
+     */
+    public void addBrickField(int size) {
+        Transform transform = new Transform();
+        transform.setIdentity();
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                transform.origin.set((x - size / 2) * VoxelWorld.BLOCK_SIZE, -1f, (z - size / 2) * VoxelWorld.BLOCK_SIZE);
+                RigidBody body = new RigidBody(new RigidBodyConstructionInfo(0f, null, brick));
+                body.setWorldTransform(transform);
+                world.addRigidBody(body);
+            }
+        }
+    }
+
+    /**
+     * Fills the square of size bricks along x and z around the origin in
+     * layer y = 0 of the voxel world, their tops at y = 1, and adds a static
+     * brick for each like {@link #addBricks}.
+     */
+    public void addVoxelField(VoxelWorld voxels, int size) {
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                voxels.setBlock(x - size / 2, 0, z - size / 2, VoxelWorld.BRICK);
+            }
+        }
+        addBricks(voxels);
+    }
+
+    /**
+     * Adds one static body per chunk of the voxel world whose shape is a
+     * MeshCollisionShape of the chunk's greedy mesh, like the game's chunk
+     * bodies. The shapes are built on the calling thread.
+     */
+    public void addChunkMeshes(VoxelWorld voxels) {
+        ChunkMesher mesher = new ChunkMesher();
+        Transform transform = new Transform();
+        transform.setIdentity();
+        for (Chunk chunk : voxels.getChunks()) {
+            mesher.mesh(voxels, chunk);
+            Mesh mesh = mesher.toMesh();
+            if (mesh == null) {
+                continue;
+            }
+            transform.origin.set(VoxelWorld.toWorld(chunk.getOriginX()), VoxelWorld.toWorld(chunk.getOriginY()),
+                    VoxelWorld.toWorld(chunk.getOriginZ()));
+            RigidBody body = new RigidBody(new RigidBodyConstructionInfo(0f, null, new MeshCollisionShape(mesh).getCShape()));
+            body.setWorldTransform(transform);
+            world.addRigidBody(body);
+        }
+    }
+
+    /**
+     * Adds one static brick for every solid block of the voxel world, where
+     * the game would have its chunk surfaces.
+     */
+    public void addBricks(VoxelWorld voxels) {
+        Transform transform = new Transform();
+        transform.setIdentity();
+        for (Chunk chunk : voxels.getChunks()) {
+            for (int y = 0; y < Chunk.SIZE; y++) {
+                for (int z = 0; z < Chunk.SIZE; z++) {
+                    for (int x = 0; x < Chunk.SIZE; x++) {
+                        if (!chunk.isSolid(x, y, z)) {
+                            continue;
+                        }
+                        transform.origin.set(VoxelWorld.toWorld(chunk.getOriginX() + x),
+                                VoxelWorld.toWorld(chunk.getOriginY() + y), VoxelWorld.toWorld(chunk.getOriginZ() + z));
+                        RigidBody body = new RigidBody(new RigidBodyConstructionInfo(0f, null, brick));
+                        body.setWorldTransform(transform);
+                        world.addRigidBody(body);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a character with its own capsule, standing on the field at x, z.
+     * Shapes are not shared between characters, a step changes the margin of
+     * its shape.
+     */
+    public DanielKinematicCharacterController addCharacter(float x, float z) {
+        return addCharacter(x, 1.1f, z, null);
+    }
+
+    /**
+     * Adds a character with its own capsule whose center is at x, y, z.
+     *
+     * @param sweepTest null for Bullet's convex sweep
+     */
+    public DanielKinematicCharacterController addCharacter(float x, float y, float z,
+                                                           DanielKinematicCharacterController.SweepTest sweepTest) {
+        CapsuleShape shape = new CapsuleShape(0.5f, 1f);
+        PairCachingGhostObject ghost = new PairCachingGhostObject();
+        Transform transform = new Transform();
+        transform.setIdentity();
+        transform.origin.set(x, y, z);
+        ghost.setWorldTransform(transform);
+        ghost.setCollisionShape(shape);
+        ghost.setCollisionFlags(CollisionFlags.CHARACTER_OBJECT);
+        DanielKinematicCharacterController character = new DanielKinematicCharacterController(ghost, shape, 0.35f, 1, sweepTest);
+        short mask = (short) (CollisionFilterGroups.STATIC_FILTER | CollisionFilterGroups.DEFAULT_FILTER);
+        if (charactersCollide) {
+            mask |= CollisionFilterGroups.CHARACTER_FILTER;
+        }
+        world.addCollisionObject(ghost, CollisionFilterGroups.CHARACTER_FILTER, mask);
+        return character;
+    }
+
+    /**
+     * Lets characters added from now on sweep into and recover from each
+     * other. Off by default, like the game's characters only hit static and
+     * default objects.
+     */
+    public void setCharactersCollide(boolean charactersCollide) {
+        this.charactersCollide = charactersCollide;
+    }
+
+    /**
+     * Adds the ghost object of a control the way the control adds it to a
+     * physics space. Its controller is left to the caller to step.
+     */
+    public void addControl(DanielCharacterControl control) {
+        world.addCollisionObject(control.getObjectId(), CollisionFilterGroups.CHARACTER_FILTER,
+                (short) (CollisionFilterGroups.STATIC_FILTER | CollisionFilterGroups.DEFAULT_FILTER));
+    }
+
+    public DiscreteDynamicsWorld getWorld() {
+        return world;
+    }
+}
@@ -0,0 +1,124 @@
+import com.jme3.scene.Mesh;
+
+/**
+ * Meshes small block layouts with {@link ChunkMesher} and checks the quad,
+ * vertex and triangle counts, the extent of the positions and the jME mesh
+ * made from them. Needs no renderer.<p>
+ *
+ * Exits with status 1 if a layout gives the wrong mesh.<p>
+ *
+ * Usage: ChunkMesherCheck
+ */
+public class ChunkMesherCheck {
+
+    private static final ChunkMesher mesher = new ChunkMesher();
+    private static int failures;
+
+    public static void main(String[] args) {
+        VoxelWorld world = new VoxelWorld();
+        Chunk chunk = world.getOrCreateChunk(0, 0, 0);
+        check("empty chunk", world, chunk, 0, null);
+
+        chunk.setBlock(5, 6, 7, VoxelWorld.BRICK);
+        check("single block", world, chunk, 6, blocks(5, 6, 7, 5, 6, 7));
+
+        chunk.setBlock(6, 6, 7, VoxelWorld.BRICK);
+        check("two blocks in a row", world, chunk, 6, blocks(5, 6, 7, 6, 6, 7));
+
+        fill(chunk);
+        check("solid chunk", world, chunk, 6, blocks(0, 0, 0, Chunk.MASK, Chunk.MASK, Chunk.MASK));
+
+        // faces against solid neighbour chunks are culled
+        int[][] sides = {{-1, 0, 0}, {1, 0, 0}, {0, -1, 0}, {0, 1, 0}, {0, 0, -1}, {0, 0, 1}};
+        for (int i = 0; i < sides.length; i++) {
+            fill(world.getOrCreateChunk(sides[i][0], sides[i][1], sides[i][2]));
+            check("solid chunk with " + (i + 1) + " solid neighbours", world, chunk, 5 - i, null);
+        }
+
+        VoxelWorld checkered = new VoxelWorld();
+        Chunk checkerChunk = checkered.getOrCreateChunk(0, 0, 0);
+        for (int y = 0; y < Chunk.SIZE; y++) {
+            for (int z = 0; z < Chunk.SIZE; z++) {
+                for (int x = 0; x < Chunk.SIZE; x++) {
+                    if (((x + y + z) & 1) == 0) {
+                        checkerChunk.setBlock(x, y, z, VoxelWorld.BRICK);
+                    }
+                }
+            }
+        }
+        check("checkerboard", checkered, checkerChunk, Chunk.VOLUME / 2 * 6, blocks(0, 0, 0, Chunk.MASK, Chunk.MASK, Chunk.MASK));
+
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " layouts");
+            System.exit(1);
+        }
+        System.out.println("all layouts passed");
+    }
+
+    /**
+     * @param bounds expected min x, y, z and max x, y, z of the positions,
+     * relative to the chunk origin, or null to skip
+     */
+    private static void check(String layout, VoxelWorld world, Chunk chunk, int quads, float[] bounds) {
+        int produced = mesher.mesh(world, chunk);
+        System.out.printf("%s: %d quads, %d vertices, %d triangles%n", layout, produced, mesher.getVertexCount(),
+                mesher.getTriangleCount());
+        if (produced != quads || mesher.getQuadCount() != quads || mesher.getVertexCount() != quads * 4
+                || mesher.getTriangleCount() != quads * 2) {
+            fail(layout + ": expected " + quads + " quads, " + quads * 4 + " vertices and " + quads * 2 + " triangles");
+            return;
+        }
+        Mesh mesh = mesher.toMesh();
+        if (quads == 0) {
+            if (mesh != null) {
+                fail(layout + ": a mesh without quads");
+            }
+            return;
+        }
+        if (mesh.getVertexCount() != quads * 4 || mesh.getTriangleCount() != quads * 2) {
+            fail(layout + ": the jME mesh has " + mesh.getVertexCount() + " vertices and " + mesh.getTriangleCount()
+                    + " triangles");
+        }
+        if (bounds == null) {
+            return;
+        }
+        float[] positions = mesher.getPositions();
+        float[] extent = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        for (int i = 0; i < quads * 4 * 3; i++) {
+            extent[i % 3] = Math.min(extent[i % 3], positions[i]);
+            extent[3 + i % 3] = Math.max(extent[3 + i % 3], positions[i]);
+        }
+        for (int i = 0; i < 6; i++) {
+            if (extent[i] != bounds[i]) {
+                fail(layout + ": positions span " + extent[0] + "," + extent[1] + "," + extent[2] + " to "
+                        + extent[3] + "," + extent[4] + "," + extent[5]);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return min and max corner of the blocks, block x is centered at
+     * x * BLOCK_SIZE
+     */
+    private static float[] blocks(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        float half = VoxelWorld.BLOCK_SIZE / 2;
+        return new float[]{VoxelWorld.toWorld(minX) - half, VoxelWorld.toWorld(minY) - half, VoxelWorld.toWorld(minZ) - half,
+                VoxelWorld.toWorld(maxX) + half, VoxelWorld.toWorld(maxY) + half, VoxelWorld.toWorld(maxZ) + half};
+    }
+
+    private static void fill(Chunk chunk) {
+        for (int y = 0; y < Chunk.SIZE; y++) {
+            for (int z = 0; z < Chunk.SIZE; z++) {
+                for (int x = 0; x < Chunk.SIZE; x++) {
+                    chunk.setBlock(x, y, z, VoxelWorld.BRICK);
+                }
+            }
+        }
+    }
+
+    private static void fail(String message) {
+        failures++;
+        System.out.println(message);
+    }
+}
@@ -0,0 +1,75 @@
+import com.bulletphysics.dynamics.DiscreteDynamicsWorld;
+import java.lang.management.ManagementFactory;
+import javax.vecmath.Vector3f;
+
+/**
+ * Checks that {@link DanielKinematicCharacterController#preStep} and
+ * {@link DanielKinematicCharacterController#playerStep} create no garbage once
+ * warmed up, by reading the allocated bytes counter of the current thread
+ * around the steps. Characters walk in circles over a brick field, hitting
+ * the bricks. Unlike in the game they also collide with each other, and
+ * every second one starts overlapping its neighbour, so character against
+ * character sweeps and recovery are measured too.<p>
+ *
+ * Run it against the stack instrumented jbullet.jar that ships with jME,
+ * jBullet itself allocates on every sweep without it.
+ * Exits with status 1 if a step allocated.<p>
+ *
+ * Usage: ControllerAllocationCheck [characters] [steps], defaults to 20 and 2000.
+ */
+public class ControllerAllocationCheck {
+
+    private static final int WARMUP = 2000;
+    private static final float STEP = 1f / 60f;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("allocated bytes are not supported by this JVM");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        CharacterWorld characterWorld = new CharacterWorld();
+        characterWorld.addBrickField(24);
+        characterWorld.setCharactersCollide(true);
+        DiscreteDynamicsWorld world = characterWorld.getWorld();
+        DanielKinematicCharacterController[] characters = new DanielKinematicCharacterController[count];
+        for (int i = 0; i < count; i++) {
+            // pairs of capsules of radius 0.5, 0.8 apart
+            int pair = i / 2;
+            characters[i] = characterWorld.addCharacter((pair % 5) * 3f - 6f + (i % 2) * 0.8f, (pair / 5) * 3f - 6f);
+        }
+
+        Vector3f walk = new Vector3f();
+        long allocated = 0;
+        for (int step = 0; step < WARMUP + steps; step++) {
+            // the world step updates the ghost pairs, it is not measured
+            world.stepSimulation(STEP, 0);
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < count; i++) {
+                float angle = step * 0.02f + i;
+                walk.set((float) Math.cos(angle) * 0.1f, 0, (float) Math.sin(angle) * 0.1f);
+                if (i % 7 == 0 && step % 90 == 0) {
+                    characters[i].jump();
+                }
+                characters[i].setWalkDirection(walk);
+                characters[i].preStep(world);
+                characters[i].playerStep(world, STEP);
+            }
+            long after = threads.getThreadAllocatedBytes(thread);
+            if (step >= WARMUP) {
+                allocated += after - before;
+            }
+        }
+        System.out.printf("%d characters, %d steps: %d bytes allocated, %.1f per character step%n",
+                count, steps, allocated, (double) allocated / ((long) count * steps));
+        if (allocated > 0) {
+            System.out.println("FAILED: character steps allocate");
+            System.exit(1);
+        }
+    }
+}
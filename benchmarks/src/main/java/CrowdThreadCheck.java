@@ -0,0 +1,123 @@
+import com.bulletphysics.dynamics.DiscreteDynamicsWorld;
+import com.jme3.bullet.collision.shapes.CapsuleCollisionShape;
+import com.bulletphysics.linearmath.Transform;
+import java.util.concurrent.ForkJoinPool;
+import javax.vecmath.Vector3f;
+
+/**
+ * Steps a crowd with a {@link CharacterManager} over chunk bodies with the
+ * game's MeshCollisionShape, once on one thread and once on several, and
+ * compares where every character ends up. Half of the crowd sweeps with
+ * Bullet against the meshes, half with a {@link VoxelCapsuleSweep}, so both
+ * the serial and the parallel part of the manager are covered. A row of
+ * {@link DanielCharacterControl}s with voxel sweeps walks next to their
+ * clones, which must have sweeps of their own to step in parallel.<p>
+ *
+ * Exits with status 1 if a character ends up somewhere else.<p>
+ *
+ * Usage: CrowdThreadCheck [threads], defaults to the number of cores.
+ */
+public class CrowdThreadCheck {
+
+    private static final int CHARACTERS = 128;
+    /**
+     * controls with a voxel sweep, each stepped along with a clone
+     */
+    private static final int CONTROLS = 8;
+    private static final int TOTAL = CHARACTERS + CONTROLS * 2;
+    private static final int TICKS = 600;
+    private static final float STEP = 1f / 60f;
+
+    public static void main(String[] args) {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(2, Runtime.getRuntime().availableProcessors());
+        float[] single = run(1);
+        float[] parallel = run(threads);
+        int mismatches = 0;
+        for (int i = 0; i < TOTAL; i++) {
+            int j = i * 3;
+            if (single[j] != parallel[j] || single[j + 1] != parallel[j + 1] || single[j + 2] != parallel[j + 2]) {
+                mismatches++;
+                if (mismatches <= 5) {
+                    System.out.println("character " + i + " ends at " + single[j] + "," + single[j + 1] + "," + single[j + 2]
+                            + " on 1 thread, at " + parallel[j] + "," + parallel[j + 1] + "," + parallel[j + 2]
+                            + " on " + threads);
+                }
+            }
+        }
+        System.out.println(TOTAL + " characters, " + TICKS + " ticks, 1 and " + threads + " threads, "
+                + mismatches + " mismatches");
+        if (mismatches > 0) {
+            System.out.println("FAILED: the crowd depends on the number of threads");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return x, y, z of every character after the last tick
+     */
+    private static float[] run(int threads) {
+        int side = (int) Math.ceil(Math.sqrt(CHARACTERS));
+        VoxelWorld voxels = new VoxelWorld();
+        for (int x = 0; x < side * 2 + 4; x++) {
+            for (int z = 0; z < side * 2 + 4; z++) {
+                voxels.setBlock(x - side - 2, 0, z - side - 2, VoxelWorld.BRICK);
+            }
+        }
+        CharacterWorld characterWorld = new CharacterWorld();
+        characterWorld.addChunkMeshes(voxels);
+        DiscreteDynamicsWorld world = characterWorld.getWorld();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        CharacterManager manager = new CharacterManager(pool);
+        DanielKinematicCharacterController[] characters = new DanielKinematicCharacterController[TOTAL];
+        for (int i = 0; i < CHARACTERS; i++) {
+            characters[i] = characterWorld.addCharacter((i % side - side / 2) * 4f, 2.1f, (i / side - side / 2) * 4f,
+                    i % 2 == 0 ? null : new VoxelCapsuleSweep(voxels));
+            manager.add(characters[i]);
+        }
+        com.jme3.math.Vector3f location = new com.jme3.math.Vector3f();
+        for (int i = 0; i < CONTROLS; i++) {
+            DanielCharacterControl control = new DanielCharacterControl(new CapsuleCollisionShape(0.5f, 1f), 0.35f,
+                    new VoxelCapsuleSweep(voxels));
+            control.setPhysicsLocation(location.set((i - CONTROLS / 2) * 4f, 2.1f, side * 2f - 6f));
+            DanielCharacterControl clone = (DanielCharacterControl) control.cloneForSpatial(null);
+            clone.setPhysicsLocation(location.set((i - CONTROLS / 2) * 4f, 2.1f, side * 2f - 2f));
+            if (clone.sweepTest == control.sweepTest) {
+                System.out.println("FAILED: a cloned control shares the sweep test of the original");
+                System.exit(1);
+            }
+            characterWorld.addControl(control);
+            characterWorld.addControl(clone);
+            characters[CHARACTERS + i * 2] = control.getControllerId();
+            characters[CHARACTERS + i * 2 + 1] = clone.getControllerId();
+            manager.add(control.getControllerId());
+            manager.add(clone.getControllerId());
+        }
+
+        Vector3f walk = new Vector3f();
+        for (int tick = 0; tick < TICKS; tick++) {
+            world.stepSimulation(STEP, 0);
+            for (int i = 0; i < TOTAL; i++) {
+                float angle = tick * 0.02f + i;
+                walk.set((float) Math.cos(angle) * 0.1f, 0, (float) Math.sin(angle) * 0.1f);
+                characters[i].setWalkDirection(walk);
+            }
+            manager.updateAction(world, STEP);
+        }
+        pool.shutdown();
+        if (manager.getConcurrentCount() != CHARACTERS / 2 + CONTROLS * 2) {
+            System.out.println("FAILED: " + manager.getConcurrentCount() + " characters stepped in parallel, expected "
+                    + (CHARACTERS / 2 + CONTROLS * 2));
+            System.exit(1);
+        }
+
+        float[] locations = new float[TOTAL * 3];
+        Transform transform = new Transform();
+        for (int i = 0; i < TOTAL; i++) {
+            characters[i].getGhostObject().getWorldTransform(transform);
+            locations[i * 3] = transform.origin.x;
+            locations[i * 3 + 1] = transform.origin.y;
+            locations[i * 3 + 2] = transform.origin.z;
+        }
+        return locations;
+    }
+}
@@ -0,0 +1,159 @@
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.shapes.BoxCollisionShape;
+import com.jme3.bullet.collision.shapes.SphereCollisionShape;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.math.Vector3f;
+
+import java.util.Random;
+
+/**
+ * Reports the cost of one gravity tick (octree rebuild plus one field
+ * evaluation per body) as the number of sources grows, for the Barnes-Hut
+ * approximation and for summing every source exactly, and the batched pass
+ * over many bodies falling onto a single planet. The last table is the
+ * whole tick listener in a physics space that also holds
+ * {@link #STATIC_BODIES} static chunk bodies, gathering the dynamic bodies
+ * and setting their gravity included.<p>
+ *
+ * Usage: GravityBenchmark [bodies], defaults to 1000.
+ */
+public class GravityBenchmark {
+
+    private static final int[] SOURCES = {10, 100, 1000, 10000};
+    private static final float GALAXY_SIZE = 20000f;
+    private static final int WARMUP = 20;
+    private static final int TICKS = 50;
+    private static final int[] PLANET_BODIES = {1000, 10000, 100000};
+    private static final int[] SPACE_BODIES = {100, 1000, 10000};
+    private static final int STATIC_BODIES = 2000;
+
+    public static void main(String[] args) {
+        int bodyCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        Random random = new Random(42);
+        Vector3f[] bodies = new Vector3f[bodyCount];
+        for (int i = 0; i < bodyCount; i++) {
+            bodies[i] = randomPosition(random);
+        }
+        System.out.println("sources  bodies  theta  tick us  nodes  max error %");
+        for (int sourceCount : SOURCES) {
+            GravitySystem exact = createSystem(sourceCount, 0f);
+            GravitySystem barnesHut = createSystem(sourceCount, 0.5f);
+            float error = maxError(exact, barnesHut, bodies);
+            report(exact, bodies, 0f, 0f);
+            report(barnesHut, bodies, 0.5f, error);
+        }
+        System.out.println();
+        System.out.println("bodies on one planet  tick us  ns per body");
+        for (int count : PLANET_BODIES) {
+            reportBatched(count, random);
+        }
+        System.out.println();
+        System.out.println("bodies in a space  static bodies  tick us  ns per body");
+        for (int count : SPACE_BODIES) {
+            reportSpace(count, random);
+        }
+    }
+
+    private static void reportSpace(int count, Random random) {
+        PhysicsSpace space = new PhysicsSpace(new Vector3f(-10000f, -10000f, -10000f), new Vector3f(10000f, 10000f, 10000f),
+                PhysicsSpace.BroadphaseType.DBVT);
+        BoxCollisionShape chunkShape = new BoxCollisionShape(new Vector3f(16f, 16f, 16f));
+        for (int i = 0; i < STATIC_BODIES; i++) {
+            PhysicsRigidBody chunk = new PhysicsRigidBody(chunkShape, 0f);
+            chunk.setPhysicsLocation(new Vector3f((i % 20) * 32f, (i / 400) * 32f, (i / 20 % 20) * 32f));
+            space.add(chunk);
+        }
+        SphereCollisionShape ballShape = new SphereCollisionShape(0.4f);
+        for (int i = 0; i < count; i++) {
+            PhysicsRigidBody ball = new PhysicsRigidBody(ballShape, 1f);
+            ball.setPhysicsLocation(new Vector3f((random.nextFloat() - .5f) * 400f, (random.nextFloat() - .5f) * 400f,
+                    (random.nextFloat() - .5f) * 400f));
+            space.add(ball);
+        }
+        GravitySystem system = new GravitySystem();
+        system.addSource(GravitySource.sphere(Vector3f.ZERO, 60f, 9.81f));
+        long best = Long.MAX_VALUE;
+        for (int tick = 0; tick < WARMUP + TICKS; tick++) {
+            long start = System.nanoTime();
+            system.prePhysicsTick(space, 1f / 60f);
+            long time = System.nanoTime() - start;
+            if (tick >= WARMUP) {
+                best = Math.min(best, time);
+            }
+        }
+        if (system.getBodyCount() != count) {
+            throw new IllegalStateException(system.getBodyCount() + " bodies got gravity, expected " + count);
+        }
+        System.out.printf("%17d  %13d  %7.1f  %11.1f%n", count, STATIC_BODIES, best / 1e3, (double) best / count);
+        space.destroy();
+    }
+
+    private static void reportBatched(int count, Random random) {
+        GravitySystem system = new GravitySystem();
+        system.addSource(GravitySource.sphere(Vector3f.ZERO, 60f, 9.81f));
+        float[] x = new float[count], y = new float[count], z = new float[count];
+        float[] gx = new float[count], gy = new float[count], gz = new float[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = (random.nextFloat() - .5f) * 400f;
+            y[i] = (random.nextFloat() - .5f) * 400f;
+            z[i] = (random.nextFloat() - .5f) * 400f;
+        }
+        long best = Long.MAX_VALUE;
+        for (int tick = 0; tick < WARMUP + TICKS; tick++) {
+            long start = System.nanoTime();
+            system.update();
+            system.computeFields(x, y, z, gx, gy, gz, count);
+            long time = System.nanoTime() - start;
+            if (tick >= WARMUP) {
+                best = Math.min(best, time);
+            }
+        }
+        System.out.printf("%20d  %7.1f  %11.1f%n", count, best / 1e3, (double) best / count);
+    }
+
+    private static GravitySystem createSystem(int sourceCount, float theta) {
+        Random random = new Random(7);
+        GravitySystem system = new GravitySystem();
+        system.setTheta(theta);
+        for (int i = 0; i < sourceCount; i++) {
+            float radius = 5f + random.nextFloat() * 100f;
+            system.addSource(GravitySource.sphere(randomPosition(random), radius, 9.81f));
+        }
+        return system;
+    }
+
+    private static void report(GravitySystem system, Vector3f[] bodies, float theta, float error) {
+        Vector3f field = new Vector3f();
+        long best = Long.MAX_VALUE;
+        for (int tick = 0; tick < WARMUP + TICKS; tick++) {
+            long start = System.nanoTime();
+            system.update();
+            for (Vector3f body : bodies) {
+                system.getField(body, field);
+            }
+            long time = System.nanoTime() - start;
+            if (tick >= WARMUP) {
+                best = Math.min(best, time);
+            }
+        }
+        System.out.printf("%7d  %6d  %5.2f  %7.1f  %5d  %11.3f%n", system.getSources().size(), bodies.length,
+                theta, best / 1e3, system.getOctree().getNodeCount(), error * 100);
+    }
+
+    private static float maxError(GravitySystem exact, GravitySystem approximate, Vector3f[] bodies) {
+        Vector3f a = new Vector3f();
+        Vector3f b = new Vector3f();
+        float error = 0;
+        for (Vector3f body : bodies) {
+            exact.getField(body, a);
+            approximate.getField(body, b);
+            error = Math.max(error, a.distance(b) / a.length());
+        }
+        return error;
+    }
+
+    private static Vector3f randomPosition(Random random) {
+        return new Vector3f((random.nextFloat() - .5f) * GALAXY_SIZE, (random.nextFloat() - .5f) * GALAXY_SIZE,
+                (random.nextFloat() - .5f) * GALAXY_SIZE);
+    }
+}
@@ -0,0 +1,130 @@
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.material.Material;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+/**
+ * Runs a {@link GameServer} and a growing number of headless
+ * {@link GameClient}s on loopback in one thread, and reports the server's
+ * tick time and the snapshot bytes it sends per tick. Every client walks
+ * forward while turning and shoots now and then.<p>
+ *
+ * Every snapshot a client decodes is compared with the one the server
+ * encoded for that tick. The program exits with status 1 on the first
+ * run with a mismatch.<p>
+ *
+ * Usage: NetworkLoadBenchmark [ticks], defaults to 600.
+ */
+public class NetworkLoadBenchmark {
+
+    private static final int[] CLIENTS = {1, 8, 32, 64};
+    private static final int RADIUS = 20;
+    private static final int WARMUP = 120;
+    private static final int SHOT_INTERVAL = 120;
+
+    public static void main(String[] args) throws IOException {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+        Material material = new Material(new DesktopAssetManager(true), "Common/MatDefs/Misc/Unshaded.j3md");
+        System.out.println("clients  tick ms  p99 ms  bytes/tick  bytes/tick/client  kB/s/client  dropped  verified");
+        for (int count : CLIENTS) {
+            run(material, count, ticks);
+        }
+    }
+
+    private static void run(Material material, int count, int ticks) throws IOException {
+        GameServer server = new GameServer(0, RADIUS, material);
+        server.start();
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+        GameClient[] clients = new GameClient[count];
+        InputState[] inputs = new InputState[count];
+        for (int i = 0; i < count; i++) {
+            clients[i] = new GameClient(address);
+            clients[i].connect();
+            inputs[i] = new InputState();
+            inputs[i].up = true;
+        }
+
+        long[] tickNanos = new long[ticks];
+        int[] verifiedTicks = new int[count];
+        int verified = 0;
+        int mismatches = 0;
+        long bytesBefore = 0;
+        long receivedBefore = 0;
+        for (int tick = 0; tick < WARMUP + ticks; tick++) {
+            if (tick == WARMUP) {
+                bytesBefore = server.getBytesSent();
+                receivedBefore = received(clients);
+            }
+            for (int i = 0; i < count; i++) {
+                float angle = tick * 0.01f + i;
+                inputs[i].viewDirection.set((float) Math.cos(angle), 0, (float) Math.sin(angle));
+                if ((tick + i) % SHOT_INTERVAL == 0) {
+                    inputs[i].onAction("shoot", false);
+                }
+                clients[i].sendInput(inputs[i]);
+            }
+            server.tick();
+            for (int i = 0; i < count; i++) {
+                clients[i].update();
+                Snapshot latest = clients[i].getLatest();
+                if (latest == null || latest.getTick() == verifiedTicks[i]) {
+                    continue;
+                }
+                verifiedTicks[i] = latest.getTick();
+                Snapshot sent = server.getSnapshot(latest.getTick());
+                if (sent == null) {
+                    continue;
+                }
+                verified++;
+                if (!latest.contentEquals(sent)) {
+                    mismatches++;
+                    if (mismatches <= 5) {
+                        System.out.println("client " + i + " decoded snapshot " + latest.getTick() + " with "
+                                + latest.getCount() + " entities, the server sent " + sent.getCount());
+                    }
+                }
+            }
+            if (tick >= WARMUP) {
+                tickNanos[tick - WARMUP] = server.getLastTickNanos();
+            }
+        }
+
+        long bytes = server.getBytesSent() - bytesBefore;
+        long received = received(clients) - receivedBefore;
+        int dropped = 0;
+        int connected = 0;
+        for (GameClient client : clients) {
+            dropped += client.getSnapshotsDropped();
+            connected += client.isConnected() ? 1 : 0;
+            client.close();
+        }
+        server.close();
+        if (connected < count) {
+            System.out.println("only " + connected + " of " + count + " clients connected");
+        }
+        long total = 0;
+        for (long nanos : tickNanos) {
+            total += nanos;
+        }
+        Arrays.sort(tickNanos);
+        double seconds = ticks * GameServer.STEP;
+        System.out.printf("%7d  %7.3f  %6.3f  %10.0f  %17.1f  %11.2f  %7d  %8d%n", count, total / 1e6 / ticks,
+                tickNanos[(int) Math.ceil(ticks * 0.99) - 1] / 1e6, (double) bytes / ticks, (double) bytes / ticks / count,
+                received / 1024.0 / seconds / count, dropped, verified);
+        if (mismatches > 0 || verified == 0) {
+            System.out.println("FAILED: " + mismatches + " of " + verified + " decoded snapshots differ from the server's");
+            System.exit(1);
+        }
+    }
+
+    private static long received(GameClient[] clients) {
+        long received = 0;
+        for (GameClient client : clients) {
+            received += client.getBytesReceived();
+        }
+        return received;
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reports how long it takes to fill a planet into a {@link VoxelWorld} and to
+ * greedy mesh it, single threaded and on all cores. Both run on the pool
+ * like {@link PlanetGenerator} does, one task per chunk for meshing, the
+ * collision shapes are left out. Planets have the same crust as the game,
+ * from radius - 1 to radius.<p>
+ *
+ * Usage: PlanetGenerationBenchmark [radius...], defaults to 30 100 200.
+ */
+public class PlanetGenerationBenchmark {
+
+    private static final int WARMUP = 2;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        int[] radii = {30, 100, 200};
+        if (args.length > 0) {
+            radii = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                radii[i] = Integer.parseInt(args[i]);
+            }
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("radius  threads  generate ms  mesh ms  blocks  chunks  quads");
+        for (int radius : radii) {
+            for (int threads : cores > 1 ? new int[]{1, cores} : new int[]{1}) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                run(pool, radius, threads);
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static void run(ForkJoinPool pool, int radius, int threads) {
+        PlanetGenerator generator = new PlanetGenerator(pool);
+        long generate = Long.MAX_VALUE;
+        long mesh = Long.MAX_VALUE;
+        VoxelWorld world = null;
+        int quads = 0;
+        for (int i = 0; i < WARMUP + RUNS; i++) {
+            world = new VoxelWorld();
+            long start = System.nanoTime();
+            generator.generateShell(world, 0, 0, 0, radius - 1, radius);
+            long generated = System.nanoTime();
+            quads = meshAll(pool, world);
+            long meshed = System.nanoTime();
+            if (i >= WARMUP) {
+                generate = Math.min(generate, generated - start);
+                mesh = Math.min(mesh, meshed - generated);
+            }
+        }
+        System.out.printf("%6d  %7d  %11.1f  %7.1f  %6d  %6d  %5d%n", radius, threads,
+                generate / 1e6, mesh / 1e6, world.getSolidCount(), world.getChunks().size(), quads);
+    }
+
+    /**
+     * Meshes every chunk on the pool, each thread with its own mesher.
+     *
+     * @return quads of all chunks
+     */
+    private static int meshAll(ForkJoinPool pool, final VoxelWorld world) {
+        final List<Chunk> chunks = new ArrayList<Chunk>(world.getChunks());
+        final int[] quads = new int[chunks.size()];
+        final ThreadLocal<ChunkMesher> meshers = new ThreadLocal<ChunkMesher>() {
+            @Override
+            protected ChunkMesher initialValue() {
+                return new ChunkMesher();
+            }
+        };
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(chunks.size());
+                for (int i = 0; i < chunks.size(); i++) {
+                    final int index = i;
+                    tasks.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            quads[index] = meshers.get().mesh(world, chunks.get(index));
+                        }
+                    });
+                }
+                invokeAll(tasks);
+            }
+        });
+        int total = 0;
+        for (int chunkQuads : quads) {
+            total += chunkQuads;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,173 @@
+import com.jme3.math.Vector3f;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Casts random rays around a small planet with {@link VoxelRaycast} and
+ * compares every cast with sampling the ray at {@link #STEP} steps: both
+ * must agree on hit or miss, the hit block and the distance. The hit face
+ * must lie on the ray and open onto air. Some rays start inside a brick,
+ * some run along an axis. A ray that clips the corner of a brick for less
+ * than one step is missed by the sampling, such grazes are counted but not
+ * failed.<p>
+ *
+ * Exits with status 1 if any cast differs.<p>
+ *
+ * Usage: RaycastCrossCheck [rays], defaults to 20000.
+ */
+public class RaycastCrossCheck {
+
+    private static final int PLANET_RADIUS = 12;
+    private static final float STEP = 0.001f;
+    private static final float MAX_DISTANCE = 16f;
+
+    public static void main(String[] args) {
+        int rays = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        VoxelWorld voxels = new VoxelWorld();
+        ForkJoinPool pool = new ForkJoinPool();
+        new PlanetGenerator(pool).generateShell(voxels, 0, 0, 0, PLANET_RADIUS - 2, PLANET_RADIUS);
+        pool.shutdown();
+
+        VoxelRaycast raycast = new VoxelRaycast(voxels);
+        Random random = new Random(5);
+        Vector3f origin = new Vector3f();
+        Vector3f direction = new Vector3f();
+        Vector3f point = new Vector3f();
+        float extent = PLANET_RADIUS * VoxelWorld.BLOCK_SIZE + 4f;
+        int hits = 0;
+        int grazes = 0;
+        int mismatches = 0;
+        int faceErrors = 0;
+        long visited = 0;
+        for (int i = 0; i < rays; i++) {
+            origin.set(randomCoordinate(random, extent), randomCoordinate(random, extent), randomCoordinate(random, extent));
+            direction.set((float) random.nextGaussian(), (float) random.nextGaussian(), (float) random.nextGaussian());
+            // every eighth ray runs along an axis or a plane, where the walk never steps on some axes
+            if (random.nextInt(8) == 0) {
+                direction.x = 0;
+                if (random.nextBoolean()) {
+                    direction.z = 0;
+                }
+            }
+            if (direction.lengthSquared() == 0) {
+                continue;
+            }
+            direction.normalizeLocal();
+            boolean hit = raycast.cast(origin, direction, MAX_DISTANCE);
+            visited += raycast.getVisitedCells();
+
+            // first sample inside a solid block
+            float sampled = -1;
+            int x = 0;
+            int y = 0;
+            int z = 0;
+            for (int step = 0; step * STEP <= MAX_DISTANCE; step++) {
+                direction.mult(step * STEP, point).addLocal(origin);
+                x = VoxelWorld.toBlock(point.x);
+                y = VoxelWorld.toBlock(point.y);
+                z = VoxelWorld.toBlock(point.z);
+                if (voxels.isSolid(x, y, z)) {
+                    sampled = step * STEP;
+                    break;
+                }
+            }
+
+            if (hit && (sampled < 0 || raycast.getBlockX() != x || raycast.getBlockY() != y || raycast.getBlockZ() != z)
+                    && chord(origin, direction, raycast.getBlockX(), raycast.getBlockY(), raycast.getBlockZ()) < STEP) {
+                grazes++;
+                continue;
+            }
+            boolean same = hit == (sampled >= 0);
+            if (same && hit) {
+                same = raycast.getBlockX() == x && raycast.getBlockY() == y && raycast.getBlockZ() == z
+                        && raycast.getDistance() <= sampled + STEP * 0.01f && sampled - raycast.getDistance() <= STEP * 1.01f;
+            }
+            if (!same) {
+                mismatches++;
+                if (mismatches <= 5) {
+                    System.out.println("cast differs: raycast " + (hit ? describe(raycast) : "miss") + ", sampled "
+                            + (sampled >= 0 ? x + "," + y + "," + z + " at " + sampled : "miss") + " from " + origin + " along " + direction);
+                }
+                continue;
+            }
+            if (hit) {
+                hits++;
+                if (!isFaceValid(voxels, raycast, origin, direction)) {
+                    faceErrors++;
+                    if (faceErrors <= 5) {
+                        System.out.println("face differs: " + describe(raycast) + " from " + origin + " along " + direction);
+                    }
+                }
+            }
+        }
+        System.out.printf("%d rays, %d hits, %d grazes, %.1f cells per cast%n", rays, hits, grazes, (double) visited / rays);
+        System.out.printf("mismatches %d, face errors %d%n", mismatches, faceErrors);
+        if (mismatches > 0 || faceErrors > 0) {
+            System.out.println("FAILED: raycast differs from sampling");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return true if the ray started inside the block, or the face lies
+     * where the ray entered the block and the block in front of it is air
+     */
+    private static boolean isFaceValid(VoxelWorld voxels, VoxelRaycast raycast, Vector3f origin, Vector3f direction) {
+        int normalX = raycast.getNormalX();
+        int normalY = raycast.getNormalY();
+        int normalZ = raycast.getNormalZ();
+        if (normalX == 0 && normalY == 0 && normalZ == 0) {
+            return raycast.getDistance() == 0;
+        }
+        if (voxels.isSolid(raycast.getBlockX() + normalX, raycast.getBlockY() + normalY, raycast.getBlockZ() + normalZ)) {
+            return false;
+        }
+        float half = VoxelWorld.BLOCK_SIZE / 2;
+        float distance = raycast.getDistance();
+        float error;
+        if (normalX != 0) {
+            error = origin.x + direction.x * distance - (VoxelWorld.toWorld(raycast.getBlockX()) + normalX * half);
+        } else if (normalY != 0) {
+            error = origin.y + direction.y * distance - (VoxelWorld.toWorld(raycast.getBlockY()) + normalY * half);
+        } else {
+            error = origin.z + direction.z * distance - (VoxelWorld.toWorld(raycast.getBlockZ()) + normalZ * half);
+        }
+        return Math.abs(error) < STEP;
+    }
+
+    /**
+     * @return length of the part of the ray inside the block
+     */
+    private static float chord(Vector3f origin, Vector3f direction, int x, int y, int z) {
+        float half = VoxelWorld.BLOCK_SIZE / 2;
+        float[] from = {origin.x, origin.y, origin.z};
+        float[] along = {direction.x, direction.y, direction.z};
+        float[] center = {VoxelWorld.toWorld(x), VoxelWorld.toWorld(y), VoxelWorld.toWorld(z)};
+        float enter = 0;
+        float exit = MAX_DISTANCE;
+        for (int axis = 0; axis < 3; axis++) {
+            float min = center[axis] - half - from[axis];
+            float max = center[axis] + half - from[axis];
+            if (along[axis] == 0) {
+                if (min > 0 || max < 0) {
+                    return 0;
+                }
+                continue;
+            }
+            float t0 = min / along[axis];
+            float t1 = max / along[axis];
+            enter = Math.max(enter, Math.min(t0, t1));
+            exit = Math.min(exit, Math.max(t0, t1));
+        }
+        return Math.max(0, exit - enter);
+    }
+
+    private static String describe(VoxelRaycast raycast) {
+        return raycast.getBlockX() + "," + raycast.getBlockY() + "," + raycast.getBlockZ() + " at " + raycast.getDistance()
+                + " face " + raycast.getNormalX() + "," + raycast.getNormalY() + "," + raycast.getNormalZ();
+    }
+
+    private static float randomCoordinate(Random random, float extent) {
+        return (random.nextFloat() * 2f - 1f) * extent;
+    }
+}
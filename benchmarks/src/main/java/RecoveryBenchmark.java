@@ -0,0 +1,84 @@
+import com.bulletphysics.dynamics.DiscreteDynamicsWorld;
+import com.bulletphysics.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Compares the penetration recovery modes of the character controller.
+ * Characters are warped a bit into a brick field every tick, like gravity
+ * pushes them into the crust, and walk in circles. Reports the time of a
+ * preStep, the recovery loops, pairs and contacts per character and tick,
+ * and how deep the characters still are after recovering.<p>
+ *
+ * Usage: RecoveryBenchmark [characters], defaults to 100.
+ */
+public class RecoveryBenchmark {
+
+    private static final int WARMUP = 300;
+    private static final int TICKS = 600;
+    private static final float STEP = 1f / 60f;
+    /**
+     * how far the bottom of a capsule is pushed into the bricks every tick
+     */
+    private static final float SINK = 0.15f;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        System.out.println("mode                 preStep us  loops  pairs  contacts  depth left");
+        for (DanielKinematicCharacterController.RecoveryMode mode : DanielKinematicCharacterController.RecoveryMode.values()) {
+            run(mode, count);
+        }
+    }
+
+    private static void run(DanielKinematicCharacterController.RecoveryMode mode, int count) {
+        int side = (int) Math.ceil(Math.sqrt(count));
+        CharacterWorld characterWorld = new CharacterWorld();
+        characterWorld.addBrickField(side * 2 + 4);
+        DiscreteDynamicsWorld world = characterWorld.getWorld();
+        DanielKinematicCharacterController[] characters = new DanielKinematicCharacterController[count];
+        for (int i = 0; i < count; i++) {
+            characters[i] = characterWorld.addCharacter((i % side - side / 2) * 4f, (i / side - side / 2) * 4f);
+            characters[i].setRecoveryMode(mode);
+        }
+
+        Vector3f walk = new Vector3f();
+        Transform transform = new Transform();
+        // capsule of radius 0.5 and height 1 standing on the bricks
+        float standing = 1f;
+        long nanos = 0;
+        long loops = 0;
+        long pairs = 0;
+        long contacts = 0;
+        double depth = 0;
+        for (int tick = 0; tick < WARMUP + TICKS; tick++) {
+            for (int i = 0; i < count; i++) {
+                characters[i].getGhostObject().getWorldTransform(transform);
+                transform.origin.y = standing - SINK;
+                characters[i].warp(transform.origin);
+            }
+            // finds the new overlaps of the sunken characters
+            world.stepSimulation(STEP, 0);
+            for (int i = 0; i < count; i++) {
+                DanielKinematicCharacterController character = characters[i];
+                long start = System.nanoTime();
+                character.preStep(world);
+                long time = System.nanoTime() - start;
+                if (tick >= WARMUP) {
+                    nanos += time;
+                    loops += character.getRecoveryLoops();
+                    pairs += character.getRecoveryPairs();
+                    contacts += character.getRecoveryContacts();
+                    character.getGhostObject().getWorldTransform(transform);
+                    depth += Math.max(0f, standing - transform.origin.y);
+                }
+
+                float angle = tick * 0.02f + i;
+                walk.set((float) Math.cos(angle) * 0.1f, 0, (float) Math.sin(angle) * 0.1f);
+                character.setWalkDirection(walk);
+                character.playerStep(world, STEP);
+            }
+        }
+        double samples = (double) count * TICKS;
+        System.out.printf("%-20s %10.2f  %5.2f  %5.1f  %8.1f  %10.4f%n", mode, nanos / 1e3 / samples,
+                loops / samples, pairs / samples, contacts / samples, depth / samples);
+    }
+}
@@ -0,0 +1,145 @@
+import com.bulletphysics.collision.dispatch.CollisionWorld;
+import com.bulletphysics.collision.shapes.CapsuleShape;
+import com.bulletphysics.dynamics.DiscreteDynamicsWorld;
+import com.bulletphysics.linearmath.Transform;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import javax.vecmath.Vector3f;
+
+/**
+ * Sweeps random capsule moves around a small planet with Bullet, against one
+ * box per brick, and with {@link VoxelCapsuleSweep}, and compares hit
+ * fractions and normals. Moves that start inside a brick are skipped, both
+ * leave those to the penetration recovery. Also reports the time per sweep
+ * of both.<p>
+ *
+ * Exits with status 1 if a hit differs by more than the tolerance.<p>
+ *
+ * Usage: SweepCrossCheck [sweeps], defaults to 20000.
+ */
+public class SweepCrossCheck {
+
+    private static final int PLANET_RADIUS = 12;
+    /**
+     * Bullet rounds box edges by the collision margin, allow a bit more
+     */
+    private static final float DISTANCE_TOLERANCE = 0.06f;
+    private static final float NORMAL_TOLERANCE = 0.9f;
+
+    public static void main(String[] args) {
+        int sweeps = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        VoxelWorld voxels = new VoxelWorld();
+        ForkJoinPool pool = new ForkJoinPool();
+        new PlanetGenerator(pool).generateShell(voxels, 0, 0, 0, PLANET_RADIUS - 2, PLANET_RADIUS);
+        pool.shutdown();
+        CharacterWorld characterWorld = new CharacterWorld();
+        characterWorld.addBricks(voxels);
+        DiscreteDynamicsWorld world = characterWorld.getWorld();
+        // updates the aabbs of the bricks
+        world.stepSimulation(0f, 0);
+
+        CapsuleShape capsule = new CapsuleShape(0.5f, 1f);
+        VoxelCapsuleSweep voxelSweep = new VoxelCapsuleSweep(voxels);
+        Random random = new Random(3);
+        Transform start = new Transform();
+        Transform end = new Transform();
+        start.setIdentity();
+        end.setIdentity();
+        float extent = PLANET_RADIUS * VoxelWorld.BLOCK_SIZE + 4f;
+        int compared = 0;
+        int hits = 0;
+        int fractionErrors = 0;
+        int normalErrors = 0;
+        float maxDistanceError = 0;
+        long bulletNanos = 0;
+        long voxelNanos = 0;
+        for (int i = 0; i < sweeps; i++) {
+            start.origin.set(randomCoordinate(random, extent), randomCoordinate(random, extent), randomCoordinate(random, extent));
+            end.origin.set(random.nextFloat() * 8f - 4f, random.nextFloat() * 8f - 4f, random.nextFloat() * 8f - 4f);
+            end.origin.add(start.origin);
+            if (isInsideBrick(voxels, start.origin, capsule.getRadius(), capsule.getHalfHeight())) {
+                continue;
+            }
+            compared++;
+
+            CollisionWorld.ClosestConvexResultCallback bullet = new CollisionWorld.ClosestConvexResultCallback(start.origin, end.origin);
+            long time = System.nanoTime();
+            world.convexSweepTest(capsule, start, end, bullet);
+            bulletNanos += System.nanoTime() - time;
+
+            CollisionWorld.ClosestConvexResultCallback voxel = new CollisionWorld.ClosestConvexResultCallback(start.origin, end.origin);
+            time = System.nanoTime();
+            voxelSweep.convexSweepTest(world, null, capsule, start, end, voxel);
+            voxelNanos += System.nanoTime() - time;
+
+            float length = (float) Math.sqrt(squareDistance(start.origin, end.origin));
+            float distanceError = Math.abs(bullet.closestHitFraction - voxel.closestHitFraction) * length;
+            maxDistanceError = Math.max(maxDistanceError, distanceError);
+            if (distanceError > DISTANCE_TOLERANCE) {
+                fractionErrors++;
+                if (fractionErrors <= 5) {
+                    System.out.println("fraction differs: bullet " + bullet.closestHitFraction + " voxel " + voxel.closestHitFraction
+                            + " from " + start.origin + " to " + end.origin);
+                }
+                continue;
+            }
+            if (bullet.hasHit() && voxel.hasHit()) {
+                hits++;
+                if (bullet.hitNormalWorld.dot(voxel.hitNormalWorld) < NORMAL_TOLERANCE) {
+                    normalErrors++;
+                    if (normalErrors <= 5) {
+                        System.out.println("normal differs: bullet " + bullet.hitNormalWorld + " voxel " + voxel.hitNormalWorld
+                                + " from " + start.origin + " to " + end.origin);
+                    }
+                }
+            }
+        }
+        System.out.printf("%d sweeps compared, %d hits, max distance error %.4f%n", compared, hits, maxDistanceError);
+        System.out.printf("fraction mismatches %d, normal mismatches %d%n", fractionErrors, normalErrors);
+        System.out.printf("bullet %.2f us per sweep, voxel %.2f us per sweep%n",
+                bulletNanos / 1e3 / compared, voxelNanos / 1e3 / compared);
+        if (fractionErrors > 0 || normalErrors > 0) {
+            System.out.println("FAILED: voxel sweep differs from bullet");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return true if the capsule at the location overlaps a solid block
+     */
+    private static boolean isInsideBrick(VoxelWorld voxels, Vector3f location, float radius, float halfHeight) {
+        int minX = VoxelWorld.toBlock(location.x - radius);
+        int maxX = VoxelWorld.toBlock(location.x + radius);
+        int minY = VoxelWorld.toBlock(location.y - radius - halfHeight);
+        int maxY = VoxelWorld.toBlock(location.y + radius + halfHeight);
+        int minZ = VoxelWorld.toBlock(location.z - radius);
+        int maxZ = VoxelWorld.toBlock(location.z + radius);
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    if (!voxels.isSolid(x, y, z)) {
+                        continue;
+                    }
+                    float dx = Math.max(0, Math.abs(location.x - VoxelWorld.toWorld(x)) - 1f);
+                    float dy = Math.max(0, Math.abs(location.y - VoxelWorld.toWorld(y)) - 1f - halfHeight);
+                    float dz = Math.max(0, Math.abs(location.z - VoxelWorld.toWorld(z)) - 1f);
+                    if (dx * dx + dy * dy + dz * dz < radius * radius) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static float randomCoordinate(Random random, float extent) {
+        return (random.nextFloat() * 2f - 1f) * extent;
+    }
+
+    private static float squareDistance(Vector3f a, Vector3f b) {
+        float dx = a.x - b.x;
+        float dy = a.y - b.y;
+        float dz = a.z - b.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
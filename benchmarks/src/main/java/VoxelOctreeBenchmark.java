@@ -0,0 +1,104 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares dense chunks with {@link VoxelOctree} for whole planets: memory,
+ * build time and random lookups near the surface, where both have to walk
+ * to the block. Planets get the game's crust of one brick and a thick crust
+ * of 16 bricks. Dense memory counts the block arrays plus an estimated
+ * {@link #CHUNK_OVERHEAD} per chunk for the chunk object and its map entry,
+ * octree memory counts the groups and packed cubes in use.<p>
+ *
+ * Usage: VoxelOctreeBenchmark [radius...], defaults to 100 200 300 500.
+ */
+public class VoxelOctreeBenchmark {
+
+    private static final int WARMUP = 2;
+    private static final int RUNS = 5;
+    private static final int LOOKUPS = 1 << 22;
+    private static final int CHUNK_OVERHEAD = 112;
+    private static final int[] CRUSTS = {1, 16};
+
+    public static void main(String[] args) {
+        int[] radii = {100, 200, 300, 500};
+        if (args.length > 0) {
+            radii = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                radii[i] = Integer.parseInt(args[i]);
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(1);
+        System.out.println("radius  crust  chunks  dense MB  octree MB   groups   packed  dense build ms  octree build ms"
+                + "  dense Mlookups/s  octree Mlookups/s");
+        for (int radius : radii) {
+            for (int crust : CRUSTS) {
+                run(pool, radius, crust);
+            }
+        }
+        pool.shutdown();
+    }
+
+    private static void run(ForkJoinPool pool, int radius, int crust) {
+        PlanetGenerator generator = new PlanetGenerator(pool);
+        int[] lookups = lookupPoints(radius, crust);
+        long denseBuild = Long.MAX_VALUE;
+        long octreeBuild = Long.MAX_VALUE;
+        long denseLookup = Long.MAX_VALUE;
+        long octreeLookup = Long.MAX_VALUE;
+        VoxelWorld world = null;
+        VoxelOctree octree = null;
+        int sink = 0;
+        for (int i = 0; i < WARMUP + RUNS; i++) {
+            world = null;
+            octree = null;
+            long start = System.nanoTime();
+            world = new VoxelWorld();
+            generator.generateShell(world, 0, 0, 0, radius - crust, radius);
+            long built = System.nanoTime();
+            octree = new VoxelOctree(VoxelOctree.depthFor(radius));
+            octree.fillShell(0, 0, 0, radius - crust, radius);
+            long octreeBuilt = System.nanoTime();
+            for (int j = 0; j < lookups.length; j += 3) {
+                sink += world.getBlock(lookups[j], lookups[j + 1], lookups[j + 2]);
+            }
+            long looked = System.nanoTime();
+            for (int j = 0; j < lookups.length; j += 3) {
+                sink -= octree.getBlock(lookups[j], lookups[j + 1], lookups[j + 2]);
+            }
+            long octreeLooked = System.nanoTime();
+            if (i >= WARMUP) {
+                denseBuild = Math.min(denseBuild, built - start);
+                octreeBuild = Math.min(octreeBuild, octreeBuilt - built);
+                denseLookup = Math.min(denseLookup, looked - octreeBuilt);
+                octreeLookup = Math.min(octreeLookup, octreeLooked - looked);
+            }
+        }
+        if (sink != 0 || octree.getSolidCount() != world.getSolidCount()) {
+            throw new IllegalStateException("the octree of radius " + radius + " differs from the dense planet");
+        }
+        int chunks = world.getChunks().size();
+        double denseBytes = (double) chunks * (Chunk.VOLUME + CHUNK_OVERHEAD);
+        double octreeBytes = octree.getUsedBytes();
+        System.out.printf("%6d  %5d  %6d  %8.1f  %9.2f  %7d  %7d  %14.1f  %15.1f  %16.1f  %17.1f%n", radius, crust, chunks,
+                denseBytes / (1 << 20), octreeBytes / (1 << 20), octree.getGroupCount(), octree.getPackedCount(),
+                denseBuild / 1e6, octreeBuild / 1e6, LOOKUPS * 1e3 / denseLookup, LOOKUPS * 1e3 / octreeLookup);
+    }
+
+    /**
+     * @return x, y, z of random blocks within two bricks of the crust
+     */
+    private static int[] lookupPoints(int radius, int crust) {
+        Random random = new Random(radius);
+        int[] points = new int[LOOKUPS * 3];
+        for (int i = 0; i < points.length; i += 3) {
+            double x = random.nextGaussian();
+            double y = random.nextGaussian();
+            double z = random.nextGaussian();
+            double scale = (radius - crust - 2 + random.nextDouble() * (crust + 4)) / Math.sqrt(x * x + y * y + z * z);
+            points[i] = (int) Math.round(x * scale);
+            points[i + 1] = (int) Math.round(y * scale);
+            points[i + 2] = (int) Math.round(z * scale);
+        }
+        return points;
+    }
+}
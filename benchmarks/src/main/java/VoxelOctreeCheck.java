@@ -0,0 +1,190 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks {@link VoxelOctree} against dense chunks:
+ * <ul>
+ * <li>getBlock of a tree filled with fillShell against the planet
+ * {@link PlanetGenerator#generateShell} builds, block by block for several
+ * radii and crusts,</li>
+ * <li>fillChunk against the dense chunks, and a tree built with writeChunk
+ * from them against the one built with fillShell,</li>
+ * <li>random edits near the crust followed by their reverse, which must
+ * leave the same blocks and the same number of groups and packed cubes, so
+ * splits and merges undo each other.</li>
+ * </ul>
+ *
+ * Exits with status 1 on the first check that fails.<p>
+ *
+ * Usage: VoxelOctreeCheck [edits], defaults to 5000.
+ */
+public class VoxelOctreeCheck {
+
+    private static final int[] RADII = {5, 12, 30, 64};
+    private static final int[] CRUSTS = {1, 3, 16};
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        int edits = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        ForkJoinPool pool = new ForkJoinPool();
+        PlanetGenerator generator = new PlanetGenerator(pool);
+        for (int radius : RADII) {
+            for (int crust : CRUSTS) {
+                // a crust thicker than the radius makes a solid ball
+                crust = Math.min(crust, radius);
+                VoxelWorld world = new VoxelWorld();
+                generator.generateShell(world, 0, 0, 0, radius - crust, radius);
+                // big enough for every chunk of the planet, so writeChunk can take them whole
+                VoxelOctree octree = new VoxelOctree(VoxelOctree.depthFor(((radius >> Chunk.SHIFT) + 1) << Chunk.SHIFT));
+                octree.fillShell(0, 0, 0, radius - crust, radius);
+                String planet = "radius " + radius + " crust " + crust;
+                checkBlocks(planet, world, octree, radius + 2);
+                checkFillChunk(planet, world, octree, radius);
+                checkWriteChunk(planet, world, octree, radius + 2);
+                checkEdits(planet, octree, radius, crust, edits);
+            }
+        }
+        pool.shutdown();
+        if (failures > 0) {
+            System.out.println("FAILED: " + failures + " checks");
+            System.exit(1);
+        }
+        System.out.println("all checks passed");
+    }
+
+    private static void checkBlocks(String planet, VoxelWorld world, VoxelOctree octree, int extent) {
+        int mismatches = 0;
+        for (int x = -extent; x <= extent; x++) {
+            for (int y = -extent; y <= extent; y++) {
+                for (int z = -extent; z <= extent; z++) {
+                    if (octree.getBlock(x, y, z) != world.getBlock(x, y, z)) {
+                        mismatches++;
+                    }
+                }
+            }
+        }
+        if (octree.getSolidCount() != world.getSolidCount()) {
+            fail(planet + ": " + octree.getSolidCount() + " solid blocks in the octree, " + world.getSolidCount() + " dense");
+        }
+        if (mismatches > 0) {
+            fail(planet + ": getBlock differs from generateShell at " + mismatches + " blocks");
+        }
+        System.out.printf("%s: %d solid blocks, %d groups, %d packed%n", planet, octree.getSolidCount(),
+                octree.getGroupCount(), octree.getPackedCount());
+    }
+
+    private static void checkFillChunk(String planet, VoxelWorld world, VoxelOctree octree, int radius) {
+        int reach = (radius >> Chunk.SHIFT) + 1;
+        VoxelWorld filled = new VoxelWorld();
+        int mismatches = 0;
+        for (int chunkX = -reach; chunkX <= reach; chunkX++) {
+            for (int chunkY = -reach; chunkY <= reach; chunkY++) {
+                for (int chunkZ = -reach; chunkZ <= reach; chunkZ++) {
+                    Chunk dense = world.getChunk(chunkX, chunkY, chunkZ);
+                    boolean expected = dense != null && !dense.isEmpty();
+                    if (octree.fillChunk(filled, chunkX, chunkY, chunkZ) != expected) {
+                        mismatches++;
+                        continue;
+                    }
+                    if (!expected) {
+                        continue;
+                    }
+                    Chunk chunk = filled.getChunk(chunkX, chunkY, chunkZ);
+                    if (chunk.getSolidCount() != dense.getSolidCount() || !sameBlocks(chunk, dense)) {
+                        mismatches++;
+                    }
+                }
+            }
+        }
+        if (mismatches > 0) {
+            fail(planet + ": fillChunk differs from the dense chunk for " + mismatches + " chunks");
+        }
+    }
+
+    private static void checkWriteChunk(String planet, VoxelWorld world, VoxelOctree octree, int extent) {
+        VoxelOctree written = new VoxelOctree(octree.getDepth());
+        for (Chunk chunk : world.getChunks()) {
+            written.writeChunk(chunk);
+        }
+        if (written.getGroupCount() != octree.getGroupCount() || written.getPackedCount() != octree.getPackedCount()) {
+            fail(planet + ": writeChunk built " + written.getGroupCount() + " groups and " + written.getPackedCount()
+                    + " packed, fillShell " + octree.getGroupCount() + " and " + octree.getPackedCount());
+        }
+        if (!sameBlocks(written, octree, extent)) {
+            fail(planet + ": the tree built with writeChunk differs from the one built with fillShell");
+        }
+    }
+
+    /**
+     * Edits random blocks within two bricks of the crust, then sets every
+     * one back to the id it had, in reverse order.
+     */
+    private static void checkEdits(String planet, VoxelOctree octree, int radius, int crust, int edits) {
+        int groups = octree.getGroupCount();
+        int packed = octree.getPackedCount();
+        long solid = octree.getSolidCount();
+        VoxelOctree reference = new VoxelOctree(octree.getDepth());
+        reference.fillShell(0, 0, 0, radius - crust, radius);
+        Random random = new Random(radius * 31 + crust);
+        int[] points = new int[edits * 3];
+        byte[] previous = new byte[edits];
+        for (int i = 0; i < edits; i++) {
+            double x = random.nextGaussian();
+            double y = random.nextGaussian();
+            double z = random.nextGaussian();
+            double scale = (radius - crust - 2 + random.nextDouble() * (crust + 4)) / Math.sqrt(x * x + y * y + z * z);
+            points[i * 3] = (int) Math.round(x * scale);
+            points[i * 3 + 1] = (int) Math.round(y * scale);
+            points[i * 3 + 2] = (int) Math.round(z * scale);
+            byte id = (byte) random.nextInt(3);
+            previous[i] = octree.setBlock(points[i * 3], points[i * 3 + 1], points[i * 3 + 2], id);
+            if (octree.getBlock(points[i * 3], points[i * 3 + 1], points[i * 3 + 2]) != id) {
+                fail(planet + ": setBlock did not store block " + id);
+                return;
+            }
+        }
+        for (int i = edits - 1; i >= 0; i--) {
+            octree.setBlock(points[i * 3], points[i * 3 + 1], points[i * 3 + 2], previous[i]);
+        }
+        if (octree.getGroupCount() != groups || octree.getPackedCount() != packed || octree.getSolidCount() != solid) {
+            fail(planet + ": " + edits + " edits and their reverse left " + octree.getGroupCount() + " groups, "
+                    + octree.getPackedCount() + " packed and " + octree.getSolidCount() + " solid blocks instead of "
+                    + groups + ", " + packed + " and " + solid);
+        }
+        if (!sameBlocks(octree, reference, radius + 2)) {
+            fail(planet + ": " + edits + " edits and their reverse changed blocks");
+        }
+    }
+
+    private static boolean sameBlocks(Chunk a, Chunk b) {
+        for (int y = 0; y < Chunk.SIZE; y++) {
+            for (int z = 0; z < Chunk.SIZE; z++) {
+                for (int x = 0; x < Chunk.SIZE; x++) {
+                    if (a.getBlock(x, y, z) != b.getBlock(x, y, z)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameBlocks(VoxelOctree a, VoxelOctree b, int extent) {
+        for (int x = -extent; x <= extent; x++) {
+            for (int y = -extent; y <= extent; y++) {
+                for (int z = -extent; z <= extent; z++) {
+                    if (a.getBlock(x, y, z) != b.getBlock(x, y, z)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void fail(String message) {
+        failures++;
+        System.out.println(message);
+    }
+}
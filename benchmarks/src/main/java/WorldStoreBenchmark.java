@@ -0,0 +1,113 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares loading a saved planet from its region files with generating it,
+ * both on all cores, and checks that the loaded blocks are the generated ones.
+ * Region files are written to a temporary directory that is deleted
+ * afterwards.<p>
+ *
+ * Usage: WorldStoreBenchmark [radius...], defaults to 30 100 200.
+ */
+public class WorldStoreBenchmark {
+
+    private static final int WARMUP = 2;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int[] radii = {30, 100, 200};
+        if (args.length > 0) {
+            radii = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                radii[i] = Integer.parseInt(args[i]);
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool();
+        System.out.println("radius  chunks  generate ms  save ms  load ms  kB on disk  bytes/chunk");
+        for (int radius : radii) {
+            run(pool, radius);
+        }
+        pool.shutdown();
+    }
+
+    private static void run(ForkJoinPool pool, int radius) throws IOException {
+        PlanetGenerator generator = new PlanetGenerator(pool);
+        File directory = File.createTempFile("planet-" + radius + "-", "");
+        directory.delete();
+        long generate = Long.MAX_VALUE;
+        long save = Long.MAX_VALUE;
+        long load = Long.MAX_VALUE;
+        VoxelWorld generated = null;
+        VoxelWorld loaded = null;
+        long used = 0;
+        int chunks = 0;
+        try {
+            for (int i = 0; i < WARMUP + RUNS; i++) {
+                generated = new VoxelWorld();
+                long start = System.nanoTime();
+                generator.generateShell(generated, 0, 0, 0, radius - 1, radius);
+                long end = System.nanoTime();
+
+                WorldStore store = new WorldStore(directory);
+                long saveStart = System.nanoTime();
+                chunks = store.save(generated);
+                long saveEnd = System.nanoTime();
+                used = store.getUsedSize();
+                store.close();
+
+                loaded = new VoxelWorld();
+                store = new WorldStore(directory);
+                long loadStart = System.nanoTime();
+                store.load(loaded, pool);
+                long loadEnd = System.nanoTime();
+                store.close();
+                if (i >= WARMUP) {
+                    generate = Math.min(generate, end - start);
+                    save = Math.min(save, saveEnd - saveStart);
+                    load = Math.min(load, loadEnd - loadStart);
+                }
+            }
+        } finally {
+            delete(directory);
+        }
+        if (!sameBlocks(generated, loaded)) {
+            throw new IllegalStateException("the loaded planet of radius " + radius + " differs from the saved one");
+        }
+        System.out.printf("%6d  %6d  %11.1f  %7.1f  %7.1f  %10.1f  %11.0f%n", radius, chunks,
+                generate / 1e6, save / 1e6, load / 1e6, used / 1024.0, (double) used / chunks);
+    }
+
+    private static boolean sameBlocks(VoxelWorld expected, VoxelWorld actual) {
+        byte[] expectedBlocks = new byte[Chunk.VOLUME];
+        byte[] actualBlocks = new byte[Chunk.VOLUME];
+        int nonEmpty = 0;
+        for (Chunk chunk : expected.getChunks()) {
+            if (chunk.isEmpty()) {
+                continue;
+            }
+            nonEmpty++;
+            Chunk other = actual.getChunk(chunk.getChunkX(), chunk.getChunkY(), chunk.getChunkZ());
+            if (other == null || other.getSolidCount() != chunk.getSolidCount()) {
+                return false;
+            }
+            chunk.readBlocks(expectedBlocks);
+            other.readBlocks(actualBlocks);
+            if (!Arrays.equals(expectedBlocks, actualBlocks)) {
+                return false;
+            }
+        }
+        return nonEmpty == actual.getChunks().size();
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,231 @@
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.bullet.collision.shapes.SphereCollisionShape;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.material.Material;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.queue.RenderQueue.ShadowMode;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.shape.Sphere;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cannon balls that are reused instead of created per shot. At most
+ * maxLive balls are in the scene and the physics space at once, a ball is
+ * taken out again once it is older than its time to live. When all balls
+ * are flying a new shot takes a sleeping ball, or the oldest one if none
+ * sleeps, so sustained fire keeps memory and tick time flat.<p>
+ *
+ * All balls share one mesh, material and collision shape. Call
+ * {@link #update(float)} once per frame.
+ */
+public class CannonBallPool {
+
+    private final Node parent;
+    private final PhysicsSpace space;
+    private final Sphere mesh;
+    private final Material material;
+    private final CollisionShape shape;
+    private final float mass;
+    private int maxLive;
+    private float timeToLive;
+    private float time;
+
+    /**
+     * flying balls, oldest first
+     */
+    private final List<Ball> live = new ArrayList<Ball>();
+    private final ArrayDeque<Ball> free = new ArrayDeque<Ball>();
+    private int created;
+    private int recycled;
+    private int shots;
+    private PhysicsLodManager lodManager;
+
+    private static class Ball {
+
+        final Geometry geometry;
+        final RigidBodyControl body;
+        float firedAt;
+        int shot;
+
+        Ball(Geometry geometry, RigidBodyControl body) {
+            this.geometry = geometry;
+            this.body = body;
+        }
+    }
+
+    /**
+     * @param maxLive number of balls that may fly at the same time
+     * @param timeToLive seconds until a ball is removed, 0 keeps balls until
+     * they are recycled
+     */
+    public CannonBallPool(Node parent, PhysicsSpace space, Material material, float radius, float mass,
+            int maxLive, float timeToLive) {
+        if (maxLive < 1) {
+            throw new IllegalArgumentException("maxLive must be at least 1");
+        }
+        this.parent = parent;
+        this.space = space;
+        this.material = material;
+        this.mass = mass;
+        this.maxLive = maxLive;
+        this.timeToLive = timeToLive;
+        mesh = new Sphere(32, 32, radius, true, false);
+        mesh.setTextureMode(Sphere.TextureMode.Projected);
+        shape = new SphereCollisionShape(radius);
+    }
+
+    /**
+     * Shoots a ball from the location with the velocity.
+     *
+     * @return the geometry of the ball, owned by the pool
+     */
+    public Geometry fire(Vector3f location, Vector3f velocity) {
+        Ball ball;
+        if (live.size() >= maxLive) {
+            ball = live.remove(findRecyclable());
+            space.remove(ball.body);
+            recycled++;
+        } else {
+            ball = free.poll();
+            if (ball == null) {
+                ball = createBall();
+            }
+            parent.attachChild(ball.geometry);
+        }
+        ball.geometry.setLocalTranslation(location);
+        ball.body.setPhysicsLocation(location);
+        ball.body.setLinearVelocity(velocity);
+        ball.body.setAngularVelocity(Vector3f.ZERO);
+        space.add(ball.body);
+        ball.body.activate();
+        ball.firedAt = time;
+        ball.shot = ++shots;
+        live.add(ball);
+        return ball.geometry;
+    }
+
+    /**
+     * @return index of the first sleeping ball, the oldest ball if all are awake
+     */
+    private int findRecyclable() {
+        for (int i = 0; i < live.size(); i++) {
+            if (!live.get(i).body.isActive()) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private Ball createBall() {
+        Geometry geometry = new Geometry("cannon ball", mesh);
+        geometry.setMaterial(material);
+        geometry.setShadowMode(ShadowMode.CastAndReceive);
+        RigidBodyControl body = new RigidBodyControl(shape, mass);
+        geometry.addControl(body);
+        created++;
+        return new Ball(geometry, body);
+    }
+
+    /**
+     * Removes balls that outlived their time to live.
+     */
+    public void update(float tpf) {
+        time += tpf;
+        if (timeToLive <= 0) {
+            return;
+        }
+        // balls are fired in order, so expired balls are at the front
+        while (!live.isEmpty() && time - live.get(0).firedAt > timeToLive) {
+            release(live.remove(0));
+        }
+    }
+
+    /**
+     * Takes all balls out of the scene and the physics space.
+     */
+    public void clear() {
+        for (int i = live.size() - 1; i >= 0; i--) {
+            release(live.remove(i));
+        }
+    }
+
+    private void release(Ball ball) {
+        if (lodManager != null) {
+            // a frozen ball must not come back once it is in the free list
+            lodManager.forget(ball.body);
+        }
+        space.remove(ball.body);
+        ball.geometry.removeFromParent();
+        free.push(ball);
+    }
+
+    /**
+     * @param lodManager manager that may freeze flying balls, or null
+     */
+    public void setLodManager(PhysicsLodManager lodManager) {
+        this.lodManager = lodManager;
+    }
+
+    public void setMaxLive(int maxLive) {
+        if (maxLive < 1) {
+            throw new IllegalArgumentException("maxLive must be at least 1");
+        }
+        this.maxLive = maxLive;
+        while (live.size() > maxLive) {
+            release(live.remove(0));
+        }
+    }
+
+    public int getMaxLive() {
+        return maxLive;
+    }
+
+    public void setTimeToLive(float timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public float getTimeToLive() {
+        return timeToLive;
+    }
+
+    public int getLiveCount() {
+        return live.size();
+    }
+
+    /**
+     * @param index of a flying ball, 0 is the oldest
+     * @return the ball's body, the pool reuses it for later shots
+     */
+    public RigidBodyControl getLiveBody(int index) {
+        return live.get(index).body;
+    }
+
+    /**
+     * @param index of a flying ball, 0 is the oldest
+     * @return number of the shot the ball flies for, counting from 1, it
+     * changes when the pool reuses the ball
+     */
+    public int getLiveShot(int index) {
+        return live.get(index).shot;
+    }
+
+    /**
+     * @return number of balls ever created, never more than the largest max
+     * live count
+     */
+    public int getCreatedCount() {
+        return created;
+    }
+
+    /**
+     * @return number of shots that took a ball that was still flying
+     */
+    public int getRecycledCount() {
+        return recycled;
+    }
+}
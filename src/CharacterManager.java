@@ -0,0 +1,146 @@
+import com.bulletphysics.collision.dispatch.CollisionWorld;
+import com.bulletphysics.dynamics.ActionInterface;
+import com.bulletphysics.linearmath.IDebugDraw;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Steps a crowd of characters as one action of the dynamics world. Add the
+ * manager with addAction instead of adding every character.<p>
+ *
+ * A tick has three phases:
+ * <ol>
+ * <li>every character recovers from penetration, one after the other, as
+ * this dispatches contacts and moves ghost objects</li>
+ * <li>the sweeps of characters using a {@link VoxelCapsuleSweep} are
+ * computed on the fork-join pool, they only read blocks. Characters using
+ * Bullet's sweep are computed one after the other on the calling thread, as
+ * Bullet's mesh shapes are not safe to query from several threads, see
+ * {@link DanielKinematicCharacterController#isConcurrentStep()}</li>
+ * <li>the new positions are committed in the order the characters were
+ * added</li>
+ * </ol>
+ * Every character sees the world as it was before the tick, so the result
+ * does not depend on the number of threads. Characters must not share
+ * collision shapes, a step changes the margin of its shape.
+ */
+public class CharacterManager extends ActionInterface {
+
+    /**
+     * characters computed by one task, below this splitting costs more than it gains
+     */
+    private static final int CHARACTERS_PER_TASK = 16;
+
+    private final ForkJoinPool pool;
+    private final List<DanielKinematicCharacterController> characters = new ArrayList<DanielKinematicCharacterController>();
+    private DanielKinematicCharacterController[] stepping = new DanielKinematicCharacterController[0];
+    // the characters of stepping that are computed on the pool
+    private DanielKinematicCharacterController[] concurrent = new DanielKinematicCharacterController[0];
+    private int concurrentCount;
+    private long lastComputeNanos;
+
+    public CharacterManager(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void add(DanielKinematicCharacterController character) {
+        characters.add(character);
+    }
+
+    public void remove(DanielKinematicCharacterController character) {
+        characters.remove(character);
+    }
+
+    public int getCharacterCount() {
+        return characters.size();
+    }
+
+    /**
+     * @return characters whose steps were computed on the pool in the last tick
+     */
+    public int getConcurrentCount() {
+        return concurrentCount;
+    }
+
+    /**
+     * @return nanoseconds the second phase took in the last tick
+     */
+    public long getLastComputeNanos() {
+        return lastComputeNanos;
+    }
+
+    // ActionInterface interface
+    public void updateAction(CollisionWorld collisionWorld, float deltaTime) {
+        int count = characters.size();
+        if (stepping.length != count) {
+            stepping = new DanielKinematicCharacterController[count];
+            concurrent = new DanielKinematicCharacterController[count];
+        }
+        characters.toArray(stepping);
+        for (int i = 0; i < count; i++) {
+            stepping[i].preStep(collisionWorld);
+        }
+        long start = System.nanoTime();
+        concurrentCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (stepping[i].isConcurrentStep()) {
+                concurrent[concurrentCount++] = stepping[i];
+            } else {
+                stepping[i].computeStep(collisionWorld, deltaTime);
+            }
+        }
+        if (concurrentCount <= CHARACTERS_PER_TASK || pool.getParallelism() == 1) {
+            computeSteps(collisionWorld, deltaTime, 0, concurrentCount);
+        } else {
+            pool.invoke(new StepTask(collisionWorld, deltaTime, 0, concurrentCount));
+        }
+        lastComputeNanos = System.nanoTime() - start;
+        for (int i = 0; i < count; i++) {
+            stepping[i].commitStep();
+        }
+    }
+
+    private void computeSteps(CollisionWorld collisionWorld, float deltaTime, int start, int end) {
+        for (int i = start; i < end; i++) {
+            concurrent[i].computeStep(collisionWorld, deltaTime);
+        }
+    }
+
+    // ActionInterface interface
+    public void debugDraw(IDebugDraw debugDrawer) {
+    }
+
+    /**
+     * Computes the steps of a range of the concurrent characters, splitting
+     * itself until the range is small enough.
+     */
+    @SuppressWarnings("serial")
+    private class StepTask extends RecursiveAction {
+
+        final CollisionWorld collisionWorld;
+        final float deltaTime;
+        final int start;
+        final int end;
+
+        StepTask(CollisionWorld collisionWorld, float deltaTime, int start, int end) {
+            this.collisionWorld = collisionWorld;
+            this.deltaTime = deltaTime;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > CHARACTERS_PER_TASK) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new StepTask(collisionWorld, deltaTime, start, mid),
+                        new StepTask(collisionWorld, deltaTime, mid, end));
+                return;
+            }
+            computeSteps(collisionWorld, deltaTime, start, end);
+        }
+    }
+}
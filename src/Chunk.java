@@ -0,0 +1,128 @@
+import java.util.Arrays;
+
+/**
+ * A fixed size cube of blocks. Block ids are kept in a flat byte array
+ * indexed x first, then z, then y.
+ */
+public class Chunk {
+
+    public static final int SHIFT = 4;
+    public static final int SIZE = 1 << SHIFT;
+    public static final int MASK = SIZE - 1;
+    public static final int VOLUME = SIZE * SIZE * SIZE;
+
+    private final int chunkX;
+    private final int chunkY;
+    private final int chunkZ;
+    private final byte[] blocks = new byte[VOLUME];
+    private int solidCount;
+
+    public Chunk(int chunkX, int chunkY, int chunkZ) {
+        this.chunkX = chunkX;
+        this.chunkY = chunkY;
+        this.chunkZ = chunkZ;
+    }
+
+    public static int index(int x, int y, int z) {
+        return (y << (SHIFT + SHIFT)) | (z << SHIFT) | x;
+    }
+
+    /**
+     * @param x local x, 0 to SIZE - 1
+     * @param y local y, 0 to SIZE - 1
+     * @param z local z, 0 to SIZE - 1
+     */
+    public byte getBlock(int x, int y, int z) {
+        return blocks[index(x, y, z)];
+    }
+
+    /**
+     * @return the previous block id at that position
+     */
+    public byte setBlock(int x, int y, int z, byte id) {
+        int i = index(x, y, z);
+        byte old = blocks[i];
+        if (old == id) {
+            return old;
+        }
+        if (old == VoxelWorld.AIR) {
+            solidCount++;
+        } else if (id == VoxelWorld.AIR) {
+            solidCount--;
+        }
+        blocks[i] = id;
+        return old;
+    }
+
+    /**
+     * Copies all block ids, in {@link #index} order, into store.
+     */
+    public void readBlocks(byte[] store) {
+        System.arraycopy(blocks, 0, store, 0, VOLUME);
+    }
+
+    /**
+     * Sets every block to air.
+     */
+    public void clear() {
+        if (solidCount != 0) {
+            Arrays.fill(blocks, VoxelWorld.AIR);
+            solidCount = 0;
+        }
+    }
+
+    /**
+     * The block ids in index order, for codecs that fill a whole cleared
+     * chunk at once. They must tell the chunk its new solid count.
+     */
+    byte[] getBlockArray() {
+        return blocks;
+    }
+
+    void setSolidCount(int solidCount) {
+        this.solidCount = solidCount;
+    }
+
+    public boolean isSolid(int x, int y, int z) {
+        return blocks[index(x, y, z)] != VoxelWorld.AIR;
+    }
+
+    public boolean isEmpty() {
+        return solidCount == 0;
+    }
+
+    public int getSolidCount() {
+        return solidCount;
+    }
+
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    public int getChunkY() {
+        return chunkY;
+    }
+
+    public int getChunkZ() {
+        return chunkZ;
+    }
+
+    /**
+     * @return block x coordinate of this chunk's local origin
+     */
+    public int getOriginX() {
+        return chunkX << SHIFT;
+    }
+
+    public int getOriginY() {
+        return chunkY << SHIFT;
+    }
+
+    public int getOriginZ() {
+        return chunkZ << SHIFT;
+    }
+
+    public long getKey() {
+        return VoxelWorld.chunkKey(chunkX, chunkY, chunkZ);
+    }
+}
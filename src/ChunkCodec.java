@@ -0,0 +1,208 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Writes the blocks of a {@link Chunk} with a palette of the block ids it
+ * uses. The layout is
+ * <pre>
+ * mode, palette size - 1, palette ids
+ * UNIFORM: nothing, the whole chunk is the one palette id
+ * PACKED:  palette indices in {@link Chunk#index} order, 1, 2, 4 or 8
+ *          bits each, lowest bits first
+ * RUNS:    run length (var int), palette index; until the chunk is full
+ * </pre>
+ * The encoder picks whichever of PACKED and RUNS is smaller. The crust of a
+ * planet is mostly long runs of air or brick, so most chunks take a few
+ * hundred bytes instead of {@link Chunk#VOLUME}. Codecs keep scratch state,
+ * use one per thread.
+ */
+public class ChunkCodec {
+
+    public static final int UNIFORM = 0;
+    public static final int PACKED = 1;
+    public static final int RUNS = 2;
+
+    /**
+     * largest encoded chunk: a palette of every id and 8 bit indices
+     */
+    public static final int MAX_SIZE = 2 + 256 + Chunk.VOLUME;
+
+    //TEMP VARIABLES
+    private final byte[] blocks = new byte[Chunk.VOLUME];
+    private final byte[] indices = new byte[Chunk.VOLUME];
+    private final byte[] palette = new byte[256];
+    private final int[] paletteIndex = new int[256];
+
+    public ChunkCodec() {
+        Arrays.fill(paletteIndex, -1);
+    }
+
+    public void encode(Chunk chunk, ByteBuffer out) {
+        chunk.readBlocks(blocks);
+        int paletteSize = 0;
+        for (int i = 0; i < Chunk.VOLUME; i++) {
+            int id = blocks[i] & 0xff;
+            int index = paletteIndex[id];
+            if (index < 0) {
+                index = paletteSize++;
+                paletteIndex[id] = index;
+                palette[index] = blocks[i];
+            }
+            indices[i] = (byte) index;
+        }
+        for (int i = 0; i < paletteSize; i++) {
+            paletteIndex[palette[i] & 0xff] = -1;
+        }
+
+        int mode;
+        int bits = bitsFor(paletteSize);
+        if (paletteSize == 1) {
+            mode = UNIFORM;
+        } else {
+            mode = runsSize(Chunk.VOLUME * bits / 8) < Chunk.VOLUME * bits / 8 ? RUNS : PACKED;
+        }
+        out.put((byte) mode);
+        out.put((byte) (paletteSize - 1));
+        out.put(palette, 0, paletteSize);
+        if (mode == PACKED) {
+            writePacked(bits, out);
+        } else if (mode == RUNS) {
+            writeRuns(out);
+        }
+    }
+
+    /**
+     * @return bytes of the runs, or limit once they need that many
+     */
+    private int runsSize(int limit) {
+        int size = 0;
+        int start = 0;
+        for (int i = 1; i <= Chunk.VOLUME && size < limit; i++) {
+            if (i == Chunk.VOLUME || indices[i] != indices[start]) {
+                size += varIntSize(i - start) + 1;
+                start = i;
+            }
+        }
+        return size;
+    }
+
+    private void writeRuns(ByteBuffer out) {
+        int start = 0;
+        for (int i = 1; i <= Chunk.VOLUME; i++) {
+            if (i == Chunk.VOLUME || indices[i] != indices[start]) {
+                NetworkProtocol.writeVarInt(out, i - start);
+                out.put(indices[start]);
+                start = i;
+            }
+        }
+    }
+
+    private void writePacked(int bits, ByteBuffer out) {
+        int perByte = 8 / bits;
+        for (int i = 0; i < Chunk.VOLUME; i += perByte) {
+            int packed = 0;
+            for (int j = 0; j < perByte; j++) {
+                packed |= (indices[i + j] & 0xff) << (j * bits);
+            }
+            out.put((byte) packed);
+        }
+    }
+
+    /**
+     * Reads one encoded chunk and replaces the blocks of chunk with it. Only
+     * solid blocks are written, so decoding the mostly empty chunks of a
+     * planet's crust costs little more than its bricks.
+     */
+    public void decode(ByteBuffer in, Chunk chunk) {
+        int mode = in.get();
+        int paletteSize = (in.get() & 0xff) + 1;
+        in.get(palette, 0, paletteSize);
+        chunk.clear();
+        byte[] target = chunk.getBlockArray();
+        int solid = 0;
+        if (mode == UNIFORM) {
+            if (palette[0] != VoxelWorld.AIR) {
+                Arrays.fill(target, palette[0]);
+                solid = Chunk.VOLUME;
+            }
+        } else if (mode == PACKED) {
+            int bits = bitsFor(paletteSize);
+            if (bits == 1 && (palette[0] == VoxelWorld.AIR || palette[1] == VoxelWorld.AIR)) {
+                solid = decodeBits(in, target);
+            } else {
+                solid = decodePacked(in, bits, target);
+            }
+        } else if (mode == RUNS) {
+            int i = 0;
+            while (i < Chunk.VOLUME) {
+                int length = NetworkProtocol.readVarInt(in);
+                if (length <= 0 || length > Chunk.VOLUME - i) {
+                    throw new IllegalArgumentException("run of " + length + " at block " + i);
+                }
+                byte id = palette[in.get() & 0xff];
+                if (id != VoxelWorld.AIR) {
+                    Arrays.fill(target, i, i + length, id);
+                    solid += length;
+                }
+                i += length;
+            }
+        } else {
+            throw new IllegalArgumentException("unknown chunk mode " + mode);
+        }
+        chunk.setSolidCount(solid);
+    }
+
+    /**
+     * Air and one solid id: only visits the bits of the solid blocks.
+     */
+    private int decodeBits(ByteBuffer in, byte[] target) {
+        int flip = palette[0] == VoxelWorld.AIR ? 0 : 0xff;
+        byte id = palette[0] == VoxelWorld.AIR ? palette[1] : palette[0];
+        int solid = 0;
+        for (int i = 0; i < Chunk.VOLUME; i += 8) {
+            int set = (in.get() ^ flip) & 0xff;
+            while (set != 0) {
+                target[i + Integer.numberOfTrailingZeros(set)] = id;
+                set &= set - 1;
+                solid++;
+            }
+        }
+        return solid;
+    }
+
+    private int decodePacked(ByteBuffer in, int bits, byte[] target) {
+        int perByte = 8 / bits;
+        int mask = (1 << bits) - 1;
+        int solid = 0;
+        for (int i = 0; i < Chunk.VOLUME; i += perByte) {
+            int packed = in.get() & 0xff;
+            for (int j = 0; j < perByte; j++) {
+                byte id = palette[(packed >>> (j * bits)) & mask];
+                if (id != VoxelWorld.AIR) {
+                    target[i + j] = id;
+                    solid++;
+                }
+            }
+        }
+        return solid;
+    }
+
+    private static int bitsFor(int paletteSize) {
+        if (paletteSize <= 2) {
+            return 1;
+        }
+        if (paletteSize <= 4) {
+            return 2;
+        }
+        return paletteSize <= 16 ? 4 : 8;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,242 @@
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.util.BufferUtils;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Turns the blocks of one chunk into a single mesh. Faces between two solid
+ * blocks are dropped and coplanar faces of the same block id are merged into
+ * larger quads (greedy meshing).<p>
+ *
+ * Vertex positions are relative to the chunk origin, so the geometry holding
+ * the mesh has to be translated to the chunk's world location. Texture
+ * coordinates repeat once per brick face like the old brick box did, so the
+ * material texture needs WrapMode.Repeat.<p>
+ *
+ * A mesher keeps its buffers between calls and is not thread safe.
+ */
+public class ChunkMesher {
+
+    /**
+     * texture coordinate scale of one brick face, same as the old brick box
+     */
+    public static final float TEXTURE_SCALE_U = 1f;
+    public static final float TEXTURE_SCALE_V = .5f;
+
+    private final byte[] mask = new byte[Chunk.SIZE * Chunk.SIZE];
+    private final int[] cell = new int[3];
+
+    private float[] positions = new float[4 * 3 * 256];
+    private float[] normals = new float[4 * 3 * 256];
+    private float[] texCoords = new float[4 * 2 * 256];
+    private int[] indices = new int[6 * 256];
+    private int quadCount;
+
+    /**
+     * Meshes the chunk, neighbouring chunks are read from the world so
+     * faces on chunk borders are culled as well.
+     *
+     * @return the number of quads produced
+     */
+    public int mesh(VoxelWorld world, Chunk chunk) {
+        quadCount = 0;
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        for (int d = 0; d < 3; d++) {
+            int u = (d + 1) % 3;
+            int v = (d + 2) % 3;
+            for (int side = -1; side <= 1; side += 2) {
+                for (int s = 0; s < Chunk.SIZE; s++) {
+                    buildMask(world, chunk, d, u, v, s, side);
+                    mergeMask(d, u, v, s, side);
+                }
+            }
+        }
+        return quadCount;
+    }
+
+    /**
+     * Collects the visible faces of slice s facing in direction side along axis d.
+     */
+    private void buildMask(VoxelWorld world, Chunk chunk, int d, int u, int v, int s, int side) {
+        int n = 0;
+        for (int b = 0; b < Chunk.SIZE; b++) {
+            for (int a = 0; a < Chunk.SIZE; a++) {
+                cell[d] = s;
+                cell[u] = a;
+                cell[v] = b;
+                byte id = chunk.getBlock(cell[0], cell[1], cell[2]);
+                if (id != VoxelWorld.AIR) {
+                    cell[d] = s + side;
+                    if (isSolid(world, chunk, cell[0], cell[1], cell[2])) {
+                        id = VoxelWorld.AIR;
+                    }
+                }
+                mask[n++] = id;
+            }
+        }
+    }
+
+    private void mergeMask(int d, int u, int v, int s, int side) {
+        int n = 0;
+        for (int b = 0; b < Chunk.SIZE; b++) {
+            for (int a = 0; a < Chunk.SIZE; ) {
+                byte id = mask[n];
+                if (id == VoxelWorld.AIR) {
+                    a++;
+                    n++;
+                    continue;
+                }
+                int width = 1;
+                while (a + width < Chunk.SIZE && mask[n + width] == id) {
+                    width++;
+                }
+                int height = 1;
+                grow:
+                while (b + height < Chunk.SIZE) {
+                    int row = n + height * Chunk.SIZE;
+                    for (int w = 0; w < width; w++) {
+                        if (mask[row + w] != id) {
+                            break grow;
+                        }
+                    }
+                    height++;
+                }
+                for (int h = 0; h < height; h++) {
+                    Arrays.fill(mask, n + h * Chunk.SIZE, n + h * Chunk.SIZE + width, VoxelWorld.AIR);
+                }
+                addQuad(d, u, v, s, side, a, b, width, height);
+                a += width;
+                n += width;
+            }
+        }
+    }
+
+    /**
+     * Adds a quad covering width x height faces starting at block (a, b) of
+     * the slice. Block i spans [i * BLOCK_SIZE - h, i * BLOCK_SIZE + h] with
+     * h half the block size.
+     */
+    private void addQuad(int d, int u, int v, int s, int side, int a, int b, int width, int height) {
+        ensureCapacity(quadCount + 1);
+        float half = VoxelWorld.BLOCK_SIZE * .5f;
+        float plane = s * VoxelWorld.BLOCK_SIZE + side * half;
+        float u0 = a * VoxelWorld.BLOCK_SIZE - half;
+        float u1 = u0 + width * VoxelWorld.BLOCK_SIZE;
+        float v0 = b * VoxelWorld.BLOCK_SIZE - half;
+        float v1 = v0 + height * VoxelWorld.BLOCK_SIZE;
+
+        int vertex = quadCount * 4;
+        putVertex(vertex, d, u, v, plane, u0, v0, side, 0, 0);
+        putVertex(vertex + 1, d, u, v, plane, u1, v0, side, width * TEXTURE_SCALE_U, 0);
+        putVertex(vertex + 2, d, u, v, plane, u1, v1, side, width * TEXTURE_SCALE_U, height * TEXTURE_SCALE_V);
+        putVertex(vertex + 3, d, u, v, plane, u0, v1, side, 0, height * TEXTURE_SCALE_V);
+
+        // (d, u, v) is a cyclic permutation of (x, y, z), so the order above
+        // is counter clockwise seen from +d
+        int i = quadCount * 6;
+        if (side > 0) {
+            indices[i] = vertex;
+            indices[i + 1] = vertex + 1;
+            indices[i + 2] = vertex + 2;
+            indices[i + 3] = vertex;
+            indices[i + 4] = vertex + 2;
+            indices[i + 5] = vertex + 3;
+        } else {
+            indices[i] = vertex;
+            indices[i + 1] = vertex + 2;
+            indices[i + 2] = vertex + 1;
+            indices[i + 3] = vertex;
+            indices[i + 4] = vertex + 3;
+            indices[i + 5] = vertex + 2;
+        }
+        quadCount++;
+    }
+
+    private void putVertex(int vertex, int d, int u, int v, float plane, float pu, float pv, int side, float tu, float tv) {
+        int p = vertex * 3;
+        positions[p + d] = plane;
+        positions[p + u] = pu;
+        positions[p + v] = pv;
+        normals[p + d] = side;
+        normals[p + u] = 0;
+        normals[p + v] = 0;
+        int t = vertex * 2;
+        texCoords[t] = tu;
+        texCoords[t + 1] = tv;
+    }
+
+    private void ensureCapacity(int quads) {
+        if (indices.length >= quads * 6) {
+            return;
+        }
+        int newQuads = Math.max(quads, indices.length / 6 * 2);
+        positions = Arrays.copyOf(positions, newQuads * 4 * 3);
+        normals = Arrays.copyOf(normals, newQuads * 4 * 3);
+        texCoords = Arrays.copyOf(texCoords, newQuads * 4 * 2);
+        indices = Arrays.copyOf(indices, newQuads * 6);
+    }
+
+    private static boolean isSolid(VoxelWorld world, Chunk chunk, int x, int y, int z) {
+        if (x >= 0 && x < Chunk.SIZE && y >= 0 && y < Chunk.SIZE && z >= 0 && z < Chunk.SIZE) {
+            return chunk.isSolid(x, y, z);
+        }
+        return world.isSolid(chunk.getOriginX() + x, chunk.getOriginY() + y, chunk.getOriginZ() + z);
+    }
+
+    public int getQuadCount() {
+        return quadCount;
+    }
+
+    public int getVertexCount() {
+        return quadCount * 4;
+    }
+
+    public int getTriangleCount() {
+        return quadCount * 2;
+    }
+
+    /**
+     * Vertex positions of the last mesh, 3 floats per vertex. Only the first
+     * getVertexCount() * 3 entries are valid.
+     */
+    public float[] getPositions() {
+        return positions;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * Copies the last result into a new jME mesh.
+     *
+     * @return null if the last chunk had no visible faces
+     */
+    public Mesh toMesh() {
+        if (quadCount == 0) {
+            return null;
+        }
+        int vertices = getVertexCount();
+        Mesh mesh = new Mesh();
+        mesh.setBuffer(Type.Position, 3, copy(positions, vertices * 3));
+        mesh.setBuffer(Type.Normal, 3, copy(normals, vertices * 3));
+        mesh.setBuffer(Type.TexCoord, 2, copy(texCoords, vertices * 2));
+        IntBuffer indexBuffer = BufferUtils.createIntBuffer(quadCount * 6);
+        indexBuffer.put(indices, 0, quadCount * 6).flip();
+        mesh.setBuffer(Type.Index, 3, indexBuffer);
+        mesh.updateBound();
+        mesh.setStatic();
+        return mesh;
+    }
+
+    private static FloatBuffer copy(float[] data, int length) {
+        FloatBuffer buffer = BufferUtils.createFloatBuffer(length);
+        buffer.put(data, 0, length).flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,535 @@
+import com.jme3.app.Application;
+import com.jme3.math.Vector3f;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Keeps the chunks within a view distance of the player in the world, the
+ * scene and the physics space, so memory and frame time depend on the view
+ * distance and not on the size of the world.<p>
+ *
+ * Call {@link #update} once per frame on the render thread. Missing chunks
+ * are loaded from the {@link WorldStore}, or generated by the
+ * {@link ChunkSource} and saved, on the worker pool. A chunk is meshed once
+ * its six neighbours are there, so its border faces are culled like inside
+ * the chunk, and the result is attached through {@link Application#enqueue}.
+ * Chunks are requested nearest first, those behind the view direction count
+ * up to twice as far. Chunks beyond the view distance plus two chunks are
+ * detached and removed from the world, edited ones are saved first.
+ */
+public class ChunkStreamer {
+
+    /**
+     * Fills a chunk that was never saved, called on worker threads.
+     */
+    public interface ChunkSource {
+
+        public void generate(VoxelWorld world, int chunkX, int chunkY, int chunkZ);
+    }
+
+    private static final int POPULATING = 0;
+    private static final int POPULATED = 1;
+    private static final int MESHING = 2;
+    private static final int ATTACHED = 3;
+
+    private static final float CHUNK_EXTENT = Chunk.SIZE * VoxelWorld.BLOCK_SIZE;
+    private static final float HALF_DIAGONAL = CHUNK_EXTENT * 0.8660254f;
+    /**
+     * chunks are released this much further out than they are requested, so
+     * walking along a chunk border does not load and release them every step
+     */
+    private static final float RELEASE_MARGIN = 2 * CHUNK_EXTENT;
+
+    private static final int[][] NEIGHBOURS = {{-1, 0, 0}, {1, 0, 0}, {0, -1, 0}, {0, 1, 0}, {0, 0, -1}, {0, 0, 1}};
+
+    /**
+     * What the streamer knows about one chunk position. Only touched on the
+     * render thread.
+     */
+    private static class Entry {
+
+        final int chunkX;
+        final int chunkY;
+        final int chunkZ;
+        int state = POPULATING;
+        // null while the position has no blocks
+        Chunk chunk;
+        boolean dirty;
+        boolean remesh;
+        // the blocks being populated or meshed are out of date, drop the result
+        boolean stale;
+
+        Entry(int chunkX, int chunkY, int chunkZ) {
+            this.chunkX = chunkX;
+            this.chunkY = chunkY;
+            this.chunkZ = chunkZ;
+        }
+    }
+
+    private final Application app;
+    private final VoxelWorld world;
+    private final VoxelWorldNode worldNode;
+    private final VoxelWorldPhysics worldPhysics;
+    private final PlanetGenerator mesher;
+    private final ChunkSource source;
+    private final WorldStore store;
+    private final ForkJoinPool pool;
+    private final Map<Long, Entry> entries = new HashMap<Long, Entry>();
+
+    private float viewDistance;
+    private int maxInFlight;
+    private int inFlight;
+    private int started;
+    private boolean synchronous;
+
+    // chunk offsets around the player's chunk that may be in view
+    private int[] offsetX;
+    private int[] offsetY;
+    private int[] offsetZ;
+    private long[] order;
+
+    private int generatedCount;
+    private int loadedCount;
+    private int meshedCount;
+    private int releasedCount;
+
+    //TEMP VARIABLES
+    private final Vector3f tempCenter = new Vector3f();
+
+    /**
+     * @param mesher meshes chunks on the worker threads
+     * @param store where chunks are loaded from and saved to, null to always
+     * generate them
+     */
+    public ChunkStreamer(Application app, VoxelWorld world, VoxelWorldNode worldNode, VoxelWorldPhysics worldPhysics,
+                         PlanetGenerator mesher, ChunkSource source, WorldStore store, ForkJoinPool pool,
+                         float viewDistance) {
+        this.app = app;
+        this.world = world;
+        this.worldNode = worldNode;
+        this.worldPhysics = worldPhysics;
+        this.mesher = mesher;
+        this.source = source;
+        this.store = store;
+        this.pool = pool;
+        this.maxInFlight = Math.max(2, pool.getParallelism() * 2);
+        setViewDistance(viewDistance);
+    }
+
+    /**
+     * @param viewDistance in world units, chunks reaching into it are kept
+     */
+    public void setViewDistance(float viewDistance) {
+        this.viewDistance = viewDistance;
+        int radius = (int) Math.ceil((viewDistance + HALF_DIAGONAL) / CHUNK_EXTENT) + 1;
+        int side = 2 * radius + 1;
+        offsetX = new int[side * side * side];
+        offsetY = new int[offsetX.length];
+        offsetZ = new int[offsetX.length];
+        order = new long[offsetX.length];
+        int i = 0;
+        for (int y = -radius; y <= radius; y++) {
+            for (int z = -radius; z <= radius; z++) {
+                for (int x = -radius; x <= radius; x++) {
+                    offsetX[i] = x;
+                    offsetY[i] = y;
+                    offsetZ[i] = z;
+                    i++;
+                }
+            }
+        }
+    }
+
+    public float getViewDistance() {
+        return viewDistance;
+    }
+
+    /**
+     * @param maxInFlight chunks loaded, generated or meshed at once
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Does all work within {@link #update} on the calling thread instead of
+     * the pool, so which chunks exist in a frame only depends on where the
+     * player went. Recorded sessions need that to replay the same way.
+     */
+    public void setSynchronous(boolean synchronous) {
+        this.synchronous = synchronous;
+    }
+
+    /**
+     * Requests the missing chunks around location and releases the far ones.
+     *
+     * @param direction the view direction, chunks in front come first
+     */
+    public void update(Vector3f location, Vector3f direction) {
+        int centerX = VoxelWorld.toBlock(location.x) >> Chunk.SHIFT;
+        int centerY = VoxelWorld.toBlock(location.y) >> Chunk.SHIFT;
+        int centerZ = VoxelWorld.toBlock(location.z) >> Chunk.SHIFT;
+        float reach = viewDistance + HALF_DIAGONAL;
+        int count = 0;
+        for (int i = 0; i < offsetX.length; i++) {
+            Vector3f center = chunkCenter(centerX + offsetX[i], centerY + offsetY[i], centerZ + offsetZ[i]);
+            float distance = center.subtractLocal(location).length();
+            if (distance > reach) {
+                continue;
+            }
+            float facing = distance > 0 ? center.dot(direction) / distance : 1f;
+            float score = distance * (1.5f - 0.5f * facing);
+            // positive floats sort like their bits
+            order[count++] = (long) Float.floatToIntBits(score) << 32 | i;
+        }
+        Arrays.sort(order, 0, count);
+        started = 0;
+        for (int k = 0; k < count && inFlight < maxInFlight; k++) {
+            int i = (int) order[k];
+            request(centerX + offsetX[i], centerY + offsetY[i], centerZ + offsetZ[i]);
+        }
+        release(location, reach + RELEASE_MARGIN);
+    }
+
+    private Vector3f chunkCenter(int chunkX, int chunkY, int chunkZ) {
+        float half = (Chunk.SIZE - 1) * 0.5f;
+        return tempCenter.set(VoxelWorld.toWorld(chunkX << Chunk.SHIFT) + half * VoxelWorld.BLOCK_SIZE,
+                VoxelWorld.toWorld(chunkY << Chunk.SHIFT) + half * VoxelWorld.BLOCK_SIZE,
+                VoxelWorld.toWorld(chunkZ << Chunk.SHIFT) + half * VoxelWorld.BLOCK_SIZE);
+    }
+
+    /**
+     * Populates the chunk and its neighbours, and meshes it once they are
+     * all there.
+     */
+    private void request(int chunkX, int chunkY, int chunkZ) {
+        Entry entry = entries.get(VoxelWorld.chunkKey(chunkX, chunkY, chunkZ));
+        if (entry != null && entry.state >= MESHING) {
+            return;
+        }
+        boolean ready = entry != null && entry.state == POPULATED;
+        for (int[] neighbour : NEIGHBOURS) {
+            int x = chunkX + neighbour[0];
+            int y = chunkY + neighbour[1];
+            int z = chunkZ + neighbour[2];
+            Entry other = entries.get(VoxelWorld.chunkKey(x, y, z));
+            if (other == null) {
+                if (inFlight < maxInFlight) {
+                    populate(x, y, z);
+                }
+                ready = false;
+            } else if (other.state == POPULATING) {
+                ready = false;
+            }
+        }
+        if (entry == null) {
+            if (inFlight < maxInFlight) {
+                populate(chunkX, chunkY, chunkZ);
+            }
+        } else if (ready) {
+            mesh(entry);
+        }
+    }
+
+    private void populate(int chunkX, int chunkY, int chunkZ) {
+        final Entry entry = new Entry(chunkX, chunkY, chunkZ);
+        entries.put(VoxelWorld.chunkKey(chunkX, chunkY, chunkZ), entry);
+        inFlight++;
+        started++;
+        submit(entry, new Runnable() {
+            public void run() {
+                Chunk chunk = null;
+                boolean loaded = false;
+                if (store != null) {
+                    try {
+                        chunk = store.loadChunk(world, entry.chunkX, entry.chunkY, entry.chunkZ);
+                        loaded = chunk != null;
+                    } catch (IOException e) {
+                        System.out.println("could not load chunk " + entry.chunkX + "," + entry.chunkY + "," + entry.chunkZ + ": " + e);
+                    }
+                }
+                if (chunk == null) {
+                    source.generate(world, entry.chunkX, entry.chunkY, entry.chunkZ);
+                    chunk = world.getChunk(entry.chunkX, entry.chunkY, entry.chunkZ);
+                    if (chunk != null && store != null && !chunk.isEmpty()) {
+                        try {
+                            store.saveChunk(chunk);
+                        } catch (IOException e) {
+                            System.out.println("could not save chunk " + entry.chunkX + "," + entry.chunkY + "," + entry.chunkZ + ": " + e);
+                        }
+                    }
+                }
+                final Chunk populated = chunk == null || chunk.isEmpty() ? null : chunk;
+                final boolean fromStore = loaded;
+                complete(new Runnable() {
+                    public void run() {
+                        inFlight--;
+                        entry.chunk = populated;
+                        entry.state = POPULATED;
+                        if (entry.stale) {
+                            entry.chunk = world.getChunk(entry.chunkX, entry.chunkY, entry.chunkZ);
+                            forget(entry);
+                            return;
+                        }
+                        if (fromStore) {
+                            loadedCount++;
+                        } else {
+                            generatedCount++;
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void mesh(final Entry entry) {
+        if (entry.chunk == null) {
+            // nothing to show or collide with
+            entry.state = ATTACHED;
+            return;
+        }
+        entry.state = MESHING;
+        inFlight++;
+        started++;
+        final Chunk chunk = entry.chunk;
+        submit(entry, new Runnable() {
+            public void run() {
+                final PlanetGenerator.ChunkBuild build = mesher.buildChunk(world, chunk);
+                complete(new Runnable() {
+                    public void run() {
+                        inFlight--;
+                        entry.state = POPULATED;
+                        if (entry.stale) {
+                            forget(entry);
+                            return;
+                        }
+                        meshedCount++;
+                        worldNode.setChunkMesh(chunk, build.mesh);
+                        worldPhysics.setChunkShape(chunk, build.shape);
+                        entry.state = ATTACHED;
+                        if (entry.remesh) {
+                            entry.remesh = false;
+                            entry.state = POPULATED;
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Detaches and forgets every settled chunk further away than distance.
+     */
+    private void release(Vector3f location, float distance) {
+        float distance2 = distance * distance;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.state == POPULATING || entry.state == MESHING) {
+                continue;
+            }
+            if (chunkCenter(entry.chunkX, entry.chunkY, entry.chunkZ).distanceSquared(location) <= distance2) {
+                continue;
+            }
+            iterator.remove();
+            releaseEntry(entry);
+        }
+    }
+
+    /**
+     * Releases the chunks within radius of center, so they are populated
+     * again the next time they are in view. Call after the source would now
+     * fill them differently, e.g. a planet was added there. Chunks that are
+     * being populated or meshed are dropped once their task is done.
+     */
+    public void invalidate(Vector3f center, float radius) {
+        float distance = radius + HALF_DIAGONAL;
+        float distance2 = distance * distance;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (chunkCenter(entry.chunkX, entry.chunkY, entry.chunkZ).distanceSquared(center) > distance2) {
+                continue;
+            }
+            if (entry.state == POPULATING || entry.state == MESHING) {
+                entry.stale = true;
+            } else {
+                iterator.remove();
+                releaseEntry(entry);
+            }
+        }
+    }
+
+    /**
+     * Drops a stale entry once its task is done, it stayed in the map so no
+     * other task started for its chunk meanwhile.
+     */
+    private void forget(Entry entry) {
+        entries.remove(VoxelWorld.chunkKey(entry.chunkX, entry.chunkY, entry.chunkZ));
+        releaseEntry(entry);
+    }
+
+    /**
+     * Detaches the chunk of an entry that was taken out of the map, saves it
+     * if it was changed and removes it from the world.
+     */
+    private void releaseEntry(Entry entry) {
+        if (entry.chunk != null) {
+            worldNode.setChunkMesh(entry.chunk, null);
+            worldPhysics.setChunkShape(entry.chunk, null);
+            if (entry.dirty) {
+                save(entry.chunk);
+            }
+        }
+        world.removeChunk(entry.chunkX, entry.chunkY, entry.chunkZ);
+        releasedCount++;
+    }
+
+    /**
+     * Tells the streamer the blocks of a chunk were changed, so it is saved
+     * when it is released. The caller rebuilds the mesh of the chunk itself,
+     * a mesh that is being built from the old blocks is built again. Call on
+     * the render thread.
+     */
+    public void chunkChanged(Chunk chunk) {
+        Entry entry = entries.get(chunk.getKey());
+        if (entry == null) {
+            return;
+        }
+        entry.dirty = true;
+        entry.chunk = chunk;
+        if (entry.state == MESHING) {
+            entry.remesh = true;
+        }
+    }
+
+    /**
+     * @return true if the blocks at that chunk position may be written on
+     * the render thread, false while they are not streamed in or a worker
+     * still populates them
+     */
+    public boolean canEdit(int chunkX, int chunkY, int chunkZ) {
+        Entry entry = entries.get(VoxelWorld.chunkKey(chunkX, chunkY, chunkZ));
+        return entry != null && entry.state != POPULATING;
+    }
+
+    /**
+     * Saves the changed chunks that are still streamed in.
+     */
+    public void saveChanged() {
+        for (Entry entry : entries.values()) {
+            if (entry.dirty && entry.chunk != null) {
+                save(entry.chunk);
+                entry.dirty = false;
+            }
+        }
+    }
+
+    private void save(Chunk chunk) {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.saveChunk(chunk);
+        } catch (IOException e) {
+            System.out.println("could not save chunk " + chunk.getChunkX() + "," + chunk.getChunkY() + "," + chunk.getChunkZ() + ": " + e);
+        }
+    }
+
+    /**
+     * Runs a task for entry on the pool. A task that fails leaves the entry
+     * empty or unmeshed instead of waiting for it forever.
+     */
+    private void submit(final Entry entry, final Runnable task) {
+        Runnable guarded = new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    complete(new Runnable() {
+                        public void run() {
+                            inFlight--;
+                            entry.state = entry.state == POPULATING ? POPULATED : ATTACHED;
+                        }
+                    });
+                }
+            }
+        };
+        if (synchronous) {
+            guarded.run();
+        } else {
+            pool.execute(guarded);
+        }
+    }
+
+    /**
+     * Runs the end of a task on the render thread.
+     */
+    private void complete(final Runnable task) {
+        if (synchronous) {
+            task.run();
+            return;
+        }
+        app.enqueue(new Callable<Void>() {
+            public Void call() {
+                task.run();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @return chunk positions the streamer knows, empty ones included
+     */
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return chunks with blocks that are streamed in
+     */
+    public int getChunkCount() {
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.chunk != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return true once the last update found nothing to do and no work is
+     * pending, everything in view is attached
+     */
+    public boolean isSettled() {
+        return inFlight == 0 && started == 0;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public int getGeneratedCount() {
+        return generatedCount;
+    }
+
+    public int getLoadedCount() {
+        return loadedCount;
+    }
+
+    public int getMeshedCount() {
+        return meshedCount;
+    }
+
+    public int getReleasedCount() {
+        return releasedCount;
+    }
+}
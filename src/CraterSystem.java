@@ -0,0 +1,281 @@
+import com.jme3.bullet.collision.PhysicsCollisionEvent;
+import com.jme3.bullet.collision.PhysicsCollisionListener;
+import com.jme3.bullet.collision.PhysicsCollisionObject;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.math.Vector3f;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Carves craters into a {@link VoxelWorld} where dynamic bodies, e.g. cannon
+ * balls, hit a chunk body of {@link VoxelWorldPhysics} harder than the
+ * minimum impulse.<p>
+ *
+ * Impacts are only collected while the physics space hands out collision
+ * events. {@link #update()} then carves all of them as one batch: impacts
+ * into the same block are merged, every block is cleared once, and every
+ * chunk that changed, or whose border faces did, is rebuilt once no matter
+ * how many craters touch it. Sustained fire costs one rebuild per dirty
+ * chunk and frame instead of one per impact.<p>
+ *
+ * Add it to the physics space with addCollisionListener and call
+ * {@link #update()} once per frame, both on the render thread.
+ */
+public class CraterSystem implements PhysicsCollisionListener {
+
+    /**
+     * Where the blocks of the world come from and go to.
+     */
+    public interface Editor {
+
+        /**
+         * @return false while the blocks of the chunk must not be written,
+         * e.g. because a worker thread still generates them
+         */
+        public boolean canEdit(int chunkX, int chunkY, int chunkZ);
+
+        /**
+         * Builds the mesh and collision shape of a chunk again.
+         *
+         * @param edited true if blocks of the chunk were removed, false if
+         * only the border of a neighbour changed
+         */
+        public void rebuild(Chunk chunk, boolean edited);
+    }
+
+    private final VoxelWorld world;
+    private final Editor editor;
+    private float minImpulse;
+    private float radius;
+
+    // impact blocks collected since the last update, x, y, z each
+    private int[] impacts = new int[3 * 16];
+    private int impactCount;
+
+    private final Set<Long> carved = new HashSet<Long>();
+    private final Set<Long> edited = new HashSet<Long>();
+    private final Map<Long, Chunk> dirty = new LinkedHashMap<Long, Chunk>();
+
+    private int batchCount;
+    private int craterCount;
+    private int mergedCount;
+    private int removedCount;
+    private int rebuildCount;
+    private int lastBatchImpacts;
+    private int lastBatchRebuilds;
+
+    //TEMP VARIABLES
+    private final Vector3f tempPoint = new Vector3f();
+    private final Vector3f tempNormal = new Vector3f();
+
+    /**
+     * @param minImpulse weaker impacts leave the blocks alone
+     * @param radius of the craters in bricks
+     */
+    public CraterSystem(VoxelWorld world, Editor editor, float minImpulse, float radius) {
+        this.world = world;
+        this.editor = editor;
+        this.minImpulse = minImpulse;
+        this.radius = radius;
+    }
+
+    /**
+     * Remembers the block an impact hit. The event is reused by the physics
+     * space, nothing of it is kept.
+     */
+    public void collision(PhysicsCollisionEvent event) {
+        if (event.getAppliedImpulse() < minImpulse) {
+            return;
+        }
+        PhysicsCollisionObject a = event.getObjectA();
+        PhysicsCollisionObject b = event.getObjectB();
+        boolean chunkA = a.getUserObject() instanceof Chunk;
+        boolean chunkB = b.getUserObject() instanceof Chunk;
+        if (chunkA == chunkB || !isDynamic(chunkA ? b : a)) {
+            return;
+        }
+        // the contact lies on the surface, half a block further in is the brick that was hit
+        tempNormal.set(event.getNormalWorldOnB()).multLocal(VoxelWorld.BLOCK_SIZE / 2);
+        if (chunkA) {
+            tempPoint.set(event.getPositionWorldOnA()).addLocal(tempNormal);
+        } else {
+            tempPoint.set(event.getPositionWorldOnB()).subtractLocal(tempNormal);
+        }
+        if (impactCount * 3 == impacts.length) {
+            int[] grown = new int[impacts.length * 2];
+            System.arraycopy(impacts, 0, grown, 0, impacts.length);
+            impacts = grown;
+        }
+        impacts[impactCount * 3] = VoxelWorld.toBlock(tempPoint.x);
+        impacts[impactCount * 3 + 1] = VoxelWorld.toBlock(tempPoint.y);
+        impacts[impactCount * 3 + 2] = VoxelWorld.toBlock(tempPoint.z);
+        impactCount++;
+    }
+
+    private static boolean isDynamic(PhysicsCollisionObject object) {
+        return object instanceof PhysicsRigidBody && ((PhysicsRigidBody) object).getMass() > 0;
+    }
+
+    /**
+     * Carves the impacts collected since the last update as one batch and
+     * rebuilds the chunks it changed.
+     */
+    public void update() {
+        if (impactCount == 0) {
+            return;
+        }
+        long start = TickMetrics.start();
+        int removed = 0;
+        for (int i = 0; i < impactCount; i++) {
+            int x = impacts[i * 3];
+            int y = impacts[i * 3 + 1];
+            int z = impacts[i * 3 + 2];
+            // a ball touching the ground for several ticks, or a volley into one spot
+            if (!carved.add(VoxelWorld.chunkKey(x, y, z))) {
+                mergedCount++;
+                continue;
+            }
+            removed += carve(x, y, z);
+            craterCount++;
+        }
+        for (Chunk chunk : dirty.values()) {
+            editor.rebuild(chunk, edited.contains(chunk.getKey()));
+        }
+        lastBatchImpacts = impactCount;
+        lastBatchRebuilds = dirty.size();
+        batchCount++;
+        removedCount += removed;
+        rebuildCount += dirty.size();
+        impactCount = 0;
+        carved.clear();
+        edited.clear();
+        dirty.clear();
+        TickMetrics.stop(TickMetrics.Metric.CRATER_BATCH, start);
+        TickMetrics.count(TickMetrics.Metric.CRATER_IMPACTS, lastBatchImpacts);
+        TickMetrics.count(TickMetrics.Metric.CRATER_REBUILDS, lastBatchRebuilds);
+    }
+
+    /**
+     * Clears the solid blocks within the radius of a block and marks the
+     * chunks to rebuild.
+     *
+     * @return blocks cleared
+     */
+    private int carve(int centerX, int centerY, int centerZ) {
+        int reach = (int) radius;
+        float radiusSquared = radius * radius;
+        int removed = 0;
+        for (int dx = -reach; dx <= reach; dx++) {
+            for (int dy = -reach; dy <= reach; dy++) {
+                for (int dz = -reach; dz <= reach; dz++) {
+                    if (dx * dx + dy * dy + dz * dz > radiusSquared) {
+                        continue;
+                    }
+                    int x = centerX + dx;
+                    int y = centerY + dy;
+                    int z = centerZ + dz;
+                    int chunkX = x >> Chunk.SHIFT;
+                    int chunkY = y >> Chunk.SHIFT;
+                    int chunkZ = z >> Chunk.SHIFT;
+                    if (!world.isSolid(x, y, z) || !editor.canEdit(chunkX, chunkY, chunkZ)) {
+                        continue;
+                    }
+                    world.setBlock(x, y, z, VoxelWorld.AIR);
+                    removed++;
+                    if (edited.add(VoxelWorld.chunkKey(chunkX, chunkY, chunkZ))) {
+                        markDirty(chunkX, chunkY, chunkZ);
+                    }
+                    markBorder(x & Chunk.MASK, chunkX, chunkY, chunkZ, 1, 0, 0);
+                    markBorder(y & Chunk.MASK, chunkX, chunkY, chunkZ, 0, 1, 0);
+                    markBorder(z & Chunk.MASK, chunkX, chunkY, chunkZ, 0, 0, 1);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Marks the neighbour chunk along one axis if the block at local
+     * coordinate local lies on that border.
+     */
+    private void markBorder(int local, int chunkX, int chunkY, int chunkZ, int axisX, int axisY, int axisZ) {
+        int side = local == 0 ? -1 : local == Chunk.MASK ? 1 : 0;
+        if (side != 0) {
+            markDirty(chunkX + side * axisX, chunkY + side * axisY, chunkZ + side * axisZ);
+        }
+    }
+
+    private void markDirty(int chunkX, int chunkY, int chunkZ) {
+        long key = VoxelWorld.chunkKey(chunkX, chunkY, chunkZ);
+        if (dirty.containsKey(key)) {
+            return;
+        }
+        Chunk chunk = world.getChunk(chunkX, chunkY, chunkZ);
+        if (chunk != null && editor.canEdit(chunkX, chunkY, chunkZ)) {
+            dirty.put(key, chunk);
+        }
+    }
+
+    public void setMinImpulse(float minImpulse) {
+        this.minImpulse = minImpulse;
+    }
+
+    public float getMinImpulse() {
+        return minImpulse;
+    }
+
+    /**
+     * @param radius in bricks
+     */
+    public void setRadius(float radius) {
+        this.radius = radius;
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    /**
+     * @return impacts waiting for the next update
+     */
+    public int getPendingCount() {
+        return impactCount;
+    }
+
+    /**
+     * @return updates that carved at least one impact
+     */
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    public int getCraterCount() {
+        return craterCount;
+    }
+
+    /**
+     * @return impacts that hit a block another impact of the same batch hit
+     */
+    public int getMergedCount() {
+        return mergedCount;
+    }
+
+    public int getRemovedCount() {
+        return removedCount;
+    }
+
+    public int getRebuildCount() {
+        return rebuildCount;
+    }
+
+    public int getLastBatchImpacts() {
+        return lastBatchImpacts;
+    }
+
+    public int getLastBatchRebuilds() {
+        return lastBatchRebuilds;
+    }
+}
@@ -1,7 +1,8 @@
+import com.bulletphysics.collision.broadphase.CollisionFilterGroups;
+import com.bulletphysics.dynamics.DynamicsWorld;
 import com.jme3.bullet.PhysicsSpace;
 import com.jme3.bullet.collision.shapes.CollisionShape;
 import com.jme3.bullet.control.PhysicsControl;
-import com.jme3.bullet.objects.PhysicsCharacter;
 import com.jme3.export.InputCapsule;
 import com.jme3.export.JmeExporter;
 import com.jme3.export.JmeImporter;
@@ -14,12 +15,14 @@ import com.jme3.scene.Spatial;
 import com.jme3.scene.control.Control;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
 
 /**
+ * Character control built on {@link DanielPhysicsCharacter}. The PhysicsSpace
+ * only knows its own character type, so this control puts its ghost object
+ * and controller into the dynamics world itself.
  * @author normenhansen
  */
-public class DanielCharacterControl extends PhysicsCharacter implements PhysicsControl {
+public class DanielCharacterControl extends DanielPhysicsCharacter implements PhysicsControl {
 
     protected Spatial spatial;
     protected boolean enabled = true;
@@ -36,6 +39,10 @@ public class DanielCharacterControl extends PhysicsCharacter implements PhysicsC
         super(shape, stepHeight);
     }
 
+    public DanielCharacterControl(CollisionShape shape, float stepHeight, DanielKinematicCharacterController.SweepTest sweepTest) {
+        super(shape, stepHeight, sweepTest);
+    }
+
     public boolean isApplyPhysicsLocal() {
         return applyLocal;
     }
@@ -58,7 +65,9 @@ public class DanielCharacterControl extends PhysicsCharacter implements PhysicsC
     }
 
     public Control cloneForSpatial(Spatial spatial) {
-        DanielCharacterControl control = new DanielCharacterControl(collisionShape, stepHeight);
+        // a sweep test may keep scratch state, the clone may step at the same time on another thread
+        DanielCharacterControl control = new DanielCharacterControl(collisionShape, stepHeight,
+                sweepTest == null ? null : sweepTest.copy());
         control.setCcdMotionThreshold(getCcdMotionThreshold());
         control.setCcdSweptSphereRadius(getCcdSweptSphereRadius());
         control.setCollideWithGroups(getCollideWithGroups());
@@ -67,8 +76,11 @@ public class DanielCharacterControl extends PhysicsCharacter implements PhysicsC
         control.setGravity(getGravity());
         control.setJumpSpeed(getJumpSpeed());
         control.setMaxSlope(getMaxSlope());
+        control.setRecoveryMode(getRecoveryMode());
+        control.setRecoveryThreshold(getRecoveryThreshold());
         control.setPhysicsLocation(getPhysicsLocation());
         control.setUpAxis(getUpAxis());
+        control.setUpDirection(getUpDirection());
         control.setApplyPhysicsLocal(isApplyPhysicsLocal());
 
         control.setSpatial(spatial);
@@ -96,10 +108,10 @@ public class DanielCharacterControl extends PhysicsCharacter implements PhysicsC
                 if (spatial != null) {
                     warp(getSpatialTranslation());
                 }
-                space.addCollisionObject(this);
+                addToWorld(space.getDynamicsWorld());
                 added = true;
             } else if (!enabled && added) {
-                space.removeCollisionObject(this);
+                removeFromWorld(space.getDynamicsWorld());
                 added = false;
             }
         }
@@ -150,27 +162,18 @@ public class DanielCharacterControl extends PhysicsCharacter implements PhysicsC
         }
     }
 
-    public Vector3f getUpDirection() {
-        javax.vecmath.Vector3f upAxisDirection = ((javax.vecmath.Vector3f[]) getPrivateField(character, "upAxisDirection"))[getUpAxis()];
-        return new Vector3f(-upAxisDirection.x, -upAxisDirection.y, -upAxisDirection.z);
+    /**
+     * Same as PhysicsSpace.addCharacter
+     */
+    private void addToWorld(DynamicsWorld world) {
+        world.addCollisionObject(gObject, CollisionFilterGroups.CHARACTER_FILTER,
+                (short) (CollisionFilterGroups.STATIC_FILTER | CollisionFilterGroups.DEFAULT_FILTER));
+        world.addAction(character);
     }
 
-public static Object getPrivateField(Object o, String fieldName) {
-
-        // Go and find the private field...
-        final Field fields[] = o.getClass().getDeclaredFields();
-        for (int i = 0; i < fields.length; ++i) {
-            if (fieldName.equals(fields[i].getName())) {
-                try {
-                    fields[i].setAccessible(true);
-                    return fields[i].get(o);
-                } catch (IllegalAccessException ex) {
-                    System.out.println("IllegalAccessException accessing " + fieldName);
-                }
-            }
-        }
-        System.out.println("Field '" + fieldName + "' not found");
-        return null;
+    private void removeFromWorld(DynamicsWorld world) {
+        world.removeCollisionObject(gObject);
+        world.removeAction(character);
     }
 
 
@@ -188,16 +191,18 @@ public static Object getPrivateField(Object o, String fieldName) {
 
     public void setPhysicsSpace(PhysicsSpace space) {
         if (space == null) {
-            if (this.space != null) {
-                this.space.removeCollisionObject(this);
+            if (this.space != null && added) {
+                removeFromWorld(this.space.getDynamicsWorld());
                 added = false;
             }
         } else {
             if (this.space == space) {
                 return;
             }
-            space.addCollisionObject(this);
-            added = true;
+            if (enabled) {
+                addToWorld(space.getDynamicsWorld());
+                added = true;
+            }
         }
         this.space = space;
     }
@@ -6,12 +6,12 @@ import com.bulletphysics.collision.dispatch.GhostObject;
 import com.bulletphysics.collision.dispatch.PairCachingGhostObject;
 import com.bulletphysics.collision.narrowphase.ManifoldPoint;
 import com.bulletphysics.collision.narrowphase.PersistentManifold;
+import com.bulletphysics.collision.shapes.CapsuleShape;
 import com.bulletphysics.collision.shapes.ConvexShape;
 import com.bulletphysics.dynamics.ActionInterface;
 import com.bulletphysics.linearmath.IDebugDraw;
 import com.bulletphysics.linearmath.Transform;
 import com.bulletphysics.util.ObjectArrayList;
-import cz.advel.stack.Stack;
 import javax.vecmath.Vector3f;
 
 /**
@@ -21,18 +21,15 @@ import javax.vecmath.Vector3f;
  * from penetrations.<p>
  *
  * Interaction between KinematicCharacterController and dynamic rigid bodies
- * needs to be explicity implemented by the user.
+ * needs to be explicity implemented by the user.<p>
+ *
+ * A step reuses the sweep callback and scratch objects of its controller
+ * instead of allocating, so stepping many characters creates no garbage.
  * 
  * @author tomrbryn
  */
 public class DanielKinematicCharacterController extends ActionInterface {
 
-        private static Vector3f[] upAxisDirection = new Vector3f[] {
-                new Vector3f(1.0f, 0.0f, 0.0f),
-                new Vector3f(0.0f, 1.0f, 0.0f),
-                new Vector3f(0.0f, 0.0f, 1.0f),
-        };
-
         protected float halfHeight;
         
         protected PairCachingGhostObject ghostObject;
@@ -74,6 +71,9 @@ public class DanielKinematicCharacterController extends ActionInterface {
         protected boolean touchingContact;
         protected Vector3f touchingNormal = new Vector3f();
 
+        // this character's up, gravity pulls the other way
+        protected final Vector3f up = new Vector3f(0.0f, 1.0f, 0.0f);
+
         protected boolean wasOnGround;
         protected boolean wasJumping;
         
@@ -84,12 +84,56 @@ public class DanielKinematicCharacterController extends ActionInterface {
 
         protected CollisionObject me;
 
+        protected final SweepTest sweepTest;
+
+        protected RecoveryMode recoveryMode = RecoveryMode.DISPATCH_EVERY_LOOP;
+        // with REUSE_CONTACTS, recovery stops once no contact is deeper than this
+        protected float recoveryThreshold = 0.01f;
+
+        // penetration recovery work of the last preStep
+        private int recoveryLoops;
+        private int recoveryPairs;
+        private int recoveryContacts;
+        private float remainingPenetration;
+        private final ObjectArrayList<PersistentManifold> recoveryManifolds = new ObjectArrayList<PersistentManifold>();
+        private final Transform body0Transform = new Transform();
+        private final Transform body1Transform = new Transform();
+        private final Vector3f recoveryMove = new Vector3f();
+
+        // convex sweeps of the running step, for TickMetrics
+        private int sweeps;
+
+        // scratch objects of a step, a controller only steps on one thread at a time
+        private final KinematicClosestNotMeConvexResultCallback sweepCallback = new KinematicClosestNotMeConvexResultCallback();
+        private final Transform xform = new Transform();
+        private final Transform stepTransform = new Transform();
+        private boolean stepPending;
+        private final Transform sweepStart = new Transform();
+        private final Transform sweepEnd = new Transform();
+        private final Vector3f sweepDirection = new Vector3f();
+        private final Vector3f move = new Vector3f();
+        private final Vector3f currentDirection = new Vector3f();
+        private final Vector3f movementDirection = new Vector3f();
+        private final Vector3f reflectDirection = new Vector3f();
+        private final Vector3f parallelDirection = new Vector3f();
+        private final Vector3f perpendicularDirection = new Vector3f();
+        private final Vector3f component = new Vector3f();
+
         public DanielKinematicCharacterController(PairCachingGhostObject ghostObject, ConvexShape convexShape, float stepHeight) {
                 this(ghostObject, convexShape, stepHeight, 1);
         }
 
         public DanielKinematicCharacterController(PairCachingGhostObject ghostObject, ConvexShape convexShape, float stepHeight, int upAxis) {
-                this.upAxis = upAxis;
+                this(ghostObject, convexShape, stepHeight, upAxis, null);
+        }
+
+        /**
+         * @param sweepTest finds what the character runs into, null for Bullet's
+         * convex sweep
+         */
+        public DanielKinematicCharacterController(PairCachingGhostObject ghostObject, ConvexShape convexShape, float stepHeight, int upAxis, SweepTest sweepTest) {
+                setUpAxis(upAxis);
+                this.sweepTest = sweepTest;
                 this.addedMargin = 0.02f;
                 this.walkDirection.set(0, 0, 0);
                 this.useGhostObjectSweepTest = true;
@@ -109,7 +153,46 @@ public class DanielKinematicCharacterController extends ActionInterface {
                 setMaxSlope((float)((45.0f/180.0f) * Math.PI));
         }
 
-        private PairCachingGhostObject getGhostObject() {
+        /**
+         * Moves the character's shape from start to end and reports what it
+         * hits through {@link CollisionWorld.ConvexResultCallback#addSingleResult},
+         * the way Bullet's convex sweep does: hit fractions along the move and
+         * hit normals in world space, pointing away from the hit object.
+         */
+        public interface SweepTest {
+
+                void convexSweepTest(CollisionWorld collisionWorld, PairCachingGhostObject ghostObject, ConvexShape shape,
+                                Transform start, Transform end, CollisionWorld.ConvexResultCallback callback);
+
+                /**
+                 * @return a sweep test for another character, one that keeps
+                 * no state between sweeps may return itself
+                 */
+                SweepTest copy();
+        }
+
+        /**
+         * How {@link #preStep} pushes the character out of what it penetrates.
+         */
+        public enum RecoveryMode {
+                /**
+                 * Runs the narrowphase on all pairs of the ghost object every
+                 * loop and moves a fifth of every contact's depth, up to five
+                 * loops a tick.
+                 */
+                DISPATCH_EVERY_LOOP,
+                /**
+                 * Runs the narrowphase once, later loops only refresh the
+                 * contacts of the same manifolds for the moved ghost object.
+                 * Every loop resolves the whole depth, contacts along the same
+                 * normal counting once, and recovery stops once no contact is
+                 * deeper than the recovery threshold. Pairs that start to
+                 * overlap during recovery are seen in the next tick.
+                 */
+                REUSE_CONTACTS
+        }
+
+        public PairCachingGhostObject getGhostObject() {
                 return ghostObject;
         }
 
@@ -131,6 +214,24 @@ public class DanielKinematicCharacterController extends ActionInterface {
                         axis = 2;
                 }
                 upAxis = axis;
+                up.set(axis == 0 ? 1.0f : 0.0f, axis == 1 ? 1.0f : 0.0f, axis == 2 ? 1.0f : 0.0f);
+        }
+
+        /**
+         * Sets an arbitrary up direction for this character, e.g. away from the
+         * center of the planet it stands on. Zero vectors are ignored.
+         */
+        public void setUp(Vector3f up) {
+                float length = up.length();
+                if (length < BulletGlobals.SIMD_EPSILON) {
+                        return;
+                }
+                this.up.scale(1.0f / length, up);
+        }
+
+        public Vector3f getUp(Vector3f out) {
+                out.set(up);
+                return out;
         }
 
         /**
@@ -143,7 +244,7 @@ public class DanielKinematicCharacterController extends ActionInterface {
         public void     setWalkDirection(Vector3f walkDirection) {
                 useWalkDirection = true;
                 this.walkDirection.set(walkDirection);
-                normalizedDirection.set(getNormalizedVector(walkDirection, Stack.alloc(Vector3f.class)));
+                getNormalizedVector(walkDirection, normalizedDirection);
         }
 
         /**
@@ -155,7 +256,7 @@ public class DanielKinematicCharacterController extends ActionInterface {
         public void setVelocityForTimeInterval(Vector3f velocity, float timeInterval) {
                 useWalkDirection = false;
                 walkDirection.set(velocity);
-                normalizedDirection.set(getNormalizedVector(walkDirection, Stack.alloc(Vector3f.class)));
+                getNormalizedVector(walkDirection, normalizedDirection);
                 velocityTimeInterval = timeInterval;
         }
 
@@ -163,15 +264,19 @@ public class DanielKinematicCharacterController extends ActionInterface {
         }
 
         public void warp(Vector3f origin) {
-                Transform xform = Stack.alloc(Transform.class);
                 xform.setIdentity();
                 xform.origin.set(origin);
                 ghostObject.setWorldTransform(xform);
         }
 
         public void preStep(CollisionWorld collisionWorld) {
+                long start = TickMetrics.start();
                 int numPenetrationLoops = 0;
                 touchingContact = false;
+                recoveryLoops = 0;
+                recoveryPairs = 0;
+                recoveryContacts = 0;
+                long recoveryStart = TickMetrics.start();
                 while (recoverFromPenetration(collisionWorld)) {
                         numPenetrationLoops++;
                         touchingContact = true;
@@ -179,17 +284,38 @@ public class DanielKinematicCharacterController extends ActionInterface {
                                 //printf("character could not recover from penetration = %d\n", numPenetrationLoops);
                                 break;
                         }
+                        if (recoveryMode == RecoveryMode.REUSE_CONTACTS && remainingPenetration < recoveryThreshold) {
+                                break;
+                        }
                 }
+                TickMetrics.stop(TickMetrics.Metric.RECOVERY, recoveryStart);
+                TickMetrics.count(TickMetrics.Metric.RECOVERY_LOOPS, recoveryLoops);
+                TickMetrics.count(TickMetrics.Metric.RECOVERY_PAIRS, recoveryPairs);
+                TickMetrics.count(TickMetrics.Metric.RECOVERY_CONTACTS, recoveryContacts);
 
-                currentPosition.set(ghostObject.getWorldTransform(Stack.alloc(Transform.class)).origin);
+                currentPosition.set(ghostObject.getWorldTransform(xform).origin);
                 targetPosition.set(currentPosition);
                 //printf("m_targetPosition=%f,%f,%f\n",m_targetPosition[0],m_targetPosition[1],m_targetPosition[2]);
+                TickMetrics.stop(TickMetrics.Metric.PRE_STEP, start);
         }
         
         public void playerStep(CollisionWorld collisionWorld, float dt) {
+                computeStep(collisionWorld, dt);
+                commitStep();
+        }
+
+        /**
+         * The sweeping part of {@link #playerStep}: finds the new position but
+         * does not move the ghost object yet. Steps of many characters may be
+         * computed on several threads only if {@link #isConcurrentStep()}.
+         *
+         * @see #commitStep()
+         */
+        public void computeStep(CollisionWorld collisionWorld, float dt) {
                 //printf("playerStep(): ");
                 //printf("  dt = %f", dt);
 
+                stepPending = false;
                 // quick check...
                 if (!useWalkDirection && velocityTimeInterval <= 0.0f) {
                         //printf("\n");
@@ -210,12 +336,15 @@ public class DanielKinematicCharacterController extends ActionInterface {
                 }
                 verticalOffset = verticalVelocity * dt;
 
-                Transform xform = ghostObject.getWorldTransform(Stack.alloc(Transform.class));
+                ghostObject.getWorldTransform(stepTransform);
 
                 //printf("walkDirection(%f,%f,%f)\n",walkDirection[0],walkDirection[1],walkDirection[2]);
                 //printf("walkSpeed=%f\n",walkSpeed);
 
+                sweeps = 0;
+                long start = TickMetrics.start();
                 stepUp(collisionWorld);
+                start = stopAndStart(TickMetrics.Metric.STEP_UP, start);
                 if (useWalkDirection) {
                         //System.out.println("playerStep 3");
                         stepForwardAndStrafe(collisionWorld, walkDirection);
@@ -229,7 +358,6 @@ public class DanielKinematicCharacterController extends ActionInterface {
                         velocityTimeInterval -= dt;
 
                         // how far will we move while we are moving?
-                        Vector3f move = Stack.alloc(Vector3f.class);
                         move.scale(dtMoving, walkDirection);
 
                         //printf("  dtMoving: %f", dtMoving);
@@ -237,12 +365,78 @@ public class DanielKinematicCharacterController extends ActionInterface {
                         // okay, step
                         stepForwardAndStrafe(collisionWorld, move);
                 }
+                start = stopAndStart(TickMetrics.Metric.STEP_FORWARD, start);
                 stepDown(collisionWorld, dt);
+                TickMetrics.stop(TickMetrics.Metric.STEP_DOWN, start);
+                TickMetrics.count(TickMetrics.Metric.SWEEPS, sweeps);
+                stepPending = true;
 
                 //printf("\n");
+        }
 
-                xform.origin.set(currentPosition);
-                ghostObject.setWorldTransform(xform);
+        /**
+         * @return true if {@link #computeStep} only reads plain data and may
+         * run next to the steps of other characters: the sweeps go to a
+         * {@link VoxelCapsuleSweep}, which reads blocks. Bullet's own sweeps
+         * are not safe against mesh shapes, a BvhTriangleMeshShape takes its
+         * callbacks from an unsynchronized pool of the thread that built it.
+         */
+        public boolean isConcurrentStep() {
+                return sweepTest instanceof VoxelCapsuleSweep && convexShape instanceof CapsuleShape;
+        }
+
+        /**
+         * Moves the ghost object to the position found by the last
+         * {@link #computeStep}.
+         */
+        public void commitStep() {
+                if (!stepPending) {
+                        return;
+                }
+                stepPending = false;
+                stepTransform.origin.set(currentPosition);
+                ghostObject.setWorldTransform(stepTransform);
+        }
+
+        public void setRecoveryMode(RecoveryMode recoveryMode) {
+                this.recoveryMode = recoveryMode;
+        }
+
+        public RecoveryMode getRecoveryMode() {
+                return recoveryMode;
+        }
+
+        /**
+         * Sets the depth below which {@link RecoveryMode#REUSE_CONTACTS} stops
+         * recovering.
+         */
+        public void setRecoveryThreshold(float recoveryThreshold) {
+                this.recoveryThreshold = recoveryThreshold;
+        }
+
+        public float getRecoveryThreshold() {
+                return recoveryThreshold;
+        }
+
+        /**
+         * @return number of penetration recovery loops in the last preStep
+         */
+        public int getRecoveryLoops() {
+                return recoveryLoops;
+        }
+
+        /**
+         * @return number of overlapping pairs dispatched in the last preStep
+         */
+        public int getRecoveryPairs() {
+                return recoveryPairs;
+        }
+
+        /**
+         * @return number of contact points looked at in the last preStep
+         */
+        public int getRecoveryContacts() {
+                return recoveryContacts;
         }
 
         public void setFallSpeed(float fallSpeed) {
@@ -346,14 +540,19 @@ public class DanielKinematicCharacterController extends ActionInterface {
         }
 
         protected boolean recoverFromPenetration(CollisionWorld collisionWorld) {
+                recoveryLoops++;
+                if (recoveryMode == RecoveryMode.REUSE_CONTACTS) {
+                        return recoverReusingContacts(collisionWorld, recoveryLoops == 1);
+                }
                 boolean penetration = false;
 
                 collisionWorld.getDispatcher().dispatchAllCollisionPairs(
                                 ghostObject.getOverlappingPairCache(), collisionWorld.getDispatchInfo(), collisionWorld.getDispatcher());
 
-                currentPosition.set(ghostObject.getWorldTransform(Stack.alloc(Transform.class)).origin);
+                currentPosition.set(ghostObject.getWorldTransform(xform).origin);
 
                 float maxPen = 0.0f;
+                recoveryPairs += ghostObject.getOverlappingPairCache().getNumOverlappingPairs();
                 for (int i=0; i<ghostObject.getOverlappingPairCache().getNumOverlappingPairs(); i++) {
                         manifoldArray.clear();
 
@@ -366,6 +565,7 @@ public class DanielKinematicCharacterController extends ActionInterface {
                         for (int j=0; j<manifoldArray.size(); j++) {
                                 PersistentManifold manifold = manifoldArray.getQuick(j);
                                 float directionSign = manifold.getBody0() == ghostObject? -1.0f : 1.0f;
+                                recoveryContacts += manifold.getNumContacts();
                                 for (int p=0; p<manifold.getNumContacts(); p++) {
                                         ManifoldPoint pt = manifold.getContactPoint(p);
 
@@ -390,47 +590,118 @@ public class DanielKinematicCharacterController extends ActionInterface {
                         }
                 }
                 
-                Transform newTrans = ghostObject.getWorldTransform(Stack.alloc(Transform.class));
-                newTrans.origin.set(currentPosition);
-                ghostObject.setWorldTransform(newTrans);
+                xform.origin.set(currentPosition);
+                ghostObject.setWorldTransform(xform);
                 //printf("m_touchingNormal = %f,%f,%f\n",m_touchingNormal[0],m_touchingNormal[1],m_touchingNormal[2]);
 
                 //System.out.println("recoverFromPenetration "+penetration+" "+touchingNormal);
 
                 return penetration;
         }
+
+        /**
+         * One loop of {@link RecoveryMode#REUSE_CONTACTS}.
+         *
+         * @param dispatch true to run the narrowphase and collect the
+         * manifolds, false to refresh the ones collected before
+         */
+        private boolean recoverReusingContacts(CollisionWorld collisionWorld, boolean dispatch) {
+                if (dispatch) {
+                        collisionWorld.getDispatcher().dispatchAllCollisionPairs(
+                                        ghostObject.getOverlappingPairCache(), collisionWorld.getDispatchInfo(), collisionWorld.getDispatcher());
+                        recoveryManifolds.clear();
+                        int numPairs = ghostObject.getOverlappingPairCache().getNumOverlappingPairs();
+                        recoveryPairs += numPairs;
+                        for (int i=0; i<numPairs; i++) {
+                                BroadphasePair collisionPair = ghostObject.getOverlappingPairCache().getOverlappingPairArray().getQuick(i);
+                                if (collisionPair.algorithm != null) {
+                                        collisionPair.algorithm.getAllContactManifolds(recoveryManifolds);
+                                }
+                        }
+                }
+                else {
+                        for (int j=0; j<recoveryManifolds.size(); j++) {
+                                PersistentManifold manifold = recoveryManifolds.getQuick(j);
+                                ((CollisionObject) manifold.getBody0()).getWorldTransform(body0Transform);
+                                ((CollisionObject) manifold.getBody1()).getWorldTransform(body1Transform);
+                                manifold.refreshContactPoints(body0Transform, body1Transform);
+                        }
+                }
+
+                currentPosition.set(ghostObject.getWorldTransform(xform).origin);
+
+                // every contact is pushed out by what is left of its depth after
+                // the contacts before it moved the character
+                boolean penetration = false;
+                float maxPen = 0.0f;
+                recoveryMove.set(0, 0, 0);
+                for (int j=0; j<recoveryManifolds.size(); j++) {
+                        PersistentManifold manifold = recoveryManifolds.getQuick(j);
+                        float directionSign = manifold.getBody0() == ghostObject? -1.0f : 1.0f;
+                        recoveryContacts += manifold.getNumContacts();
+                        for (int p=0; p<manifold.getNumContacts(); p++) {
+                                ManifoldPoint pt = manifold.getContactPoint(p);
+                                float dist = pt.getDistance();
+                                if (dist >= 0.0f) {
+                                        continue;
+                                }
+                                penetration = true;
+                                if (dist < maxPen) {
+                                        maxPen = dist;
+                                        touchingNormal.set(pt.normalWorldOnB);
+                                        touchingNormal.scale(directionSign);
+                                }
+                                float depth = directionSign * recoveryMove.dot(pt.normalWorldOnB) - dist;
+                                if (depth > 0.0f) {
+                                        recoveryMove.scaleAdd(-directionSign * depth, pt.normalWorldOnB, recoveryMove);
+                                }
+                        }
+                }
+
+                // what is left decides whether another loop is needed
+                remainingPenetration = 0.0f;
+                for (int j=0; j<recoveryManifolds.size(); j++) {
+                        PersistentManifold manifold = recoveryManifolds.getQuick(j);
+                        float directionSign = manifold.getBody0() == ghostObject? -1.0f : 1.0f;
+                        for (int p=0; p<manifold.getNumContacts(); p++) {
+                                ManifoldPoint pt = manifold.getContactPoint(p);
+                                float depth = directionSign * recoveryMove.dot(pt.normalWorldOnB) - pt.getDistance();
+                                if (depth > remainingPenetration) {
+                                        remainingPenetration = depth;
+                                }
+                        }
+                }
+
+                currentPosition.add(recoveryMove);
+                xform.origin.set(currentPosition);
+                ghostObject.setWorldTransform(xform);
+                return penetration;
+        }
         
         protected void stepUp(CollisionWorld world) {
                 // phase 1: up
-                Transform start = Stack.alloc(Transform.class);
-                Transform end = Stack.alloc(Transform.class);
-                targetPosition.scaleAdd(stepHeight + (verticalOffset > 0.0?verticalOffset:0.0f), upAxisDirection[upAxis], currentPosition);
+                Transform start = sweepStart;
+                Transform end = sweepEnd;
+                targetPosition.scaleAdd(stepHeight + (verticalOffset > 0.0?verticalOffset:0.0f), up, currentPosition);
 
                 start.setIdentity ();
                 end.setIdentity ();
 
                 /* FIXME: Handle penetration properly */
                 start.origin.scaleAdd(convexShape.getMargin() + addedMargin,
-                        upAxisDirection[upAxis], currentPosition);
+                        up, currentPosition);
                 end.origin.set(targetPosition);
                 
                 // Find only sloped/flat surface hits, avoid wall and ceiling hits...
-                Vector3f up = Stack.alloc(Vector3f.class);
-                up.scale(-1f, upAxisDirection[upAxis]);
-                KinematicClosestNotMeConvexResultCallback callback = new KinematicClosestNotMeConvexResultCallback(ghostObject, up, 0.7071f);
-                callback.collisionFilterGroup = getGhostObject().getBroadphaseHandle().collisionFilterGroup;
-                callback.collisionFilterMask = getGhostObject().getBroadphaseHandle().collisionFilterMask;
+                Vector3f down = sweepDirection;
+                down.scale(-1f, up);
+                KinematicClosestNotMeConvexResultCallback callback = resetCallback(down, 0.7071f);
 
-                if (useGhostObjectSweepTest) {
-                        ghostObject.convexSweepTest(convexShape, start, end, callback, world.getDispatchInfo().allowedCcdPenetration);
-                }
-                else {
-                        world.convexSweepTest(convexShape, start, end, callback);
-                }
+                sweep(world, start, end, callback);
 
                 if (callback.hasHit()) {
                     // Only modify the position if the hit was a slope and not a wall or ceiling.
-                    if(callback.hitNormalWorld.dot(upAxisDirection[upAxis]) > 0.0){
+                    if(callback.hitNormalWorld.dot(up) > 0.0){
                         // we moved up only a fraction of the step height
                         currentStepOffset = stepHeight * callback.closestHitFraction;
                         currentPosition.interpolate(currentPosition, targetPosition, callback.closestHitFraction);
@@ -444,34 +715,62 @@ public class DanielKinematicCharacterController extends ActionInterface {
                 }
         }
 
+        /**
+         * Records the phase that began at start and returns the start of the
+         * next one, 0 while metrics are disabled.
+         */
+        private static long stopAndStart(TickMetrics.Metric metric, long start) {
+                TickMetrics.stop(metric, start);
+                return TickMetrics.start();
+        }
+
+        private void sweep(CollisionWorld collisionWorld, Transform start, Transform end, CollisionWorld.ConvexResultCallback callback) {
+                sweeps++;
+                if (sweepTest != null) {
+                        sweepTest.convexSweepTest(collisionWorld, ghostObject, convexShape, start, end, callback);
+                }
+                else if (useGhostObjectSweepTest) {
+                        ghostObject.convexSweepTest(convexShape, start, end, callback, collisionWorld.getDispatchInfo().allowedCcdPenetration);
+                }
+                else {
+                        collisionWorld.convexSweepTest(convexShape, start, end, callback);
+                }
+        }
+
+        private KinematicClosestNotMeConvexResultCallback resetCallback(Vector3f up, float minSlopeDot) {
+                sweepCallback.reset(ghostObject, up, minSlopeDot);
+                sweepCallback.collisionFilterGroup = getGhostObject().getBroadphaseHandle().collisionFilterGroup;
+                sweepCallback.collisionFilterMask = getGhostObject().getBroadphaseHandle().collisionFilterMask;
+                return sweepCallback;
+        }
+
         protected void updateTargetPositionBasedOnCollision (Vector3f hitNormal) {
                 updateTargetPositionBasedOnCollision(hitNormal, 0f, 1f);
         }
 
         protected void updateTargetPositionBasedOnCollision(Vector3f hitNormal, float tangentMag, float normalMag) {
-                Vector3f movementDirection = Stack.alloc(Vector3f.class);
                 movementDirection.sub(targetPosition, currentPosition);
                 float movementLength = movementDirection.length();
                 if (movementLength>BulletGlobals.SIMD_EPSILON) {
                         movementDirection.normalize();
 
-                        Vector3f reflectDir = computeReflectionDirection(movementDirection, hitNormal, Stack.alloc(Vector3f.class));
+                        Vector3f reflectDir = computeReflectionDirection(movementDirection, hitNormal, reflectDirection);
                         reflectDir.normalize();
 
-                        Vector3f parallelDir = parallelComponent(reflectDir, hitNormal, Stack.alloc(Vector3f.class));
-                        Vector3f perpindicularDir = perpindicularComponent(reflectDir, hitNormal, Stack.alloc(Vector3f.class));
+                        Vector3f parallelDir = parallelComponent(reflectDir, hitNormal, parallelDirection);
+                        Vector3f perpindicularDir = perpindicularComponent(reflectDir, hitNormal, perpendicularDirection);
 
                         targetPosition.set(currentPosition);
                         if (false) //tangentMag != 0.0)
                         {
-                                Vector3f parComponent = Stack.alloc(Vector3f.class);
+                                Vector3f parComponent = component;
                                 parComponent.scale(tangentMag * movementLength, parallelDir);
                                 //printf("parComponent=%f,%f,%f\n",parComponent[0],parComponent[1],parComponent[2]);
                                 targetPosition.add(parComponent);
                         }
 
                         if (normalMag != 0.0f) {
-                                Vector3f perpComponent = Stack.alloc(Vector3f.class);
+                                Vector3f perpComponent = component;
                                 perpComponent.scale(normalMag * movementLength, perpindicularDir);
                                 //printf("perpComponent=%f,%f,%f\n",perpComponent[0],perpComponent[1],perpComponent[2]);
                                 targetPosition.add(perpComponent);
@@ -486,16 +785,14 @@ public class DanielKinematicCharacterController extends ActionInterface {
                 // printf("m_normalizedDirection=%f,%f,%f\n",
                 //      m_normalizedDirection[0],m_normalizedDirection[1],m_normalizedDirection[2]);
                 // phase 2: forward and strafe
-                Transform start = Stack.alloc(Transform.class);
-                Transform end = Stack.alloc(Transform.class);
+                Transform start = sweepStart;
+                Transform end = sweepEnd;
                 targetPosition.add(currentPosition, walkMove);
                 start.setIdentity ();
                 end.setIdentity ();
 
                 float fraction = 1.0f;
-                Vector3f distance2Vec = Stack.alloc(Vector3f.class);
-                distance2Vec.sub(currentPosition, targetPosition);
-                float distance2 = distance2Vec.lengthSquared();
+                float distance2;
                 //printf("distance2=%f\n",distance2);
 
                 if (touchingContact) {
@@ -505,27 +802,21 @@ public class DanielKinematicCharacterController extends ActionInterface {
                 }
 
                 int maxIter = 10;
+                int iterations = 0;
 
                 while (fraction > 0.01f && maxIter-- > 0) {
+                        iterations++;
                         start.origin.set(currentPosition);
                         end.origin.set(targetPosition);
-                        Vector3f sweepDirNegative = Stack.alloc(Vector3f.class);
+                        Vector3f sweepDirNegative = sweepDirection;
                         sweepDirNegative.sub(currentPosition, targetPosition);
 
-                        KinematicClosestNotMeConvexResultCallback callback = new KinematicClosestNotMeConvexResultCallback(ghostObject, sweepDirNegative, -1.0f);
-
-                        callback.collisionFilterGroup = getGhostObject().getBroadphaseHandle().collisionFilterGroup;
-                        callback.collisionFilterMask = getGhostObject().getBroadphaseHandle().collisionFilterMask;
+                        KinematicClosestNotMeConvexResultCallback callback = resetCallback(sweepDirNegative, -1.0f);
 
                         float margin = convexShape.getMargin();
                         convexShape.setMargin(margin + addedMargin);
 
-                        if (useGhostObjectSweepTest) {
-                                ghostObject.convexSweepTest(convexShape, start, end, callback, collisionWorld.getDispatchInfo().allowedCcdPenetration);
-                        }
-                        else {
-                                collisionWorld.convexSweepTest(convexShape, start, end, callback);
-                        }
+                        sweep(collisionWorld, start, end, callback);
 
                         convexShape.setMargin(margin);
 
@@ -533,8 +824,6 @@ public class DanielKinematicCharacterController extends ActionInterface {
 
                         if (callback.hasHit()) {
                                 // we moved only a fraction
-                                Vector3f hitDistanceVec = Stack.alloc(Vector3f.class);
-                                hitDistanceVec.sub(callback.hitPointWorld, currentPosition);
 //                              float hitDistance = hitDistanceVec.length();
 
                                 // if the distance is farther than the collision margin, move
@@ -545,7 +834,7 @@ public class DanielKinematicCharacterController extends ActionInterface {
 
                                 updateTargetPositionBasedOnCollision(callback.hitNormalWorld);
 
-                                Vector3f currentDir = Stack.alloc(Vector3f.class);
+                                Vector3f currentDir = currentDirection;
                                 currentDir.sub(targetPosition, currentPosition);
                                 distance2 = currentDir.lengthSquared();
                                 if (distance2 > BulletGlobals.SIMD_EPSILON) {
@@ -568,19 +857,20 @@ public class DanielKinematicCharacterController extends ActionInterface {
                         //if (callback.m_closestHitFraction == 0.f)
                         //    break;
                 }
+                TickMetrics.count(TickMetrics.Metric.FORWARD_ITERATIONS, iterations);
         }
 
         protected void stepDown(CollisionWorld collisionWorld, float dt) {
-                Transform start = Stack.alloc(Transform.class);
-                Transform end = Stack.alloc(Transform.class);
+                Transform start = sweepStart;
+                Transform end = sweepEnd;
 
                 // phase 3: down
 //              float additionalDownStep = (wasOnGround /*&& !onGround()*/) ? stepHeight : 0.0f;
 //              Vector3f step_drop = Stack.alloc(Vector3f.class);
-//              step_drop.scale(currentStepOffset + additionalDownStep, upAxisDirection[upAxis]);
+//              step_drop.scale(currentStepOffset + additionalDownStep, up);
 //              float downVelocity = (additionalDownStep == 0.0f && verticalVelocity<0.0f?-verticalVelocity:0.0f) * dt;
 //              Vector3f gravity_drop = Stack.alloc(Vector3f.class);
-//              gravity_drop.scale(downVelocity, upAxisDirection[upAxis]);
+//              gravity_drop.scale(downVelocity, up);
 //              targetPosition.sub(step_drop);
 //              targetPosition.sub(gravity_drop);
                 
@@ -590,8 +880,8 @@ public class DanielKinematicCharacterController extends ActionInterface {
                 {
                         downVelocity = stepHeight;
                 }
-                Vector3f step_drop = Stack.alloc(Vector3f.class);
-                step_drop.scale(currentStepOffset + downVelocity, upAxisDirection[upAxis]);
+                Vector3f step_drop = sweepDirection;
+                step_drop.scale(currentStepOffset + downVelocity, up);
                 targetPosition.sub(step_drop);
 
                 start.setIdentity ();
@@ -600,16 +890,9 @@ public class DanielKinematicCharacterController extends ActionInterface {
                 start.origin.set(currentPosition);
                 end.origin.set(targetPosition);
 
-                KinematicClosestNotMeConvexResultCallback callback = new KinematicClosestNotMeConvexResultCallback(ghostObject, upAxisDirection[upAxis], maxSlopeCosine);
-                callback.collisionFilterGroup = getGhostObject().getBroadphaseHandle().collisionFilterGroup;
-                callback.collisionFilterMask = getGhostObject().getBroadphaseHandle().collisionFilterMask;
+                KinematicClosestNotMeConvexResultCallback callback = resetCallback(up, maxSlopeCosine);
 
-                if (useGhostObjectSweepTest) {
-                        ghostObject.convexSweepTest(convexShape, start, end, callback, collisionWorld.getDispatchInfo().allowedCcdPenetration);
-                }
-                else {
-                        collisionWorld.convexSweepTest(convexShape, start, end, callback);
-                }
+                sweep(collisionWorld, start, end, callback);
 
                 if (callback.hasHit()) {
                         // we dropped a fraction of the height -> hit floor
@@ -648,14 +931,24 @@ public class DanielKinematicCharacterController extends ActionInterface {
 
         private static class KinematicClosestNotMeConvexResultCallback extends CollisionWorld.ClosestConvexResultCallback {
                 protected CollisionObject me;
-                protected final Vector3f up;
+                protected final Vector3f up = new Vector3f();
                 protected float minSlopeDot;
+                private final Vector3f normal = new Vector3f();
+                private final Transform transform = new Transform();
 
-                public KinematicClosestNotMeConvexResultCallback(CollisionObject me, final Vector3f up, float minSlopeDot) {
+                public KinematicClosestNotMeConvexResultCallback() {
                         super(new Vector3f(), new Vector3f());
+                }
+
+                /**
+                 * Prepares the callback for the next sweep.
+                 */
+                public void reset(CollisionObject me, Vector3f up, float minSlopeDot) {
                         this.me = me;
-                        this.up = up;
+                        this.up.set(up);
                         this.minSlopeDot = minSlopeDot;
+                        closestHitFraction = 1.0f;
+                        hitCollisionObject = null;
                 }
 
                 @Override
@@ -669,8 +962,8 @@ public class DanielKinematicCharacterController extends ActionInterface {
                                 hitNormalWorld = convexResult.hitNormalLocal;
                         } else {
                                 //need to transform normal into worldspace
-                                hitNormalWorld = Stack.alloc(Vector3f.class);
-                                convexResult.hitCollisionObject.getWorldTransform(Stack.alloc(Transform.class)).basis.transform(convexResult.hitNormalLocal, hitNormalWorld);
+                                hitNormalWorld = normal;
+                                convexResult.hitCollisionObject.getWorldTransform(transform).basis.transform(convexResult.hitNormalLocal, hitNormalWorld);
                         }
                         
                         float dotUp = up.dot(hitNormalWorld);
@@ -26,7 +26,9 @@ public class DanielPhysicsCharacter extends PhysicsCollisionObject {
     protected float fallSpeed = 55.0f;
     protected float jumpSpeed = 10.0f;
     protected int upAxis = 1;
+    protected Vector3f upDirection = new Vector3f(Vector3f.UNIT_Y);
     protected PairCachingGhostObject gObject;
+    protected DanielKinematicCharacterController.SweepTest sweepTest;
     protected boolean locationDirty = false;
     //TEMP VARIABLES
     protected final Quaternion tmp_inverseWorldRotation = new Quaternion();
@@ -42,6 +44,15 @@ public class DanielPhysicsCharacter extends PhysicsCollisionObject {
      * @param stepHeight The quantization size for vertical movement
      */
     public DanielPhysicsCharacter(CollisionShape shape, float stepHeight) {
+        this(shape, stepHeight, null);
+    }
+
+    /**
+     * @param sweepTest finds what the character runs into, e.g. a
+     * {@link VoxelCapsuleSweep}, null for Bullet's convex sweep
+     */
+    public DanielPhysicsCharacter(CollisionShape shape, float stepHeight, DanielKinematicCharacterController.SweepTest sweepTest) {
+        this.sweepTest = sweepTest;
         this.collisionShape = shape;
         if (!(shape.getCShape() instanceof ConvexShape)) {
             throw (new UnsupportedOperationException("Kinematic character nodes cannot have mesh collision shapes"));
@@ -58,7 +69,7 @@ public class DanielPhysicsCharacter extends PhysicsCollisionObject {
         gObject.setCollisionFlags(gObject.getCollisionFlags() & ~CollisionFlags.NO_CONTACT_RESPONSE);
         gObject.setCollisionShape(collisionShape.getCShape());
         gObject.setUserPointer(this);
-        character = new DanielKinematicCharacterController(gObject, (ConvexShape) collisionShape.getCShape(), stepHeight);
+        character = new DanielKinematicCharacterController(gObject, (ConvexShape) collisionShape.getCShape(), stepHeight, 1, sweepTest);
     }
 
     /**
@@ -91,12 +102,40 @@ public class DanielPhysicsCharacter extends PhysicsCollisionObject {
     public void setUpAxis(int axis) {
         upAxis = axis;
         character.setUpAxis(axis);
+        character.getUp(tempVec);
+        Converter.convert(tempVec, upDirection);
     }
 
     public int getUpAxis() {
         return upAxis;
     }
 
+    /**
+     * Sets the up direction of this character only, gravity, jumping and
+     * stepping all work along it. Use this to let characters stand on
+     * different planets.
+     * @param direction any non zero vector, it is normalized
+     */
+    public void setUpDirection(Vector3f direction) {
+        character.setUp(Converter.convert(direction, tempVec));
+        character.getUp(tempVec);
+        Converter.convert(tempVec, upDirection);
+    }
+
+    /**
+     * @return the up direction, do not modify
+     */
+    public Vector3f getUpDirection() {
+        return upDirection;
+    }
+
+    public Vector3f getUpDirection(Vector3f store) {
+        if (store == null) {
+            store = new Vector3f();
+        }
+        return store.set(upDirection);
+    }
+
     public void setFallSpeed(float fallSpeed) {
         this.fallSpeed = fallSpeed;
         character.setFallSpeed(fallSpeed);
@@ -135,6 +174,43 @@ public class DanielPhysicsCharacter extends PhysicsCollisionObject {
         return character.getMaxSlope();
     }
 
+    public void setRecoveryMode(DanielKinematicCharacterController.RecoveryMode mode) {
+        character.setRecoveryMode(mode);
+    }
+
+    public DanielKinematicCharacterController.RecoveryMode getRecoveryMode() {
+        return character.getRecoveryMode();
+    }
+
+    public void setRecoveryThreshold(float recoveryThreshold) {
+        character.setRecoveryThreshold(recoveryThreshold);
+    }
+
+    public float getRecoveryThreshold() {
+        return character.getRecoveryThreshold();
+    }
+
+    /**
+     * @return number of penetration recovery loops in the last tick
+     */
+    public int getRecoveryLoops() {
+        return character.getRecoveryLoops();
+    }
+
+    /**
+     * @return number of overlapping pairs dispatched by the recovery in the last tick
+     */
+    public int getRecoveryPairs() {
+        return character.getRecoveryPairs();
+    }
+
+    /**
+     * @return number of contact points looked at by the recovery in the last tick
+     */
+    public int getRecoveryContacts() {
+        return character.getRecoveryContacts();
+    }
+
     public boolean onGround() {
         return character.onGround();
     }
@@ -232,8 +308,11 @@ public class DanielPhysicsCharacter extends PhysicsCollisionObject {
         capsule.write(fallSpeed, "fallSpeed", 55.0f);
         capsule.write(jumpSpeed, "jumpSpeed", 10.0f);
         capsule.write(upAxis, "upAxis", 1);
+        capsule.write(upDirection, "upDirection", null);
         capsule.write(getCcdMotionThreshold(), "ccdMotionThreshold", 0);
         capsule.write(getCcdSweptSphereRadius(), "ccdSweptSphereRadius", 0);
+        capsule.write(getRecoveryMode(), "recoveryMode", DanielKinematicCharacterController.RecoveryMode.DISPATCH_EVERY_LOOP);
+        capsule.write(getRecoveryThreshold(), "recoveryThreshold", 0.01f);
         capsule.write(getPhysicsLocation(new Vector3f()), "physicsLocation", new Vector3f());
     }
 
@@ -243,14 +322,21 @@ public class DanielPhysicsCharacter extends PhysicsCollisionObject {
         InputCapsule capsule = e.getCapsule(this);
         stepHeight = capsule.readFloat("stepHeight", 1.0f);
         buildObject();
-        character = new DanielKinematicCharacterController(gObject, (ConvexShape) collisionShape.getCShape(), stepHeight);
+        character = new DanielKinematicCharacterController(gObject, (ConvexShape) collisionShape.getCShape(), stepHeight, 1, sweepTest);
         setGravity(capsule.readFloat("gravity", 9.8f * 3));
         setMaxSlope(capsule.readFloat("maxSlope", 1.0f));
         setFallSpeed(capsule.readFloat("fallSpeed", 55.0f));
         setJumpSpeed(capsule.readFloat("jumpSpeed", 10.0f));
         setUpAxis(capsule.readInt("upAxis", 1));
+        Vector3f savedUp = (Vector3f) capsule.readSavable("upDirection", null);
+        if (savedUp != null) {
+            setUpDirection(savedUp);
+        }
         setCcdMotionThreshold(capsule.readFloat("ccdMotionThreshold", 0));
         setCcdSweptSphereRadius(capsule.readFloat("ccdSweptSphereRadius", 0));
+        setRecoveryMode(capsule.readEnum("recoveryMode", DanielKinematicCharacterController.RecoveryMode.class,
+                DanielKinematicCharacterController.RecoveryMode.DISPATCH_EVERY_LOOP));
+        setRecoveryThreshold(capsule.readFloat("recoveryThreshold", 0.01f));
         setPhysicsLocation((Vector3f) capsule.readSavable("physicsLocation", new Vector3f()));
     }
 }
\ No newline at end of file
@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * The network side of a player connected to a {@link GameServer}: sends
+ * the player's input and keeps the snapshots the server sends back. Does not
+ * render anything, so any number of them can run headless in one process.
+ * Call {@link #update} regularly, it never blocks.
+ */
+public class GameClient {
+
+    /**
+     * updates between two hellos while waiting for the welcome
+     */
+    private static final int HELLO_INTERVAL = 30;
+    /**
+     * received snapshots kept as baselines, as many as the server keeps
+     */
+    private static final int SNAPSHOT_HISTORY = 32;
+
+    private final InetSocketAddress server;
+    private DatagramChannel channel;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(NetworkProtocol.MAX_PACKET);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(64);
+    private final SnapshotCodec codec = new SnapshotCodec();
+    private final Snapshot[] history = new Snapshot[SNAPSHOT_HISTORY];
+    private int historyIndex;
+    private Snapshot latest;
+    private Snapshot spare = new Snapshot();
+    private int playerId = -1;
+    private int updates;
+
+    private long bytesReceived;
+    private long bytesSent;
+    private int snapshotsReceived;
+    private int snapshotsDropped;
+
+    public GameClient(InetSocketAddress server) {
+        this.server = server;
+        for (int i = 0; i < SNAPSHOT_HISTORY; i++) {
+            history[i] = new Snapshot();
+        }
+    }
+
+    public void connect() throws IOException {
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.connect(server);
+        sendHello();
+    }
+
+    /**
+     * Reads all waiting packets, and says hello again while not welcomed.
+     */
+    public void update() throws IOException {
+        if (playerId < 0 && ++updates % HELLO_INTERVAL == 0) {
+            sendHello();
+        }
+        receiveBuffer.clear();
+        while (channel.receive(receiveBuffer) != null) {
+            receiveBuffer.flip();
+            bytesReceived += receiveBuffer.remaining();
+            try {
+                handle(receiveBuffer);
+            } catch (BufferUnderflowException e) {
+                // truncated packet, ignored
+            } catch (IllegalArgumentException e) {
+                // malformed packet, ignored
+            }
+            receiveBuffer.clear();
+        }
+    }
+
+    private void handle(ByteBuffer packet) {
+        byte type = packet.get();
+        if (type == NetworkProtocol.WELCOME) {
+            playerId = NetworkProtocol.readVarInt(packet);
+        } else if (type == NetworkProtocol.SNAPSHOT) {
+            handleSnapshot(packet);
+        }
+    }
+
+    private void handleSnapshot(ByteBuffer packet) {
+        int baselineTick = SnapshotCodec.getBaselineTick(packet);
+        Snapshot baseline = null;
+        if (baselineTick != 0) {
+            baseline = findSnapshot(baselineTick);
+            if (baseline == null) {
+                // the baseline is gone, the server sends a full one once it sees our ack
+                snapshotsDropped++;
+                return;
+            }
+        }
+        codec.decode(packet, baseline, spare);
+        if (latest != null && spare.getTick() <= latest.getTick()) {
+            // late packet
+            snapshotsDropped++;
+            return;
+        }
+        snapshotsReceived++;
+        historyIndex = (historyIndex + 1) % SNAPSHOT_HISTORY;
+        Snapshot decoded = spare;
+        spare = history[historyIndex];
+        history[historyIndex] = decoded;
+        latest = decoded;
+    }
+
+    private Snapshot findSnapshot(int tick) {
+        for (Snapshot snapshot : history) {
+            if (snapshot.getTick() == tick) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sends the input with the newest snapshot as acknowledgement. Does
+     * nothing before the server welcomed us.
+     */
+    public void sendInput(InputState input) throws IOException {
+        if (playerId < 0) {
+            return;
+        }
+        sendBuffer.clear();
+        sendBuffer.put(NetworkProtocol.INPUT);
+        NetworkProtocol.writeVarInt(sendBuffer, latest == null ? 0 : latest.getTick());
+        input.write(sendBuffer);
+        send();
+    }
+
+    private void sendHello() throws IOException {
+        sendBuffer.clear();
+        sendBuffer.put(NetworkProtocol.HELLO);
+        send();
+    }
+
+    private void send() throws IOException {
+        sendBuffer.flip();
+        bytesSent += channel.write(sendBuffer);
+    }
+
+    /**
+     * Says goodbye and closes the socket.
+     */
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        if (playerId >= 0) {
+            sendBuffer.clear();
+            sendBuffer.put(NetworkProtocol.BYE);
+            send();
+        }
+        channel.close();
+        channel = null;
+    }
+
+    public boolean isConnected() {
+        return playerId >= 0;
+    }
+
+    /**
+     * @return entity id of our player in the snapshots, -1 until welcomed
+     */
+    public int getPlayerId() {
+        return playerId;
+    }
+
+    /**
+     * @return the newest snapshot, null before the first one arrived
+     */
+    public Snapshot getLatest() {
+        return latest;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public int getSnapshotsReceived() {
+        return snapshotsReceived;
+    }
+
+    /**
+     * @return snapshots that came late or whose baseline was gone
+     */
+    public int getSnapshotsDropped() {
+        return snapshotsDropped;
+    }
+}
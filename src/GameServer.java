@@ -0,0 +1,484 @@
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.PhysicsTickListener;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.material.Material;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Hosts one planet for many players. The server owns the physics space, a
+ * character for every client and the cannon balls. Clients only send their
+ * {@link InputState}, the server steps the world with a fixed time step and
+ * sends every client a {@link Snapshot} of all transforms every few ticks,
+ * delta encoded against the last snapshot the client acknowledged.<p>
+ *
+ * Everything runs on the thread that calls {@link #start}, the socket is a
+ * non-blocking UDP channel. {@link #run} ticks in real time, {@link #tick}
+ * can be called directly to drive the server from a test or benchmark.<p>
+ *
+ * Usage: SuperMinecraftGalaxy --server [port=5000] [radius=30] [snapshotInterval=3]
+ */
+public class GameServer implements PhysicsTickListener {
+
+    /**
+     * seconds of one physics tick
+     */
+    public static final float STEP = 1f / 60f;
+    /**
+     * snapshots kept to delta encode against, clients acknowledging older
+     * ones get a full snapshot
+     */
+    private static final int SNAPSHOT_HISTORY = 32;
+    /**
+     * ticks without input after which a client is dropped
+     */
+    private static final int CLIENT_TIMEOUT = 300;
+    private static final int MAX_CANNON_BALLS = 100;
+
+    private final int port;
+    private final int radius;
+    private final Material ballMaterial;
+    private int snapshotInterval = 3;
+
+    private PhysicsSpace space;
+    private final VoxelWorld world = new VoxelWorld();
+    private final GravitySystem gravitySystem = new GravitySystem();
+    private final Node ballNode = new Node("cannon balls");
+    private CannonBallPool cannonBalls;
+    private final IdentityHashMap<RigidBodyControl, BallEntity> ballEntities = new IdentityHashMap<RigidBodyControl, BallEntity>();
+
+    private DatagramChannel channel;
+    private Selector selector;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(NetworkProtocol.MAX_PACKET);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(NetworkProtocol.MAX_PACKET);
+    private final Map<SocketAddress, Client> clients = new HashMap<SocketAddress, Client>();
+    private final List<Client> clientList = new ArrayList<Client>();
+
+    private final Snapshot[] history = new Snapshot[SNAPSHOT_HISTORY];
+    private int historyIndex;
+    private final SnapshotCodec codec = new SnapshotCodec();
+    private int tick;
+    private int nextEntityId = 1;
+    private volatile boolean running;
+
+    private long lastTickNanos;
+    private long lastTickBytes;
+    private long bytesSent;
+    private long bytesReceived;
+
+    //TEMP VARIABLES
+    private final Vector3f field = new Vector3f();
+    private final Vector3f walk = new Vector3f();
+    private final Vector3f left = new Vector3f();
+    private final Vector3f location = new Vector3f();
+    private final Quaternion rotation = new Quaternion();
+
+    /**
+     * The entity a pooled ball body stands for, a new one for every shot.
+     */
+    private static class BallEntity {
+
+        int shot;
+        int id;
+    }
+
+    /**
+     * A connected player.
+     */
+    private static class Client {
+
+        final SocketAddress address;
+        final int playerId;
+        final DanielCharacterControl player;
+        final InputState input = new InputState();
+        int jumpsSeen = -1;
+        int shotsSeen = -1;
+        int ackTick;
+        int lastHeard;
+
+        Client(SocketAddress address, int playerId, DanielCharacterControl player) {
+            this.address = address;
+            this.playerId = playerId;
+            this.player = player;
+        }
+    }
+
+    /**
+     * @param port UDP port to listen on, 0 for any free one
+     * @param radius of the planet in bricks
+     * @param ballMaterial material of the cannon ball geometries
+     */
+    public GameServer(int port, int radius, Material ballMaterial) {
+        this.port = port;
+        this.radius = radius;
+        this.ballMaterial = ballMaterial;
+        for (int i = 0; i < SNAPSHOT_HISTORY; i++) {
+            history[i] = new Snapshot();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = 5000;
+        int radius = 30;
+        int snapshotInterval = 3;
+        for (String arg : args) {
+            if (arg.equals("--server")) {
+                continue;
+            }
+            int split = arg.indexOf('=');
+            if (split < 0) {
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            }
+            String name = arg.substring(0, split);
+            int value = Integer.parseInt(arg.substring(split + 1));
+            if (name.equals("port")) {
+                port = value;
+            } else if (name.equals("radius")) {
+                radius = value;
+            } else if (name.equals("snapshotInterval")) {
+                snapshotInterval = value;
+            } else {
+                throw new IllegalArgumentException("unknown option " + name);
+            }
+        }
+        Material material = new Material(new DesktopAssetManager(true), "Common/MatDefs/Misc/Unshaded.j3md");
+        GameServer server = new GameServer(port, radius, material);
+        server.setSnapshotInterval(snapshotInterval);
+        server.start();
+        System.out.println("server listening on port " + server.getPort());
+        server.run();
+    }
+
+    /**
+     * Builds the planet and opens the socket.
+     */
+    public void start() throws IOException {
+        space = new PhysicsSpace(new Vector3f(-10000f, -10000f, -10000f), new Vector3f(10000f, 10000f, 10000f),
+                PhysicsSpace.BroadphaseType.DBVT);
+        gravitySystem.addSource(GravitySource.sphere(Vector3f.ZERO, radius * VoxelWorld.BLOCK_SIZE, GameSetup.PLANET_SURFACE_GRAVITY));
+        TickMetrics.attach(space);
+        TickMetrics.registerMBean();
+        space.addTickListener(gravitySystem);
+        space.addTickListener(this);
+
+        ForkJoinPool generatorPool = new ForkJoinPool();
+        PlanetGenerator planetGenerator = new PlanetGenerator(generatorPool);
+        GameSetup.buildPlanet(planetGenerator, world, new VoxelWorldPhysics(world, space), radius);
+        generatorPool.shutdown();
+        cannonBalls = new CannonBallPool(ballNode, space, ballMaterial, 0.4f, 1f, MAX_CANNON_BALLS,
+                GameSetup.CANNON_BALL_TIME_TO_LIVE);
+
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().bind(new InetSocketAddress(port));
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Ticks in real time until {@link #stop}, reading packets while it
+     * waits for the next tick.
+     */
+    public void run() throws IOException {
+        running = true;
+        long stepNanos = (long) (STEP * 1e9);
+        long next = System.nanoTime();
+        while (running) {
+            tick();
+            next += stepNanos;
+            long wait;
+            while ((wait = next - System.nanoTime()) > 0) {
+                if (selector.select(Math.max(1, wait / 1000000)) > 0) {
+                    selector.selectedKeys().clear();
+                    receive();
+                }
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Reads all waiting packets, steps the world once and sends snapshots
+     * if it is time to.
+     */
+    public void tick() throws IOException {
+        long start = System.nanoTime();
+        tick++;
+        receive();
+        for (int i = 0; i < clientList.size(); i++) {
+            applyInput(clientList.get(i));
+        }
+        space.update(STEP, 0);
+        space.distributeEvents();
+        cannonBalls.update(STEP);
+        dropSilentClients();
+        lastTickBytes = 0;
+        if (tick % snapshotInterval == 0) {
+            broadcast();
+        }
+        lastTickNanos = System.nanoTime() - start;
+    }
+
+    private void receive() throws IOException {
+        receiveBuffer.clear();
+        SocketAddress from;
+        while ((from = channel.receive(receiveBuffer)) != null) {
+            receiveBuffer.flip();
+            bytesReceived += receiveBuffer.remaining();
+            try {
+                handle(from, receiveBuffer);
+            } catch (BufferUnderflowException e) {
+                // truncated packet, ignored
+            } catch (IllegalArgumentException e) {
+                // malformed packet, ignored
+            }
+            receiveBuffer.clear();
+        }
+    }
+
+    private void handle(SocketAddress from, ByteBuffer packet) throws IOException {
+        byte type = packet.get();
+        Client client = clients.get(from);
+        if (type == NetworkProtocol.HELLO) {
+            if (client == null) {
+                client = addClient(from);
+            }
+            sendBuffer.clear();
+            sendBuffer.put(NetworkProtocol.WELCOME);
+            NetworkProtocol.writeVarInt(sendBuffer, client.playerId);
+            send(client);
+        } else if (type == NetworkProtocol.INPUT && client != null) {
+            client.ackTick = NetworkProtocol.readVarInt(packet);
+            client.input.read(packet);
+            client.lastHeard = tick;
+        } else if (type == NetworkProtocol.BYE && client != null) {
+            removeClient(client);
+        }
+    }
+
+    private Client addClient(SocketAddress address) {
+        int playerId = nextEntityId++;
+        // spread the players over the top of the planet
+        float spread = (playerId % 16 - 8) * 4f;
+        DanielCharacterControl player = GameSetup.addPlayer(space,
+                new Vector3f(spread, radius * VoxelWorld.BLOCK_SIZE + 6f, (playerId / 16 % 16 - 8) * 4f));
+        Client client = new Client(address, playerId, player);
+        client.lastHeard = tick;
+        clients.put(address, client);
+        clientList.add(client);
+        return client;
+    }
+
+    private void removeClient(Client client) {
+        clients.remove(client.address);
+        clientList.remove(client);
+        space.remove(client.player);
+    }
+
+    private void dropSilentClients() {
+        for (int i = clientList.size() - 1; i >= 0; i--) {
+            Client client = clientList.get(i);
+            if (tick - client.lastHeard > CLIENT_TIMEOUT) {
+                removeClient(client);
+            }
+        }
+    }
+
+    /**
+     * Walks, jumps and shoots like SuperMinecraftGalaxy.simpleUpdate does
+     * for the local player, with the client's view direction as camera.
+     */
+    private void applyInput(Client client) {
+        InputState input = client.input;
+        DanielCharacterControl player = client.player;
+        Vector3f up = player.getUpDirection();
+        left.set(up).crossLocal(input.viewDirection).normalizeLocal().multLocal(0.4f);
+        walk.set(0, 0, 0);
+        if (input.left) {
+            walk.addLocal(left);
+        }
+        if (input.right) {
+            walk.subtractLocal(left);
+        }
+        if (input.up) {
+            walk.scaleAdd(0.6f, input.viewDirection, walk);
+        }
+        if (input.down) {
+            walk.scaleAdd(-0.6f, input.viewDirection, walk);
+        }
+        player.setWalkDirection(walk);
+
+        if (client.jumpsSeen >= 0 && input.jumps != client.jumpsSeen) {
+            player.jump();
+        }
+        client.jumpsSeen = input.jumps;
+        if (client.shotsSeen >= 0) {
+            int shots = (input.shots - client.shotsSeen) & 0xff;
+            for (int i = 0; i < shots; i++) {
+                player.getPhysicsLocation(location);
+                cannonBalls.fire(location, input.viewDirection.mult(GameSetup.CANNON_BALL_SPEED));
+            }
+        }
+        client.shotsSeen = input.shots;
+    }
+
+    private void broadcast() throws IOException {
+        historyIndex = (historyIndex + 1) % SNAPSHOT_HISTORY;
+        Snapshot snapshot = history[historyIndex];
+        snapshot.clear(tick);
+        for (int i = 0; i < clientList.size(); i++) {
+            Client client = clientList.get(i);
+            rotation.lookAt(client.input.viewDirection, client.player.getUpDirection());
+            snapshot.add(client.playerId, Snapshot.PLAYER, client.player.getPhysicsLocation(), rotation);
+        }
+        for (int i = 0; i < cannonBalls.getLiveCount(); i++) {
+            RigidBodyControl ball = cannonBalls.getLiveBody(i);
+            BallEntity entity = ballEntities.get(ball);
+            if (entity == null) {
+                entity = new BallEntity();
+                ballEntities.put(ball, entity);
+            }
+            int shot = cannonBalls.getLiveShot(i);
+            if (entity.shot != shot) {
+                // a reused ball is removed and comes back as a new entity, it does not teleport
+                entity.shot = shot;
+                entity.id = nextEntityId++;
+            }
+            snapshot.add(entity.id, Snapshot.CANNON_BALL, ball.getPhysicsLocation(location), ball.getPhysicsRotation());
+        }
+        snapshot.sort();
+
+        for (int i = 0; i < clientList.size(); i++) {
+            Client client = clientList.get(i);
+            sendBuffer.clear();
+            sendBuffer.put(NetworkProtocol.SNAPSHOT);
+            codec.encode(snapshot, findSnapshot(client.ackTick), sendBuffer);
+            lastTickBytes += send(client);
+        }
+    }
+
+    /**
+     * @return the snapshot sent at the tick if it is still kept, else null.
+     * It is reused for a later tick, do not keep it.
+     */
+    public Snapshot getSnapshot(int snapshotTick) {
+        return findSnapshot(snapshotTick);
+    }
+
+    /**
+     * @return the snapshot of the tick if it is still kept, else null
+     */
+    private Snapshot findSnapshot(int snapshotTick) {
+        if (snapshotTick == 0) {
+            return null;
+        }
+        for (Snapshot snapshot : history) {
+            if (snapshot.getTick() == snapshotTick) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    private int send(Client client) throws IOException {
+        sendBuffer.flip();
+        int bytes = channel.send(sendBuffer, client.address);
+        bytesSent += bytes;
+        return bytes;
+    }
+
+    // PhysicsTickListener interface
+    public void prePhysicsTick(PhysicsSpace space, float f) {
+        // the players fall along the gravity field of the planet
+        for (int i = 0; i < clientList.size(); i++) {
+            DanielCharacterControl player = clientList.get(i).player;
+            Vector3f direction = gravitySystem.getField(player.getPhysicsLocation(), field).normalizeLocal();
+            player.setUpDirection(direction.negateLocal());
+        }
+    }
+
+    // PhysicsTickListener interface
+    public void physicsTick(PhysicsSpace space, float f) {
+    }
+
+    public void close() throws IOException {
+        running = false;
+        if (selector != null) {
+            selector.close();
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        if (space != null) {
+            space.destroy();
+        }
+    }
+
+    public int getPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    /**
+     * @param snapshotInterval ticks between two snapshots
+     */
+    public void setSnapshotInterval(int snapshotInterval) {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("snapshotInterval must be at least 1");
+        }
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    public int getClientCount() {
+        return clientList.size();
+    }
+
+    /**
+     * @return nanoseconds the last tick took
+     */
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    /**
+     * @return snapshot bytes sent in the last tick, 0 between snapshots
+     */
+    public long getLastTickBytes() {
+        return lastTickBytes;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+}
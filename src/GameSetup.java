@@ -0,0 +1,50 @@
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.shapes.CapsuleCollisionShape;
+import com.jme3.math.Vector3f;
+
+/**
+ * The player, the cannon balls and the home planet as the game, the
+ * {@link GameServer} and the {@link HeadlessSimulation} all set them up, so
+ * they behave the same in all three.
+ */
+public final class GameSetup {
+
+    public static final float PLANET_SURFACE_GRAVITY = 9.81f;
+    /**
+     * seconds a cannon ball flies before it goes back to the pool
+     */
+    public static final float CANNON_BALL_TIME_TO_LIVE = 20f;
+    public static final float CANNON_BALL_SPEED = 25f;
+
+    private GameSetup() {
+    }
+
+    /**
+     * Creates the player capsule at the location and adds it to the space.
+     */
+    public static DanielCharacterControl addPlayer(PhysicsSpace space, Vector3f location) {
+        DanielCharacterControl player = new DanielCharacterControl(new CapsuleCollisionShape(1.5f, 6f, 1), 0.05f);
+        player.setJumpSpeed(20);
+        player.setFallSpeed(30);
+        player.setGravity(30);
+        player.setRecoveryMode(DanielKinematicCharacterController.RecoveryMode.REUSE_CONTACTS);
+        player.setPhysicsLocation(location);
+        player.setUpAxis(1);
+        space.add(player);
+        return player;
+    }
+
+    /**
+     * Fills a planet with a crust of one brick around block 0 into the world
+     * and gives every chunk its collision shape. Waits for the generator
+     * pool, call it from any thread but the pool's own.
+     *
+     * @param radius in bricks
+     */
+    public static void buildPlanet(PlanetGenerator generator, VoxelWorld world, VoxelWorldPhysics physics, int radius) {
+        generator.generateShell(world, 0, 0, 0, radius - 1, radius);
+        for (PlanetGenerator.ChunkBuild build : generator.buildChunks(world)) {
+            physics.setChunkShape(build.chunk, build.shape);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+import java.util.Arrays;
+
+/**
+ * Barnes-Hut octree over gravity sources. Nodes and sources are stored in
+ * primitive arrays so the tree can be rebuilt every physics tick without
+ * creating garbage once the arrays have grown to fit.<p>
+ *
+ * Far away nodes whose size seen from the query point is below theta are
+ * treated as a single point mass at their center of mass, close sources are
+ * summed exactly. A theta of 0 sums every source.<p>
+ *
+ * Not thread safe, queries share scratch state.
+ */
+public class GravityOctree {
+
+    private static final int LEAF_SIZE = 4;
+    private static final int MAX_DEPTH = 20;
+    private static final int NO_CHILDREN = -1;
+    private static final int END = -1;
+
+    private float theta = 0.5f;
+    /**
+     * added to squared distances of point masses so they never divide by zero
+     */
+    private float softening2 = 1e-4f;
+
+    // sources
+    private int sourceCount;
+    private float[] sourceX = new float[16];
+    private float[] sourceY = new float[16];
+    private float[] sourceZ = new float[16];
+    private float[] sourceMass = new float[16];
+    private float[] sourceRadius = new float[16];
+    private int[] nextInLeaf = new int[16];
+
+    // nodes, the 8 children of a node are stored next to each other
+    private int nodeCount;
+    private float[] nodeX = new float[64];
+    private float[] nodeY = new float[64];
+    private float[] nodeZ = new float[64];
+    private float[] nodeHalf = new float[64];
+    private float[] nodeMass = new float[64];
+    private float[] comX = new float[64];
+    private float[] comY = new float[64];
+    private float[] comZ = new float[64];
+    private int[] firstChild = new int[64];
+    private int[] leafHead = new int[64];
+    private int[] leafCount = new int[64];
+    private int[] depth = new int[64];
+
+    private final int[] stack = new int[8 * (MAX_DEPTH + 2)];
+    private int dominantSource = -1;
+    private int lastVisitedNodes;
+
+    public void setTheta(float theta) {
+        this.theta = theta;
+    }
+
+    public float getTheta() {
+        return theta;
+    }
+
+    public void setSoftening(float softening) {
+        this.softening2 = softening * softening;
+    }
+
+    /**
+     * Starts a new tree, add all sources and call {@link #build()}.
+     */
+    public void clear() {
+        sourceCount = 0;
+        nodeCount = 0;
+    }
+
+    /**
+     * @return the index of the source, used by {@link #getDominantSource()}
+     */
+    public int addSource(float x, float y, float z, float mass, float radius) {
+        if (sourceCount == sourceX.length) {
+            int size = sourceCount * 2;
+            sourceX = Arrays.copyOf(sourceX, size);
+            sourceY = Arrays.copyOf(sourceY, size);
+            sourceZ = Arrays.copyOf(sourceZ, size);
+            sourceMass = Arrays.copyOf(sourceMass, size);
+            sourceRadius = Arrays.copyOf(sourceRadius, size);
+            nextInLeaf = Arrays.copyOf(nextInLeaf, size);
+        }
+        sourceX[sourceCount] = x;
+        sourceY[sourceCount] = y;
+        sourceZ[sourceCount] = z;
+        sourceMass[sourceCount] = mass;
+        sourceRadius[sourceCount] = radius;
+        return sourceCount++;
+    }
+
+    public int getSourceCount() {
+        return sourceCount;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Inserts all added sources and computes the mass and center of mass of
+     * every node.
+     */
+    public void build() {
+        nodeCount = 0;
+        if (sourceCount == 0) {
+            return;
+        }
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+        for (int i = 0; i < sourceCount; i++) {
+            minX = Math.min(minX, sourceX[i]);
+            minY = Math.min(minY, sourceY[i]);
+            minZ = Math.min(minZ, sourceZ[i]);
+            maxX = Math.max(maxX, sourceX[i]);
+            maxY = Math.max(maxY, sourceY[i]);
+            maxZ = Math.max(maxZ, sourceZ[i]);
+        }
+        float half = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ)) * .5f + 1f;
+        newNode((minX + maxX) * .5f, (minY + maxY) * .5f, (minZ + maxZ) * .5f, half, 0);
+        for (int i = 0; i < sourceCount; i++) {
+            insert(0, i);
+        }
+        // children are always created after their parent, so walking backwards
+        // sees every child before its parent
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            float mass = 0, x = 0, y = 0, z = 0;
+            if (firstChild[node] == NO_CHILDREN) {
+                for (int i = leafHead[node]; i != END; i = nextInLeaf[i]) {
+                    float m = sourceMass[i];
+                    mass += m;
+                    x += sourceX[i] * m;
+                    y += sourceY[i] * m;
+                    z += sourceZ[i] * m;
+                }
+            } else {
+                for (int c = firstChild[node]; c < firstChild[node] + 8; c++) {
+                    float m = nodeMass[c];
+                    mass += m;
+                    x += comX[c] * m;
+                    y += comY[c] * m;
+                    z += comZ[c] * m;
+                }
+            }
+            nodeMass[node] = mass;
+            if (mass > 0) {
+                comX[node] = x / mass;
+                comY[node] = y / mass;
+                comZ[node] = z / mass;
+            } else {
+                comX[node] = nodeX[node];
+                comY[node] = nodeY[node];
+                comZ[node] = nodeZ[node];
+            }
+        }
+    }
+
+    private void insert(int node, int source) {
+        while (firstChild[node] != NO_CHILDREN) {
+            node = firstChild[node] + octant(node, source);
+        }
+        nextInLeaf[source] = leafHead[node];
+        leafHead[node] = source;
+        leafCount[node]++;
+        if (leafCount[node] > LEAF_SIZE && depth[node] < MAX_DEPTH) {
+            split(node);
+        }
+    }
+
+    private void split(int node) {
+        float half = nodeHalf[node] * .5f;
+        int first = nodeCount;
+        for (int c = 0; c < 8; c++) {
+            newNode(nodeX[node] + ((c & 1) != 0 ? half : -half),
+                    nodeY[node] + ((c & 2) != 0 ? half : -half),
+                    nodeZ[node] + ((c & 4) != 0 ? half : -half), half, depth[node] + 1);
+        }
+        firstChild[node] = first;
+        int source = leafHead[node];
+        leafHead[node] = END;
+        leafCount[node] = 0;
+        while (source != END) {
+            int next = nextInLeaf[source];
+            insert(first + octant(node, source), source);
+            source = next;
+        }
+    }
+
+    private int octant(int node, int source) {
+        return (sourceX[source] >= nodeX[node] ? 1 : 0)
+                | (sourceY[source] >= nodeY[node] ? 2 : 0)
+                | (sourceZ[source] >= nodeZ[node] ? 4 : 0);
+    }
+
+    private void newNode(float x, float y, float z, float half, int nodeDepth) {
+        if (nodeCount == nodeX.length) {
+            int size = nodeCount * 2;
+            nodeX = Arrays.copyOf(nodeX, size);
+            nodeY = Arrays.copyOf(nodeY, size);
+            nodeZ = Arrays.copyOf(nodeZ, size);
+            nodeHalf = Arrays.copyOf(nodeHalf, size);
+            nodeMass = Arrays.copyOf(nodeMass, size);
+            comX = Arrays.copyOf(comX, size);
+            comY = Arrays.copyOf(comY, size);
+            comZ = Arrays.copyOf(comZ, size);
+            firstChild = Arrays.copyOf(firstChild, size);
+            leafHead = Arrays.copyOf(leafHead, size);
+            leafCount = Arrays.copyOf(leafCount, size);
+            depth = Arrays.copyOf(depth, size);
+        }
+        nodeX[nodeCount] = x;
+        nodeY[nodeCount] = y;
+        nodeZ[nodeCount] = z;
+        nodeHalf[nodeCount] = half;
+        firstChild[nodeCount] = NO_CHILDREN;
+        leafHead[nodeCount] = END;
+        leafCount[nodeCount] = 0;
+        depth[nodeCount] = nodeDepth;
+        nodeCount++;
+    }
+
+    /**
+     * Computes the acceleration at a point, without the gravitational constant.
+     *
+     * @param out receives x, y and z of the acceleration
+     */
+    public void accelerationAt(float x, float y, float z, float[] out) {
+        float ax = 0, ay = 0, az = 0;
+        float strongest = 0;
+        dominantSource = -1;
+        lastVisitedNodes = 0;
+        if (nodeCount > 0) {
+            float theta2 = theta * theta;
+            int top = 0;
+            stack[top++] = 0;
+            while (top > 0) {
+                int node = stack[--top];
+                lastVisitedNodes++;
+                float mass = nodeMass[node];
+                if (mass == 0) {
+                    continue;
+                }
+                if (firstChild[node] == NO_CHILDREN) {
+                    for (int i = leafHead[node]; i != END; i = nextInLeaf[i]) {
+                        float dx = sourceX[i] - x;
+                        float dy = sourceY[i] - y;
+                        float dz = sourceZ[i] - z;
+                        float d2 = dx * dx + dy * dy + dz * dz;
+                        float r = sourceRadius[i];
+                        float scale;
+                        if (d2 < r * r) {
+                            // inside a uniform sphere the pull grows linearly
+                            scale = sourceMass[i] / (r * r * r);
+                        } else {
+                            d2 += softening2;
+                            scale = sourceMass[i] / (d2 * (float) Math.sqrt(d2));
+                        }
+                        ax += dx * scale;
+                        ay += dy * scale;
+                        az += dz * scale;
+                        float strength = scale * scale * (dx * dx + dy * dy + dz * dz);
+                        if (strength > strongest) {
+                            strongest = strength;
+                            dominantSource = i;
+                        }
+                    }
+                    continue;
+                }
+                float dx = comX[node] - x;
+                float dy = comY[node] - y;
+                float dz = comZ[node] - z;
+                float d2 = dx * dx + dy * dy + dz * dz;
+                float size = nodeHalf[node] * 2;
+                if (size * size < theta2 * d2) {
+                    d2 += softening2;
+                    float scale = mass / (d2 * (float) Math.sqrt(d2));
+                    ax += dx * scale;
+                    ay += dy * scale;
+                    az += dz * scale;
+                } else {
+                    for (int c = firstChild[node]; c < firstChild[node] + 8; c++) {
+                        stack[top++] = c;
+                    }
+                }
+            }
+        }
+        out[0] = ax;
+        out[1] = ay;
+        out[2] = az;
+    }
+
+    /**
+     * @return index of the source that pulled hardest in the last query, among
+     * the sources that were summed exactly, or -1
+     */
+    public int getDominantSource() {
+        return dominantSource;
+    }
+
+    /**
+     * @return number of nodes the last query looked at
+     */
+    public int getLastVisitedNodes() {
+        return lastVisitedNodes;
+    }
+}
@@ -0,0 +1,54 @@
+import com.jme3.math.Vector3f;
+
+/**
+ * Something that pulls: a planet, a moon or an asteroid. Sources with a radius
+ * behave like a sphere of uniform density, the pull grows linearly from the
+ * center to the surface and falls off with the square of the distance outside.
+ */
+public class GravitySource {
+
+    private final Vector3f position = new Vector3f();
+    private float mass;
+    private float radius;
+
+    public GravitySource(Vector3f position, float mass, float radius) {
+        this.position.set(position);
+        this.mass = mass;
+        this.radius = radius;
+    }
+
+    /**
+     * Creates a sphere that pulls with the given acceleration at its surface,
+     * for a gravitational constant of 1.
+     */
+    public static GravitySource sphere(Vector3f position, float radius, float surfaceGravity) {
+        return new GravitySource(position, surfaceGravity * radius * radius, radius);
+    }
+
+    public Vector3f getPosition() {
+        return position;
+    }
+
+    /**
+     * Moves the source, the gravity system picks this up on the next tick.
+     */
+    public void setPosition(Vector3f position) {
+        this.position.set(position);
+    }
+
+    public float getMass() {
+        return mass;
+    }
+
+    public void setMass(float mass) {
+        this.mass = mass;
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    public void setRadius(float radius) {
+        this.radius = radius;
+    }
+}
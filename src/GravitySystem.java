@@ -0,0 +1,248 @@
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.dynamics.RigidBody;
+import com.bulletphysics.util.ObjectArrayList;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.PhysicsTickListener;
+import com.jme3.math.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Gravity of many planets, moons and asteroids. Every physics tick the
+ * sources are put into a Barnes-Hut {@link GravityOctree} and every active
+ * dynamic rigid body in the space gets the field at its location as its own
+ * gravity, so a tick costs O(n log n) instead of bodies times sources.<p>
+ *
+ * The body pass is batched: positions are read into primitive arrays, the
+ * fields are computed in one loop and then written back, so thousands of
+ * bodies do not cost a listener call each. The bodies are picked straight
+ * from the collision object array of the dynamics world, without the copy
+ * of every rigid body that PhysicsSpace.getRigidBodyList makes.
+ */
+public class GravitySystem implements PhysicsTickListener {
+
+    public enum Mode {
+
+        /**
+         * the sum of all sources
+         */
+        SUMMED,
+        /**
+         * only the source that pulls hardest, so bodies fall onto the planet
+         * they are closest to and are not dragged sideways by other planets
+         */
+        DOMINANT
+    }
+
+    private final List<GravitySource> sources = new ArrayList<GravitySource>();
+    private final GravityOctree octree = new GravityOctree();
+    private Mode mode = Mode.SUMMED;
+    private float gravitationalConstant = 1f;
+    private boolean dirty = true;
+
+    // batched body pass, grown as needed
+    private RigidBody[] bodies = new RigidBody[64];
+    private float[] bodyX = new float[64];
+    private float[] bodyY = new float[64];
+    private float[] bodyZ = new float[64];
+    private float[] fieldX = new float[64];
+    private float[] fieldY = new float[64];
+    private float[] fieldZ = new float[64];
+    private int bodyCount;
+
+    //TEMP VARIABLES
+    private final float[] acceleration = new float[3];
+    private final javax.vecmath.Vector3f tempLocation = new javax.vecmath.Vector3f();
+    private final javax.vecmath.Vector3f tempField = new javax.vecmath.Vector3f();
+
+    public void addSource(GravitySource source) {
+        sources.add(source);
+        dirty = true;
+    }
+
+    public void removeSource(GravitySource source) {
+        sources.remove(source);
+        dirty = true;
+    }
+
+    public List<GravitySource> getSources() {
+        return sources;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setGravitationalConstant(float gravitationalConstant) {
+        this.gravitationalConstant = gravitationalConstant;
+    }
+
+    public float getGravitationalConstant() {
+        return gravitationalConstant;
+    }
+
+    /**
+     * Opening angle of the Barnes-Hut approximation, 0 sums every source exactly.
+     */
+    public void setTheta(float theta) {
+        octree.setTheta(theta);
+    }
+
+    public GravityOctree getOctree() {
+        return octree;
+    }
+
+    /**
+     * Rebuilds the octree from the current source positions. Called once per
+     * physics tick, call it yourself after moving sources outside of a tick.
+     */
+    public void update() {
+        octree.clear();
+        for (int i = 0; i < sources.size(); i++) {
+            GravitySource source = sources.get(i);
+            Vector3f position = source.getPosition();
+            octree.addSource(position.x, position.y, position.z, source.getMass(), source.getRadius());
+        }
+        octree.build();
+        dirty = false;
+    }
+
+    /**
+     * @return the gravity acceleration at the location
+     */
+    public Vector3f getField(Vector3f location, Vector3f store) {
+        if (store == null) {
+            store = new Vector3f();
+        }
+        if (dirty) {
+            update();
+        }
+        fieldAt(location.x, location.y, location.z, acceleration);
+        return store.set(acceleration[0], acceleration[1], acceleration[2]);
+    }
+
+    /**
+     * Computes the fields at count positions in one go.
+     */
+    public void computeFields(float[] x, float[] y, float[] z, float[] outX, float[] outY, float[] outZ, int count) {
+        if (dirty) {
+            update();
+        }
+        float[] out = acceleration;
+        for (int i = 0; i < count; i++) {
+            fieldAt(x[i], y[i], z[i], out);
+            outX[i] = out[0];
+            outY[i] = out[1];
+            outZ[i] = out[2];
+        }
+    }
+
+    private void fieldAt(float x, float y, float z, float[] out) {
+        octree.accelerationAt(x, y, z, out);
+        int dominant = mode == Mode.DOMINANT ? octree.getDominantSource() : -1;
+        if (dominant >= 0) {
+            sourceField(sources.get(dominant), x, y, z, out);
+            return;
+        }
+        out[0] *= gravitationalConstant;
+        out[1] *= gravitationalConstant;
+        out[2] *= gravitationalConstant;
+    }
+
+    /**
+     * @return the source that pulls hardest at the location, null if there
+     * are no sources
+     */
+    public GravitySource getDominantSource(Vector3f location) {
+        if (dirty) {
+            update();
+        }
+        octree.accelerationAt(location.x, location.y, location.z, acceleration);
+        int dominant = octree.getDominantSource();
+        return dominant < 0 ? null : sources.get(dominant);
+    }
+
+    private void sourceField(GravitySource source, float x, float y, float z, float[] out) {
+        Vector3f position = source.getPosition();
+        float dx = position.x - x;
+        float dy = position.y - y;
+        float dz = position.z - z;
+        float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (distance == 0) {
+            out[0] = out[1] = out[2] = 0;
+            return;
+        }
+        float radius = source.getRadius();
+        float strength;
+        if (distance < radius) {
+            strength = source.getMass() * distance / (radius * radius * radius);
+        } else {
+            strength = source.getMass() / (distance * distance);
+        }
+        float scale = gravitationalConstant * strength / distance;
+        out[0] = dx * scale;
+        out[1] = dy * scale;
+        out[2] = dz * scale;
+    }
+
+    /**
+     * @return the number of bodies that got gravity in the last tick
+     */
+    public int getBodyCount() {
+        return bodyCount;
+    }
+
+    public void prePhysicsTick(PhysicsSpace space, float f) {
+        long start = TickMetrics.start();
+        update();
+        gatherBodies(space);
+        computeFields(bodyX, bodyY, bodyZ, fieldX, fieldY, fieldZ, bodyCount);
+        for (int i = 0; i < bodyCount; i++) {
+            tempField.set(fieldX[i], fieldY[i], fieldZ[i]);
+            bodies[i].setGravity(tempField);
+            bodies[i] = null;
+        }
+        TickMetrics.stop(TickMetrics.Metric.GRAVITY, start);
+    }
+
+    /**
+     * Reads the positions of all active dynamic bodies, sleeping bodies keep
+     * the gravity they had. Static bodies like the chunks cost one flag test.
+     */
+    private void gatherBodies(PhysicsSpace space) {
+        bodyCount = 0;
+        ObjectArrayList<CollisionObject> objects = space.getDynamicsWorld().getCollisionObjectArray();
+        for (int i = 0; i < objects.size(); i++) {
+            CollisionObject object = objects.getQuick(i);
+            if (object.isStaticOrKinematicObject() || !object.isActive() || !(object instanceof RigidBody)) {
+                continue;
+            }
+            RigidBody body = (RigidBody) object;
+            if (bodyCount == bodies.length) {
+                int size = bodyCount * 2;
+                bodies = Arrays.copyOf(bodies, size);
+                bodyX = Arrays.copyOf(bodyX, size);
+                bodyY = Arrays.copyOf(bodyY, size);
+                bodyZ = Arrays.copyOf(bodyZ, size);
+                fieldX = Arrays.copyOf(fieldX, size);
+                fieldY = Arrays.copyOf(fieldY, size);
+                fieldZ = Arrays.copyOf(fieldZ, size);
+            }
+            body.getCenterOfMassPosition(tempLocation);
+            bodies[bodyCount] = body;
+            bodyX[bodyCount] = tempLocation.x;
+            bodyY[bodyCount] = tempLocation.y;
+            bodyZ[bodyCount] = tempLocation.z;
+            bodyCount++;
+        }
+    }
+
+    public void physicsTick(PhysicsSpace space, float f) {
+    }
+}
@@ -0,0 +1,401 @@
+import com.bulletphysics.collision.broadphase.CollisionFilterGroups;
+import com.bulletphysics.collision.dispatch.CollisionFlags;
+import com.bulletphysics.collision.dispatch.PairCachingGhostObject;
+import com.bulletphysics.collision.shapes.CapsuleShape;
+import com.bulletphysics.linearmath.Transform;
+import com.jme3.app.SimpleApplication;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.PhysicsTickListener;
+import com.jme3.bullet.util.Converter;
+import com.jme3.material.Material;
+import com.jme3.math.Vector3f;
+import com.jme3.system.AppSettings;
+import com.jme3.system.JmeContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs the game's world without a window, for load tests on machines
+ * without a GPU. The planet is generated as in the game, then the physics
+ * space is stepped with a fixed time step as fast as it goes, while the
+ * player, a crowd of bots and cannon balls follow a {@link LoadProfile}. At
+ * the end the ticks per second, tick time percentiles and the peak heap are
+ * printed.<p>
+ *
+ * Usage: SuperMinecraftGalaxy --headless [radius=30] [bots=100] [balls=50]
+ * [ticks=1800] [threads=cores] [profile=ticks:bots:balls,...]<p>
+ *
+ * Without a profile, the player runs alone, then with half and then with all
+ * bots and balls, for the given number of ticks each.
+ */
+public class HeadlessSimulation extends SimpleApplication implements PhysicsTickListener {
+
+    /**
+     * seconds of one physics tick
+     */
+    public static final float STEP = 1f / 60f;
+    /**
+     * cannon balls fired per tick at most while the pool fills up
+     */
+    private static final int CANNON_BALLS_PER_TICK = 4;
+    private static final float PHYSICS_NEAR_DISTANCE = 40f;
+    private static final float PHYSICS_FAR_DISTANCE = 120f;
+    /**
+     * distance the player and bots walk per tick
+     */
+    private static final float PLAYER_SPEED = 0.3f;
+    private static final float BOT_SPEED = 0.15f;
+    /**
+     * chance per tick that a bot picks a new heading
+     */
+    private static final float BOT_TURN_CHANCE = 0.01f;
+
+    private final int radius;
+    private final LoadProfile profile;
+    private final int threads;
+
+    private final VoxelWorld world = new VoxelWorld();
+    private final GravitySystem gravitySystem = new GravitySystem();
+    private ForkJoinPool generatorPool;
+    private ForkJoinPool characterPool;
+    private PhysicsSpace space;
+    private CannonBallPool cannonBalls;
+    private PhysicsLodManager physicsLod;
+    private DanielCharacterControl player;
+    private CharacterManager botManager;
+    private final List<Bot> bots = new ArrayList<Bot>();
+    private final Random random = new Random(42);
+
+    private long[] tickNanos;
+    private int tick;
+    private int stage = -1;
+    private int stageEnd;
+    private long runStart;
+
+    //TEMP VARIABLES
+    private final Vector3f location = new Vector3f();
+    private final Vector3f field = new Vector3f();
+    private final Vector3f walk = new Vector3f();
+    private final Vector3f velocity = new Vector3f();
+    private final javax.vecmath.Vector3f botUp = new javax.vecmath.Vector3f();
+    private final javax.vecmath.Vector3f botWalk = new javax.vecmath.Vector3f();
+    private final javax.vecmath.Vector3f fireDirection = new javax.vecmath.Vector3f();
+    private final Transform botTransform = new Transform();
+
+    /**
+     * A walking character without a control, stepped by the bot manager. It
+     * sweeps against the bricks only and walks through cannon balls.
+     */
+    private static class Bot {
+
+        final PairCachingGhostObject ghost;
+        final DanielKinematicCharacterController controller;
+        final javax.vecmath.Vector3f heading = new javax.vecmath.Vector3f();
+
+        Bot(PairCachingGhostObject ghost, DanielKinematicCharacterController controller) {
+            this.ghost = ghost;
+            this.controller = controller;
+        }
+    }
+
+    public HeadlessSimulation(int radius, LoadProfile profile, int threads) {
+        this.radius = radius;
+        this.profile = profile;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) {
+        int radius = 30;
+        int bots = 100;
+        int balls = 50;
+        int ticks = 1800;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String profileText = null;
+        for (String arg : args) {
+            if (arg.equals("--headless")) {
+                continue;
+            }
+            int split = arg.indexOf('=');
+            if (split < 0) {
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            }
+            String name = arg.substring(0, split);
+            String value = arg.substring(split + 1);
+            if (name.equals("radius")) {
+                radius = Integer.parseInt(value);
+            } else if (name.equals("bots")) {
+                bots = Integer.parseInt(value);
+            } else if (name.equals("balls")) {
+                balls = Integer.parseInt(value);
+            } else if (name.equals("ticks")) {
+                ticks = Integer.parseInt(value);
+            } else if (name.equals("threads")) {
+                threads = Integer.parseInt(value);
+            } else if (name.equals("profile")) {
+                profileText = value;
+            } else {
+                throw new IllegalArgumentException("unknown option " + name);
+            }
+        }
+        LoadProfile profile = profileText != null ? LoadProfile.parse(profileText) : LoadProfile.ramp(ticks, bots, balls);
+
+        HeadlessSimulation app = new HeadlessSimulation(radius, profile, threads);
+        AppSettings settings = new AppSettings(true);
+        settings.setFrameRate(-1);
+        settings.setAudioRenderer(null);
+        app.setSettings(settings);
+        app.setShowSettings(false);
+        app.start(JmeContext.Type.Headless);
+    }
+
+    @Override
+    public void simpleInitApp() {
+        System.out.println("headless simulation: planet radius " + radius + ", profile " + profile
+                + " (ticks:bots:balls), " + threads + " threads");
+        space = new PhysicsSpace(new Vector3f(-10000f, -10000f, -10000f), new Vector3f(10000f, 10000f, 10000f),
+                PhysicsSpace.BroadphaseType.DBVT);
+        gravitySystem.addSource(GravitySource.sphere(Vector3f.ZERO, radius * VoxelWorld.BLOCK_SIZE, GameSetup.PLANET_SURFACE_GRAVITY));
+        TickMetrics.attach(space);
+        TickMetrics.registerMBean();
+        space.addTickListener(gravitySystem);
+        space.addTickListener(this);
+
+        buildPlanet();
+
+        Material material = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
+        cannonBalls = new CannonBallPool(rootNode, space, material, 0.4f, 1f,
+                Math.max(1, profile.getMaxCannonBalls()), GameSetup.CANNON_BALL_TIME_TO_LIVE);
+        physicsLod = new PhysicsLodManager(space, PHYSICS_NEAR_DISTANCE, PHYSICS_FAR_DISTANCE);
+        cannonBalls.setLodManager(physicsLod);
+
+        characterPool = new ForkJoinPool(threads);
+        botManager = new CharacterManager(characterPool);
+        space.getDynamicsWorld().addAction(botManager);
+        addPlayer();
+
+        tickNanos = new long[profile.getTotalTicks()];
+        runStart = System.nanoTime();
+    }
+
+    private void buildPlanet() {
+        generatorPool = new ForkJoinPool(threads);
+        PlanetGenerator planetGenerator = new PlanetGenerator(generatorPool);
+        long start = System.nanoTime();
+        VoxelWorldPhysics worldPhysics = new VoxelWorldPhysics(world, space);
+        GameSetup.buildPlanet(planetGenerator, world, worldPhysics, radius);
+        System.out.println("planet of " + world.getSolidCount() + " bricks and " + worldPhysics.getBodyCount()
+                + " chunk bodies built in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    private void addPlayer() {
+        player = GameSetup.addPlayer(space, new Vector3f(0, radius * VoxelWorld.BLOCK_SIZE + 6f, 0));
+    }
+
+    private void addBot() {
+        javax.vecmath.Vector3f direction = randomDirection(new javax.vecmath.Vector3f());
+        Transform transform = new Transform();
+        transform.setIdentity();
+        transform.origin.scale(radius * VoxelWorld.BLOCK_SIZE + 2f, direction);
+        CapsuleShape shape = new CapsuleShape(0.5f, 1f);
+        PairCachingGhostObject ghost = new PairCachingGhostObject();
+        ghost.setWorldTransform(transform);
+        ghost.setCollisionShape(shape);
+        ghost.setCollisionFlags(CollisionFlags.CHARACTER_OBJECT);
+        // the voxel sweep only reads blocks, so the bot manager steps bots in parallel
+        DanielKinematicCharacterController controller = new DanielKinematicCharacterController(ghost, shape, 0.35f, 1,
+                new VoxelCapsuleSweep(world));
+        controller.setRecoveryMode(DanielKinematicCharacterController.RecoveryMode.REUSE_CONTACTS);
+        controller.setUp(direction);
+        space.getDynamicsWorld().addCollisionObject(ghost, CollisionFilterGroups.CHARACTER_FILTER,
+                (short) (CollisionFilterGroups.STATIC_FILTER | CollisionFilterGroups.DEFAULT_FILTER));
+        botManager.add(controller);
+        Bot bot = new Bot(ghost, controller);
+        randomDirection(bot.heading);
+        bots.add(bot);
+    }
+
+    private void removeBot() {
+        Bot bot = bots.remove(bots.size() - 1);
+        botManager.remove(bot.controller);
+        space.getDynamicsWorld().removeCollisionObject(bot.ghost);
+    }
+
+    @Override
+    public void simpleUpdate(float tpf) {
+        if (tickNanos == null) {
+            return;
+        }
+        if (tick == tickNanos.length) {
+            report();
+            tickNanos = null;
+            stop();
+            return;
+        }
+        if (tick == stageEnd) {
+            startStage(stage + 1);
+        }
+        // one fixed tick per frame, whatever time the frame took
+        long metricsStart = TickMetrics.start();
+        long start = System.nanoTime();
+        fireCannonBalls(profile.getStages().get(stage).cannonBalls);
+        space.update(STEP, 0);
+        space.distributeEvents();
+        cannonBalls.update(STEP);
+        physicsLod.update(STEP, player.getPhysicsLocation());
+        tickNanos[tick++] = System.nanoTime() - start;
+        TickMetrics.stop(TickMetrics.Metric.SIMPLE_UPDATE, metricsStart);
+    }
+
+    private void startStage(int index) {
+        stage = index;
+        LoadProfile.Stage next = profile.getStages().get(index);
+        stageEnd += next.ticks;
+        while (bots.size() < next.bots) {
+            addBot();
+        }
+        while (bots.size() > next.bots) {
+            removeBot();
+        }
+        if (next.cannonBalls == 0) {
+            cannonBalls.clear();
+        } else {
+            cannonBalls.setMaxLive(next.cannonBalls);
+        }
+    }
+
+    /**
+     * Fires from above the player into random directions until the stage's
+     * number of balls is flying, a few per tick.
+     */
+    private void fireCannonBalls(int target) {
+        for (int i = 0; i < CANNON_BALLS_PER_TICK && cannonBalls.getLiveCount() < target; i++) {
+            player.getPhysicsLocation(location);
+            location.addLocal(player.getUpDirection().mult(8f));
+            randomDirection(fireDirection);
+            velocity.set(fireDirection.x, fireDirection.y, fireDirection.z).multLocal(GameSetup.CANNON_BALL_SPEED);
+            cannonBalls.fire(location, velocity);
+        }
+    }
+
+    // PhysicsTickListener interface
+    public void prePhysicsTick(PhysicsSpace space, float f) {
+        // the player walks straight on along the surface
+        Vector3f up = gravitySystem.getField(player.getPhysicsLocation(), field).normalizeLocal().negateLocal();
+        player.setUpDirection(up);
+        walk.set(Vector3f.UNIT_X).crossLocal(up);
+        if (walk.lengthSquared() < 0.01f) {
+            walk.set(Vector3f.UNIT_Z).crossLocal(up);
+        }
+        player.setWalkDirection(walk.normalizeLocal().multLocal(PLAYER_SPEED));
+
+        // bots wander around
+        for (int i = 0; i < bots.size(); i++) {
+            Bot bot = bots.get(i);
+            bot.ghost.getWorldTransform(botTransform);
+            Converter.convert(botTransform.origin, location);
+            gravitySystem.getField(location, field).normalizeLocal().negateLocal();
+            botUp.set(field.x, field.y, field.z);
+            bot.controller.setUp(botUp);
+            if (random.nextFloat() < BOT_TURN_CHANCE) {
+                randomDirection(bot.heading);
+            }
+            // the heading without its part along up
+            botWalk.scaleAdd(-bot.heading.dot(botUp), botUp, bot.heading);
+            if (botWalk.lengthSquared() < 0.01f) {
+                randomDirection(bot.heading);
+                botWalk.set(0, 0, 0);
+            } else {
+                botWalk.normalize();
+                botWalk.scale(BOT_SPEED);
+            }
+            bot.controller.setWalkDirection(botWalk);
+        }
+    }
+
+    // PhysicsTickListener interface
+    public void physicsTick(PhysicsSpace space, float f) {
+    }
+
+    private javax.vecmath.Vector3f randomDirection(javax.vecmath.Vector3f store) {
+        do {
+            store.set(random.nextFloat() * 2f - 1f, random.nextFloat() * 2f - 1f, random.nextFloat() * 2f - 1f);
+        } while (store.lengthSquared() > 1f || store.lengthSquared() < 0.01f);
+        store.normalize();
+        return store;
+    }
+
+    private void report() {
+        double seconds = (System.nanoTime() - runStart) / 1e9;
+        long total = 0;
+        for (long nanos : tickNanos) {
+            total += nanos;
+        }
+        System.out.println();
+        System.out.printf("%d ticks in %.1f s, %.0f ticks/s, %.0f ticks/s of simulation alone (%.1fx real time)%n",
+                tickNanos.length, seconds, tickNanos.length / seconds, tickNanos.length / (total / 1e9),
+                tickNanos.length * STEP / (total / 1e9));
+        System.out.println("stage            ticks/s   p50 ms   p90 ms   p99 ms   max ms");
+        int from = 0;
+        for (LoadProfile.Stage entry : profile.getStages()) {
+            printPercentiles(entry.toString(), from, from + entry.ticks);
+            from += entry.ticks;
+        }
+        printPercentiles("all", 0, tickNanos.length);
+        System.out.printf("peak heap %.1f MB of %.1f MB, %d rigid bodies, %d cannon balls created, %d recycled, %d frozen%n",
+                peakHeap() / 1048576.0, Runtime.getRuntime().maxMemory() / 1048576.0, space.getRigidBodyList().size(),
+                cannonBalls.getCreatedCount(), cannonBalls.getRecycledCount(), physicsLod.getFrozenCount());
+        if (TickMetrics.isEnabled()) {
+            System.out.println();
+            System.out.print(TickMetrics.report());
+        }
+    }
+
+    private void printPercentiles(String name, int from, int to) {
+        long[] sorted = Arrays.copyOfRange(tickNanos, from, to);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long nanos : sorted) {
+            total += nanos;
+        }
+        System.out.printf("%-15s %8.0f %8.3f %8.3f %8.3f %8.3f%n", name, sorted.length / (total / 1e9),
+                percentile(sorted, 0.5) / 1e6, percentile(sorted, 0.9) / 1e6, percentile(sorted, 0.99) / 1e6,
+                sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * @return the sum of the peak usages of the heap pools since the JVM
+     * started, an upper bound of the peak heap
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    @Override
+    public void destroy() {
+        if (characterPool != null) {
+            characterPool.shutdownNow();
+        }
+        if (generatorPool != null) {
+            generatorPool.shutdownNow();
+        }
+        super.destroy();
+    }
+}
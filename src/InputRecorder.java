@@ -0,0 +1,104 @@
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes a play session into a compact binary log that {@link InputReplayer}
+ * feeds back into the game. The log starts with a header and then holds one
+ * record per input event and per frame:
+ * <pre>
+ * header: MAGIC, VERSION, planet radius
+ * event:  one byte, EVENT | action index &lt;&lt; 1 | pressed
+ * frame:  FRAME, tpf, camera rotation (4 floats), physics ticks of the
+ *         frame, player location after them (3 floats)
+ * END
+ * </pre>
+ * Events belong to the frame record that follows them. Everything the game
+ * reads from the input and the clock is in the log, the player location is
+ * only kept to compare the replayed trajectory against.
+ */
+public class InputRecorder {
+
+    static final int MAGIC = 0x534d4752;
+    static final int VERSION = 2;
+    static final int END = 0;
+    static final int FRAME = 1;
+    static final int EVENT = 0x80;
+
+    /**
+     * the actions the game listens to, their index is what goes into the log
+     */
+    static final String[] ACTIONS = {"Lefts", "Rights", "Ups", "Downs", "Jumps", "shoot", "dig", "place"};
+
+    private final DataOutputStream out;
+    private int frames;
+    private int events;
+
+    public InputRecorder(File file, int planetRadius) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(planetRadius);
+    }
+
+    /**
+     * Records an action as the game's listeners got it, actions the log
+     * does not know are ignored.
+     */
+    public void action(String binding, boolean value) throws IOException {
+        int index = indexOf(binding);
+        if (index < 0) {
+            return;
+        }
+        out.writeByte(EVENT | index << 1 | (value ? 1 : 0));
+        events++;
+    }
+
+    /**
+     * Ends the frame the recorded events belong to.
+     *
+     * @param tpf the frame time the game and the physics got
+     * @param cameraRotation the rotation simpleUpdate took its directions from
+     * @param physicsTicks physics ticks the frame ran
+     */
+    public void frame(float tpf, Quaternion cameraRotation, int physicsTicks, Vector3f playerLocation) throws IOException {
+        out.writeByte(FRAME);
+        out.writeFloat(tpf);
+        out.writeFloat(cameraRotation.getX());
+        out.writeFloat(cameraRotation.getY());
+        out.writeFloat(cameraRotation.getZ());
+        out.writeFloat(cameraRotation.getW());
+        out.writeByte(physicsTicks);
+        out.writeFloat(playerLocation.x);
+        out.writeFloat(playerLocation.y);
+        out.writeFloat(playerLocation.z);
+        frames++;
+    }
+
+    public void close() throws IOException {
+        out.writeByte(END);
+        out.close();
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    public int getEvents() {
+        return events;
+    }
+
+    static int indexOf(String binding) {
+        for (int i = 0; i < ACTIONS.length; i++) {
+            if (ACTIONS[i].equals(binding)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,131 @@
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads a log written by {@link InputRecorder} back one frame at a time.
+ * After {@link #nextFrame} the events of that frame and its frame record can
+ * be read, the replaying game hands the events to its listeners and uses the
+ * recorded frame time and camera rotation instead of its own.
+ */
+public class InputReplayer {
+
+    private final DataInputStream in;
+    private final int planetRadius;
+    private int frame = -1;
+
+    private String[] eventBindings = new String[8];
+    private boolean[] eventValues = new boolean[8];
+    private int eventCount;
+
+    private float tpf;
+    private final Quaternion cameraRotation = new Quaternion();
+    private int physicsTicks;
+    private final Vector3f playerLocation = new Vector3f();
+
+    public InputReplayer(File file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        if (in.readInt() != InputRecorder.MAGIC) {
+            in.close();
+            throw new IOException(file + " is not a recorded session");
+        }
+        int version = in.readByte();
+        if (version != InputRecorder.VERSION) {
+            in.close();
+            throw new IOException(file + " has version " + version + ", expected " + InputRecorder.VERSION);
+        }
+        planetRadius = in.readInt();
+    }
+
+    /**
+     * Reads the events and the record of the next frame.
+     *
+     * @return false at the end of the log
+     */
+    public boolean nextFrame() throws IOException {
+        eventCount = 0;
+        while (true) {
+            int tag;
+            try {
+                tag = in.readUnsignedByte();
+            } catch (EOFException e) {
+                // a session the game did not close properly, keep what is there
+                return false;
+            }
+            if (tag == InputRecorder.END) {
+                return false;
+            }
+            if (tag == InputRecorder.FRAME) {
+                tpf = in.readFloat();
+                cameraRotation.set(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+                physicsTicks = in.readUnsignedByte();
+                playerLocation.set(in.readFloat(), in.readFloat(), in.readFloat());
+                frame++;
+                return true;
+            }
+            if ((tag & InputRecorder.EVENT) == 0 || (tag & 0x7f) >> 1 >= InputRecorder.ACTIONS.length) {
+                throw new IOException("unknown record " + tag + " after frame " + frame);
+            }
+            if (eventCount == eventBindings.length) {
+                eventBindings = Arrays.copyOf(eventBindings, eventCount * 2);
+                eventValues = Arrays.copyOf(eventValues, eventCount * 2);
+            }
+            eventBindings[eventCount] = InputRecorder.ACTIONS[(tag & 0x7f) >> 1];
+            eventValues[eventCount] = (tag & 1) != 0;
+            eventCount++;
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    public int getPlanetRadius() {
+        return planetRadius;
+    }
+
+    /**
+     * @return index of the current frame, -1 before the first
+     */
+    public int getFrame() {
+        return frame;
+    }
+
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    public String getEventBinding(int index) {
+        return eventBindings[index];
+    }
+
+    public boolean getEventValue(int index) {
+        return eventValues[index];
+    }
+
+    public float getTimePerFrame() {
+        return tpf;
+    }
+
+    public Quaternion getCameraRotation() {
+        return cameraRotation;
+    }
+
+    public int getPhysicsTicks() {
+        return physicsTicks;
+    }
+
+    /**
+     * @return where the player was in the recorded frame
+     */
+    public Vector3f getPlayerLocation() {
+        return playerLocation;
+    }
+}
@@ -0,0 +1,87 @@
+import com.jme3.math.Vector3f;
+
+import java.nio.ByteBuffer;
+
+/**
+ * What a client's player wants to do, built from the same actions as the
+ * game's onAction. Held keys are sent as flags. Jumps and shots are counted,
+ * so an input packet that gets lost does not lose one, the server acts on
+ * the difference to the last count it saw.
+ */
+public class InputState {
+
+    private static final int LEFT = 1;
+    private static final int RIGHT = 2;
+    private static final int UP = 4;
+    private static final int DOWN = 8;
+    /**
+     * view directions are sent as shorts of this many units per 1
+     */
+    private static final float DIRECTION_SCALE = 32767f;
+
+    public boolean left;
+    public boolean right;
+    public boolean up;
+    public boolean down;
+    public int jumps;
+    public int shots;
+    public final Vector3f viewDirection = new Vector3f(0, 0, -1);
+
+    /**
+     * Applies an action like SuperMinecraftGalaxy.onAction and its shoot
+     * listener do.
+     */
+    public void onAction(String binding, boolean value) {
+        if (binding.equals("Lefts")) {
+            left = value;
+        } else if (binding.equals("Rights")) {
+            right = value;
+        } else if (binding.equals("Ups")) {
+            up = value;
+        } else if (binding.equals("Downs")) {
+            down = value;
+        } else if (binding.equals("Jumps") && value) {
+            jumps++;
+        } else if (binding.equals("shoot") && !value) {
+            shots++;
+        }
+    }
+
+    public void set(InputState other) {
+        left = other.left;
+        right = other.right;
+        up = other.up;
+        down = other.down;
+        jumps = other.jumps;
+        shots = other.shots;
+        viewDirection.set(other.viewDirection);
+    }
+
+    public void write(ByteBuffer out) {
+        int flags = (left ? LEFT : 0) | (right ? RIGHT : 0) | (up ? UP : 0) | (down ? DOWN : 0);
+        out.put((byte) flags);
+        out.put((byte) jumps);
+        out.put((byte) shots);
+        out.putShort(quantize(viewDirection.x));
+        out.putShort(quantize(viewDirection.y));
+        out.putShort(quantize(viewDirection.z));
+    }
+
+    /**
+     * Reads the state, the counters only keep their lowest byte.
+     */
+    public void read(ByteBuffer in) {
+        int flags = in.get();
+        left = (flags & LEFT) != 0;
+        right = (flags & RIGHT) != 0;
+        up = (flags & UP) != 0;
+        down = (flags & DOWN) != 0;
+        jumps = in.get() & 0xff;
+        shots = in.get() & 0xff;
+        viewDirection.set(in.getShort() / DIRECTION_SCALE, in.getShort() / DIRECTION_SCALE, in.getShort() / DIRECTION_SCALE);
+    }
+
+    private static short quantize(float value) {
+        return (short) Math.round(Math.max(-1f, Math.min(1f, value)) * DIRECTION_SCALE);
+    }
+}
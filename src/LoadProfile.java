@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A scripted load for a {@link HeadlessSimulation}: stages of a number of
+ * fixed ticks, each with how many bots walk around and how many cannon balls
+ * are kept flying. Written as "ticks:bots:balls" stages separated by commas,
+ * e.g. "600:0:0,1800:50:20,1800:200:100".
+ */
+public class LoadProfile {
+
+    public static class Stage {
+
+        public final int ticks;
+        public final int bots;
+        public final int cannonBalls;
+
+        public Stage(int ticks, int bots, int cannonBalls) {
+            if (ticks <= 0 || bots < 0 || cannonBalls < 0) {
+                throw new IllegalArgumentException("bad stage " + ticks + ":" + bots + ":" + cannonBalls);
+            }
+            this.ticks = ticks;
+            this.bots = bots;
+            this.cannonBalls = cannonBalls;
+        }
+
+        @Override
+        public String toString() {
+            return ticks + ":" + bots + ":" + cannonBalls;
+        }
+    }
+
+    private final List<Stage> stages;
+
+    public LoadProfile(List<Stage> stages) {
+        if (stages.isEmpty()) {
+            throw new IllegalArgumentException("a load profile needs a stage");
+        }
+        this.stages = Collections.unmodifiableList(new ArrayList<Stage>(stages));
+    }
+
+    public static LoadProfile parse(String text) {
+        List<Stage> stages = new ArrayList<Stage>();
+        for (String stage : text.split(",")) {
+            String[] fields = stage.trim().split(":");
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("stage is not ticks:bots:balls: " + stage);
+            }
+            stages.add(new Stage(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2])));
+        }
+        return new LoadProfile(stages);
+    }
+
+    /**
+     * The player alone, then half and then all of the bots and cannon balls,
+     * every stage lasting the given number of ticks.
+     */
+    public static LoadProfile ramp(int ticks, int bots, int cannonBalls) {
+        List<Stage> stages = new ArrayList<Stage>();
+        stages.add(new Stage(ticks, 0, 0));
+        stages.add(new Stage(ticks, bots / 2, cannonBalls / 2));
+        stages.add(new Stage(ticks, bots, cannonBalls));
+        return new LoadProfile(stages);
+    }
+
+    public List<Stage> getStages() {
+        return stages;
+    }
+
+    public int getTotalTicks() {
+        int total = 0;
+        for (Stage stage : stages) {
+            total += stage.ticks;
+        }
+        return total;
+    }
+
+    public int getMaxCannonBalls() {
+        int max = 0;
+        for (Stage stage : stages) {
+            max = Math.max(max, stage.cannonBalls);
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Stage stage : stages) {
+            if (text.length() > 0) {
+                text.append(',');
+            }
+            text.append(stage);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,68 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Packet types and the variable length integers shared by
+ * {@link GameServer} and {@link GameClient}. Every datagram starts with its
+ * type byte.<p>
+ *
+ * <ul>
+ * <li>HELLO: client asks to join, sent until a WELCOME arrives</li>
+ * <li>WELCOME: player entity id of the client</li>
+ * <li>INPUT: {@link InputState} of the client, with the last snapshot tick
+ * it received</li>
+ * <li>SNAPSHOT: {@link SnapshotCodec} encoded transforms</li>
+ * <li>BYE: client leaves</li>
+ * </ul>
+ */
+public class NetworkProtocol {
+
+    public static final byte HELLO = 1;
+    public static final byte WELCOME = 2;
+    public static final byte INPUT = 3;
+    public static final byte SNAPSHOT = 4;
+    public static final byte BYE = 5;
+
+    /**
+     * largest UDP payload, snapshots of crowded planets are fragmented by IP
+     */
+    public static final int MAX_PACKET = 65507;
+
+    private NetworkProtocol() {
+    }
+
+    /**
+     * Writes an unsigned int in 7 bit groups, small values take one byte.
+     */
+    public static void writeVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    public static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed var int");
+    }
+
+    /**
+     * Writes a signed int zigzag encoded, small values of either sign take
+     * one byte.
+     */
+    public static void writeSignedVarInt(ByteBuffer out, int value) {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    public static int readSignedVarInt(ByteBuffer in) {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,290 @@
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.objects.PhysicsRigidBody;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simulates dynamic bodies by their distance to a focus point, usually the
+ * player, so the cost of a physics tick follows the neighbourhood of the
+ * player and not the size of the world.<p>
+ *
+ * Bodies closer than the near distance are simulated as usual. Between the
+ * near and the far distance their sleeping thresholds are raised, so they
+ * come to rest and drop out of the simulation much sooner. Bodies beyond the
+ * far distance are taken out of the physics space with their location,
+ * rotation and velocities saved, and are put back unchanged once the focus
+ * comes close again. Static and kinematic bodies are left alone.<p>
+ *
+ * Call {@link #update(float, Vector3f)} once per frame from the render
+ * thread, bodies can not be added or removed during a physics tick. Code
+ * that removes a body for good has to {@link #forget(PhysicsRigidBody)} it,
+ * otherwise a frozen body would come back.
+ */
+public class PhysicsLodManager {
+
+    public enum Tier {
+
+        NEAR, MID, FAR
+    }
+
+    private final PhysicsSpace space;
+    private float nearDistance;
+    private float farDistance;
+    /**
+     * a body has to be this much closer than a tier boundary to move back
+     * into the closer tier, so it does not flicker between tiers
+     */
+    private float hysteresis = 5f;
+    private float midSleepingScale = 4f;
+    private float updateInterval = 0.25f;
+    private float sinceUpdate = Float.MAX_VALUE;
+    private int pass;
+
+    private final Map<PhysicsRigidBody, Entry> entries = new IdentityHashMap<PhysicsRigidBody, Entry>();
+    private final List<Entry> frozen = new ArrayList<Entry>();
+    private final List<Entry> toFreeze = new ArrayList<Entry>();
+    private int nearCount;
+    private int midCount;
+
+    private static class Entry {
+
+        final PhysicsRigidBody body;
+        final float linearThreshold;
+        final float angularThreshold;
+        Tier tier = Tier.NEAR;
+        int seen;
+        // state while frozen
+        final Vector3f location = new Vector3f();
+        final Quaternion rotation = new Quaternion();
+        final Vector3f linearVelocity = new Vector3f();
+        final Vector3f angularVelocity = new Vector3f();
+        boolean active;
+
+        Entry(PhysicsRigidBody body) {
+            this.body = body;
+            linearThreshold = body.getLinearSleepingThreshold();
+            angularThreshold = body.getAngularSleepingThreshold();
+        }
+    }
+
+    //TEMP VARIABLES
+    private final Vector3f tempLocation = new Vector3f();
+
+    public PhysicsLodManager(PhysicsSpace space, float nearDistance, float farDistance) {
+        if (nearDistance > farDistance) {
+            throw new IllegalArgumentException("near distance " + nearDistance + " is beyond far distance " + farDistance);
+        }
+        this.space = space;
+        this.nearDistance = nearDistance;
+        this.farDistance = farDistance;
+    }
+
+    /**
+     * Moves bodies between the tiers, at most once per update interval.
+     *
+     * @param focus usually the location of the player
+     */
+    public void update(float tpf, Vector3f focus) {
+        sinceUpdate += tpf;
+        if (sinceUpdate < updateInterval) {
+            return;
+        }
+        sinceUpdate = 0;
+        pass++;
+        nearCount = 0;
+        midCount = 0;
+        for (PhysicsRigidBody body : space.getRigidBodyList()) {
+            if (body.getMass() == 0 || body.isKinematic()) {
+                continue;
+            }
+            Entry entry = entries.get(body);
+            if (entry == null) {
+                entry = new Entry(body);
+                entries.put(body, entry);
+            }
+            entry.seen = pass;
+            float distance = body.getPhysicsLocation(tempLocation).distance(focus);
+            Tier tier = classify(entry.tier, distance);
+            if (tier == Tier.FAR) {
+                // the space's body list must not change while we walk it
+                toFreeze.add(entry);
+                continue;
+            }
+            if (tier != entry.tier) {
+                setTier(entry, tier);
+            }
+            if (tier == Tier.NEAR) {
+                nearCount++;
+            } else {
+                midCount++;
+            }
+        }
+        for (int i = 0; i < toFreeze.size(); i++) {
+            freeze(toFreeze.get(i));
+        }
+        toFreeze.clear();
+        updateFrozen(focus);
+        // forget bodies that were removed from the space by someone else
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            if (entry.seen != pass && entry.tier != Tier.FAR) {
+                it.remove();
+            }
+        }
+    }
+
+    private Tier classify(Tier current, float distance) {
+        float far = current == Tier.FAR ? farDistance - hysteresis : farDistance;
+        float near = current == Tier.NEAR ? nearDistance : nearDistance - hysteresis;
+        if (distance > far) {
+            return Tier.FAR;
+        }
+        return distance > near ? Tier.MID : Tier.NEAR;
+    }
+
+    private void setTier(Entry entry, Tier tier) {
+        if (tier == Tier.MID) {
+            entry.body.setSleepingThresholds(entry.linearThreshold * midSleepingScale,
+                    entry.angularThreshold * midSleepingScale);
+        } else {
+            entry.body.setSleepingThresholds(entry.linearThreshold, entry.angularThreshold);
+        }
+        entry.tier = tier;
+    }
+
+    private void freeze(Entry entry) {
+        PhysicsRigidBody body = entry.body;
+        setTier(entry, Tier.FAR);
+        body.getPhysicsLocation(entry.location);
+        body.getPhysicsRotation(entry.rotation);
+        body.getLinearVelocity(entry.linearVelocity);
+        body.getAngularVelocity(entry.angularVelocity);
+        entry.active = body.isActive();
+        space.remove(body);
+        frozen.add(entry);
+    }
+
+    private void updateFrozen(Vector3f focus) {
+        for (int i = frozen.size() - 1; i >= 0; i--) {
+            Entry entry = frozen.get(i);
+            boolean restore;
+            if (entry.body.getObjectId().isInWorld()) {
+                // someone else added the body again, e.g. a pool reused it
+                restore = false;
+            } else if (classify(Tier.FAR, entry.location.distance(focus)) != Tier.FAR) {
+                restore = true;
+            } else {
+                continue;
+            }
+            frozen.set(i, frozen.get(frozen.size() - 1));
+            frozen.remove(frozen.size() - 1);
+            if (restore) {
+                thaw(entry);
+            } else {
+                setTier(entry, Tier.NEAR);
+                entries.remove(entry.body);
+            }
+        }
+    }
+
+    /**
+     * Stops managing the body. A frozen body stays out of the space and gets
+     * its sleeping thresholds back.
+     */
+    public void forget(PhysicsRigidBody body) {
+        Entry entry = entries.remove(body);
+        if (entry == null) {
+            return;
+        }
+        if (entry.tier == Tier.FAR) {
+            frozen.remove(entry);
+        }
+        setTier(entry, Tier.NEAR);
+    }
+
+    private void thaw(Entry entry) {
+        PhysicsRigidBody body = entry.body;
+        setTier(entry, Tier.MID);
+        entry.seen = pass;
+        space.add(body);
+        body.setPhysicsLocation(entry.location);
+        body.setPhysicsRotation(entry.rotation);
+        body.setLinearVelocity(entry.linearVelocity);
+        body.setAngularVelocity(entry.angularVelocity);
+        if (entry.active) {
+            body.activate();
+        }
+    }
+
+    /**
+     * Puts every frozen body back into the space, e.g. before saving.
+     */
+    public void restoreAll() {
+        for (int i = 0; i < frozen.size(); i++) {
+            Entry entry = frozen.get(i);
+            if (entry.body.getObjectId().isInWorld()) {
+                setTier(entry, Tier.NEAR);
+            } else {
+                thaw(entry);
+            }
+        }
+        frozen.clear();
+    }
+
+    public Tier getTier(PhysicsRigidBody body) {
+        Entry entry = entries.get(body);
+        return entry == null ? Tier.NEAR : entry.tier;
+    }
+
+    public int getNearCount() {
+        return nearCount;
+    }
+
+    public int getMidCount() {
+        return midCount;
+    }
+
+    public int getFrozenCount() {
+        return frozen.size();
+    }
+
+    public void setDistances(float nearDistance, float farDistance) {
+        if (nearDistance > farDistance) {
+            throw new IllegalArgumentException("near distance " + nearDistance + " is beyond far distance " + farDistance);
+        }
+        this.nearDistance = nearDistance;
+        this.farDistance = farDistance;
+    }
+
+    public float getNearDistance() {
+        return nearDistance;
+    }
+
+    public float getFarDistance() {
+        return farDistance;
+    }
+
+    public void setHysteresis(float hysteresis) {
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * @param scale factor on the sleeping thresholds of mid range bodies
+     */
+    public void setMidSleepingScale(float scale) {
+        this.midSleepingScale = scale;
+    }
+
+    /**
+     * @param interval seconds between two passes over the bodies
+     */
+    public void setUpdateInterval(float interval) {
+        this.updateInterval = interval;
+    }
+}
@@ -0,0 +1,297 @@
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.bullet.collision.shapes.MeshCollisionShape;
+import com.jme3.scene.Mesh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fills planets into a {@link VoxelWorld} on a fork-join pool. The bounding
+ * cube of a planet is split into columns of chunks along y, every column is
+ * written by exactly one task so no two tasks touch the same chunk.<p>
+ *
+ * None of this touches the scene graph or the physics space, the results of
+ * {@link #buildChunks(VoxelWorld)} have to be attached on the render thread.
+ */
+public class PlanetGenerator {
+
+    /**
+     * Called from worker threads whenever a unit of work is finished.
+     */
+    public interface ProgressListener {
+
+        public void onProgress(String stage, int done, int total);
+    }
+
+    /**
+     * Mesh and collision shape of one chunk, built off the render thread.
+     */
+    public static class ChunkBuild {
+
+        public final Chunk chunk;
+        public final Mesh mesh;
+        public final CollisionShape shape;
+
+        public ChunkBuild(Chunk chunk, Mesh mesh, CollisionShape shape) {
+            this.chunk = chunk;
+            this.mesh = mesh;
+            this.shape = shape;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private ProgressListener progressListener;
+
+    private final ThreadLocal<ChunkMesher> meshers = new ThreadLocal<ChunkMesher>() {
+        @Override
+        protected ChunkMesher initialValue() {
+            return new ChunkMesher();
+        }
+    };
+
+    public PlanetGenerator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Fills a spherical shell: every block whose center lies between the
+     * inner and outer radius. For each (x, z) column only the y ranges inside
+     * the shell are visited, so the work scales with the shell volume and not
+     * with the bounding cube. Blocks until the planet is written.
+     *
+     * @param centerX block coordinate of the sphere center
+     * @param innerRadius in blocks, 0 for a solid ball
+     * @param outerRadius in blocks
+     */
+    public void generateShell(VoxelWorld world, int centerX, int centerY, int centerZ, float innerRadius, float outerRadius) {
+        if (innerRadius > outerRadius) {
+            throw new IllegalArgumentException("inner radius " + innerRadius + " is larger than outer radius " + outerRadius);
+        }
+        int extent = (int) Math.ceil(outerRadius);
+        ShellTask task = new ShellTask(world, centerX, centerY, centerZ, innerRadius, outerRadius);
+        task.minChunkX = (centerX - extent) >> Chunk.SHIFT;
+        task.minChunkZ = (centerZ - extent) >> Chunk.SHIFT;
+        task.columnsX = ((centerX + extent) >> Chunk.SHIFT) - task.minChunkX + 1;
+        task.end = task.columnsX * (((centerZ + extent) >> Chunk.SHIFT) - task.minChunkZ + 1);
+        task.total = task.end;
+        task.done = new AtomicInteger();
+        pool.invoke(task);
+    }
+
+    /**
+     * Fills a range of chunk columns, splitting itself until one column is left.
+     */
+    @SuppressWarnings("serial")
+    private class ShellTask extends RecursiveAction {
+
+        final VoxelWorld world;
+        final int centerX;
+        final int centerY;
+        final int centerZ;
+        final float innerRadius;
+        final float outerRadius;
+        int minChunkX;
+        int minChunkZ;
+        int columnsX;
+        int start;
+        int end;
+        int total;
+        AtomicInteger done;
+
+        ShellTask(VoxelWorld world, int centerX, int centerY, int centerZ, float innerRadius, float outerRadius) {
+            this.world = world;
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.centerZ = centerZ;
+            this.innerRadius = innerRadius;
+            this.outerRadius = outerRadius;
+        }
+
+        ShellTask split(int start, int end) {
+            ShellTask task = new ShellTask(world, centerX, centerY, centerZ, innerRadius, outerRadius);
+            task.minChunkX = minChunkX;
+            task.minChunkZ = minChunkZ;
+            task.columnsX = columnsX;
+            task.start = start;
+            task.end = end;
+            task.total = total;
+            task.done = done;
+            return task;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > 1) {
+                int mid = (start + end) >>> 1;
+                invokeAll(split(start, mid), split(mid, end));
+                return;
+            }
+            int chunkX = minChunkX + start % columnsX;
+            int chunkZ = minChunkZ + start / columnsX;
+            fillColumn(chunkX, chunkZ);
+            int finished = done.incrementAndGet();
+            if (progressListener != null) {
+                progressListener.onProgress("generating", finished, total);
+            }
+        }
+
+        private void fillColumn(int chunkX, int chunkZ) {
+            fillShellColumn(world, chunkX, chunkZ, Integer.MIN_VALUE, Integer.MAX_VALUE,
+                    centerX, centerY, centerZ, innerRadius, outerRadius);
+        }
+    }
+
+    /**
+     * Fills the part of a spherical shell that lies in one chunk, like
+     * {@link #generateShell} does for the whole planet. Runs on the calling
+     * thread, chunks the shell misses are not created.
+     *
+     * @return true if the chunk got any blocks
+     */
+    public boolean generateShellChunk(VoxelWorld world, int chunkX, int chunkY, int chunkZ,
+                                      int centerX, int centerY, int centerZ, float innerRadius, float outerRadius) {
+        int minY = chunkY << Chunk.SHIFT;
+        int maxY = minY + Chunk.MASK;
+        // distances from the center to the nearest and farthest point of the chunk
+        double near2 = 0;
+        double far2 = 0;
+        int[] min = {chunkX << Chunk.SHIFT, minY, chunkZ << Chunk.SHIFT};
+        int[] center = {centerX, centerY, centerZ};
+        for (int axis = 0; axis < 3; axis++) {
+            double low = min[axis] - center[axis];
+            double high = low + Chunk.MASK;
+            double near = low > 0 ? low : high < 0 ? -high : 0;
+            double far = Math.max(Math.abs(low), Math.abs(high));
+            near2 += near * near;
+            far2 += far * far;
+        }
+        if (near2 > (double) outerRadius * outerRadius || far2 < (double) innerRadius * innerRadius) {
+            return false;
+        }
+        fillShellColumn(world, chunkX, chunkZ, minY, maxY, centerX, centerY, centerZ, innerRadius, outerRadius);
+        Chunk chunk = world.getChunk(chunkX, chunkY, chunkZ);
+        return chunk != null && !chunk.isEmpty();
+    }
+
+    /**
+     * Fills the blocks of the shell in one column of chunks, between minY and
+     * maxY inclusive.
+     */
+    private static void fillShellColumn(VoxelWorld world, int chunkX, int chunkZ, int minY, int maxY,
+                                        int centerX, int centerY, int centerZ, float innerRadius, float outerRadius) {
+        double outer2 = (double) outerRadius * outerRadius;
+        double inner2 = (double) innerRadius * innerRadius;
+        int minX = chunkX << Chunk.SHIFT;
+        int minZ = chunkZ << Chunk.SHIFT;
+        for (int z = minZ; z < minZ + Chunk.SIZE; z++) {
+            long dz = z - centerZ;
+            for (int x = minX; x < minX + Chunk.SIZE; x++) {
+                long dx = x - centerX;
+                long column2 = dx * dx + dz * dz;
+                if (column2 > outer2) {
+                    continue;
+                }
+                // |dy| <= top keeps the block inside the outer radius
+                int top = floorSqrt(outer2 - column2);
+                if (column2 >= inner2) {
+                    fillRun(world, x, Math.max(minY, centerY - top), Math.min(maxY, centerY + top), z);
+                } else {
+                    // |dy| >= bottom keeps the block outside the inner radius
+                    int bottom = ceilSqrt(inner2 - column2);
+                    if (bottom <= top) {
+                        fillRun(world, x, Math.max(minY, centerY - top), Math.min(maxY, centerY - bottom), z);
+                        fillRun(world, x, Math.max(minY, centerY + bottom), Math.min(maxY, centerY + top), z);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the largest integer d with d * d <= value
+     */
+    private static int floorSqrt(double value) {
+        int d = (int) Math.sqrt(value);
+        while ((double) (d + 1) * (d + 1) <= value) {
+            d++;
+        }
+        while (d > 0 && (double) d * d > value) {
+            d--;
+        }
+        return d;
+    }
+
+    /**
+     * @return the smallest integer d with d * d >= value
+     */
+    private static int ceilSqrt(double value) {
+        int d = floorSqrt(value);
+        return (double) d * d < value ? d + 1 : d;
+    }
+
+    /**
+     * Sets blocks x, fromY to toY inclusive, z to brick, one chunk at a time.
+     */
+    private static void fillRun(VoxelWorld world, int x, int fromY, int toY, int z) {
+        int y = fromY;
+        while (y <= toY) {
+            Chunk chunk = world.getOrCreateChunk(x >> Chunk.SHIFT, y >> Chunk.SHIFT, z >> Chunk.SHIFT);
+            int last = Math.min(toY, (y | Chunk.MASK));
+            for (; y <= last; y++) {
+                chunk.setBlock(x & Chunk.MASK, y & Chunk.MASK, z & Chunk.MASK, VoxelWorld.BRICK);
+            }
+        }
+    }
+
+    /**
+     * Meshes every chunk of the world in parallel and builds its collision
+     * shape. Blocks until all chunks are done. The world must not be written
+     * while this runs.
+     */
+    public List<ChunkBuild> buildChunks(final VoxelWorld world) {
+        final List<Chunk> chunks = new ArrayList<Chunk>(world.getChunks());
+        final ChunkBuild[] builds = new ChunkBuild[chunks.size()];
+        final AtomicInteger done = new AtomicInteger();
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(chunks.size());
+                for (int i = 0; i < chunks.size(); i++) {
+                    final int index = i;
+                    tasks.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            builds[index] = buildChunk(world, chunks.get(index));
+                            if (progressListener != null) {
+                                progressListener.onProgress("meshing", done.incrementAndGet(), builds.length);
+                            }
+                        }
+                    });
+                }
+                invokeAll(tasks);
+            }
+        });
+        List<ChunkBuild> result = new ArrayList<ChunkBuild>(builds.length);
+        for (ChunkBuild build : builds) {
+            result.add(build);
+        }
+        return result;
+    }
+
+    /**
+     * Meshes a single chunk on the calling thread.
+     */
+    public ChunkBuild buildChunk(VoxelWorld world, Chunk chunk) {
+        ChunkMesher mesher = meshers.get();
+        mesher.mesh(world, chunk);
+        Mesh mesh = mesher.toMesh();
+        return new ChunkBuild(chunk, mesh, mesh == null ? null : new MeshCollisionShape(mesh));
+    }
+}
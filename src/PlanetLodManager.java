@@ -0,0 +1,229 @@
+import com.jme3.material.Material;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.shape.Sphere;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Decides which planets of a galaxy exist as voxels, so only the planets
+ * near the player cost chunks, meshes and physics bodies.<p>
+ *
+ * Every planet has a low poly proxy, a sphere with no physics that shares
+ * one precomputed mesh with all other proxies. The proxies live in
+ * {@link #getProxyNode()}, which is meant to be rendered by a view that
+ * starts where the voxel view ends, so they show a planet beyond that
+ * distance whether or not its voxels exist. A planet becomes detailed once
+ * the focus is closer than the detail distance to its surface, and only
+ * goes back to its proxy beyond the detail distance plus the hysteresis, so
+ * a player hovering at the threshold does not build and drop the planet
+ * over and over. The {@link Listener} hears about every switch, e.g. to
+ * stream the voxels of the planet in or out.<p>
+ *
+ * Call {@link #update(Vector3f)} on the render thread. Whether a planet is
+ * detailed may be read from any thread.
+ */
+public class PlanetLodManager {
+
+    public interface Listener {
+
+        public void onDetailChanged(Planet planet);
+    }
+
+    /**
+     * A spherical shell of bricks, see {@link PlanetGenerator#generateShell}.
+     */
+    public static class Planet {
+
+        private final String name;
+        private final int centerX;
+        private final int centerY;
+        private final int centerZ;
+        private final float innerRadius;
+        private final float outerRadius;
+        private final Vector3f center;
+        private final Geometry proxy;
+        private volatile boolean detailed;
+
+        private Planet(String name, int centerX, int centerY, int centerZ, float innerRadius, float outerRadius,
+                       Geometry proxy) {
+            this.name = name;
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.centerZ = centerZ;
+            this.innerRadius = innerRadius;
+            this.outerRadius = outerRadius;
+            this.center = new Vector3f(VoxelWorld.toWorld(centerX), VoxelWorld.toWorld(centerY), VoxelWorld.toWorld(centerZ));
+            this.proxy = proxy;
+        }
+
+        /**
+         * @return world distance from location to the outer surface,
+         * negative inside the planet
+         */
+        public float getSurfaceDistance(Vector3f location) {
+            return location.distance(center) - outerRadius * VoxelWorld.BLOCK_SIZE;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return block coordinate of the center
+         */
+        public int getCenterX() {
+            return centerX;
+        }
+
+        public int getCenterY() {
+            return centerY;
+        }
+
+        public int getCenterZ() {
+            return centerZ;
+        }
+
+        /**
+         * @return world location of the center, do not modify
+         */
+        public Vector3f getCenter() {
+            return center;
+        }
+
+        /**
+         * @return in bricks
+         */
+        public float getInnerRadius() {
+            return innerRadius;
+        }
+
+        /**
+         * @return in bricks
+         */
+        public float getOuterRadius() {
+            return outerRadius;
+        }
+
+        public Geometry getProxy() {
+            return proxy;
+        }
+
+        /**
+         * @return true while the planet should exist as voxels
+         */
+        public boolean isDetailed() {
+            return detailed;
+        }
+    }
+
+    private final List<Planet> planets = new CopyOnWriteArrayList<Planet>();
+    private final Node proxyNode = new Node("planet proxies");
+    private final Mesh proxyMesh;
+    private final Material proxyMaterial;
+    private float detailDistance;
+    /**
+     * a detailed planet goes back to its proxy only this much beyond the
+     * detail distance
+     */
+    private float hysteresis = 32f;
+    private Listener listener;
+    private int detailedCount;
+    private int switchCount;
+
+    /**
+     * @param proxyMaterial material of the proxy spheres
+     * @param detailDistance distance to the surface below which a planet is
+     * detailed
+     */
+    public PlanetLodManager(Material proxyMaterial, float detailDistance) {
+        this.proxyMaterial = proxyMaterial;
+        this.detailDistance = detailDistance;
+        // a unit sphere, the proxies scale it to their radius
+        proxyMesh = new Sphere(12, 16, 1f);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a planet as a proxy, it becomes detailed in the next update if
+     * the focus is close.
+     *
+     * @param centerX block coordinate of the center
+     * @param innerRadius in bricks, blocks closer to the center stay empty
+     * @param outerRadius in bricks
+     */
+    public Planet addPlanet(String name, int centerX, int centerY, int centerZ, float innerRadius, float outerRadius) {
+        Geometry proxy = new Geometry(name + " proxy", proxyMesh);
+        proxy.setMaterial(proxyMaterial);
+        Planet planet = new Planet(name, centerX, centerY, centerZ, innerRadius, outerRadius, proxy);
+        proxy.setLocalTranslation(planet.getCenter());
+        proxy.setLocalScale(outerRadius * VoxelWorld.BLOCK_SIZE);
+        proxyNode.attachChild(proxy);
+        planets.add(planet);
+        return planet;
+    }
+
+    /**
+     * Switches planets between proxy and detail by their distance to focus.
+     *
+     * @param focus usually the location of the player
+     */
+    public void update(Vector3f focus) {
+        detailedCount = 0;
+        for (Planet planet : planets) {
+            float distance = planet.getSurfaceDistance(focus);
+            boolean detailed = planet.detailed ? distance <= detailDistance + hysteresis : distance < detailDistance;
+            if (detailed != planet.detailed) {
+                planet.detailed = detailed;
+                switchCount++;
+                if (listener != null) {
+                    listener.onDetailChanged(planet);
+                }
+            }
+            if (detailed) {
+                detailedCount++;
+            }
+        }
+    }
+
+    /**
+     * @return the planets in the order they were added, safe to iterate on
+     * any thread
+     */
+    public List<Planet> getPlanets() {
+        return planets;
+    }
+
+    public Node getProxyNode() {
+        return proxyNode;
+    }
+
+    public int getDetailedCount() {
+        return detailedCount;
+    }
+
+    /**
+     * @return how often a planet switched between proxy and detail
+     */
+    public int getSwitchCount() {
+        return switchCount;
+    }
+
+    public void setDetailDistance(float detailDistance) {
+        this.detailDistance = detailDistance;
+    }
+
+    public float getDetailDistance() {
+        return detailDistance;
+    }
+
+    public void setHysteresis(float hysteresis) {
+        this.hysteresis = hysteresis;
+    }
+}
@@ -0,0 +1,156 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One file holding the encoded chunks of a cube of
+ * {@link #CHUNKS} chunks, memory mapped as a whole. The header is
+ * <pre>
+ * MAGIC, VERSION, end of the used part of the file
+ * per chunk: offset, length, capacity (0 length for none)
+ * </pre>
+ * followed by the chunk data. Reading a chunk returns a slice of the
+ * mapping, no bytes are copied until it is decoded. A rewritten chunk stays
+ * in place while it fits its capacity, otherwise it moves to the end of the
+ * file, which grows by doubling its mapping.
+ */
+public class RegionFile {
+
+    public static final int SHIFT = 3;
+    public static final int SIZE = 1 << SHIFT;
+    public static final int MASK = SIZE - 1;
+    public static final int CHUNKS = SIZE * SIZE * SIZE;
+
+    private static final int MAGIC = 0x534d4743;
+    private static final int VERSION = 1;
+    private static final int ENTRY_SIZE = 12;
+    private static final int HEADER_SIZE = 12 + CHUNKS * ENTRY_SIZE;
+    /**
+     * chunk data is kept in multiples of this, so a chunk that grows a
+     * little can stay where it is
+     */
+    private static final int ALIGNMENT = 64;
+    private static final int INITIAL_SIZE = HEADER_SIZE + 64 * 1024;
+
+    private final File file;
+    private final RandomAccessFile access;
+    private final FileChannel channel;
+    private MappedByteBuffer map;
+    private int end;
+
+    public RegionFile(File file) throws IOException {
+        this.file = file;
+        boolean created = !file.exists() || file.length() == 0;
+        access = new RandomAccessFile(file, "rw");
+        channel = access.getChannel();
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_SIZE, channel.size()));
+        if (created) {
+            map.putInt(0, MAGIC);
+            map.putInt(4, VERSION);
+            end = HEADER_SIZE;
+            map.putInt(8, end);
+        } else {
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                close();
+                throw new IOException(file + " is not a region file of version " + VERSION);
+            }
+            end = map.getInt(8);
+        }
+    }
+
+    /**
+     * @return index of the chunk in its region, from its chunk coordinates
+     */
+    public static int index(int chunkX, int chunkY, int chunkZ) {
+        return ((chunkY & MASK) << (SHIFT + SHIFT)) | ((chunkZ & MASK) << SHIFT) | (chunkX & MASK);
+    }
+
+    /**
+     * @return the encoded chunk as a read only slice of the mapping, null if
+     * it was never written. Valid until the chunk is written again.
+     */
+    public synchronized ByteBuffer read(int index) {
+        int entry = 12 + index * ENTRY_SIZE;
+        int length = map.getInt(entry + 4);
+        if (length == 0) {
+            return null;
+        }
+        int offset = map.getInt(entry);
+        ByteBuffer view = map.asReadOnlyBuffer();
+        view.limit(offset + length).position(offset);
+        return view.slice();
+    }
+
+    public synchronized boolean contains(int index) {
+        return map.getInt(12 + index * ENTRY_SIZE + 4) != 0;
+    }
+
+    /**
+     * Stores the remaining bytes of data as the chunk at index.
+     */
+    public synchronized void write(int index, ByteBuffer data) throws IOException {
+        int entry = 12 + index * ENTRY_SIZE;
+        int length = data.remaining();
+        int offset = map.getInt(entry);
+        int capacity = map.getInt(entry + 8);
+        if (length > capacity) {
+            offset = end;
+            capacity = (length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+            ensureSize(offset + capacity);
+            end = offset + capacity;
+            map.putInt(8, end);
+        }
+        ByteBuffer target = map.duplicate();
+        target.position(offset);
+        target.put(data);
+        map.putInt(entry, offset);
+        map.putInt(entry + 4, length);
+        map.putInt(entry + 8, capacity);
+    }
+
+    /**
+     * Forgets the chunk at index, its space is not reused.
+     */
+    public synchronized void delete(int index) {
+        map.putInt(12 + index * ENTRY_SIZE + 4, 0);
+    }
+
+    private void ensureSize(int size) throws IOException {
+        if (size <= map.capacity()) {
+            return;
+        }
+        long grown = Math.max(size, (long) map.capacity() * 2);
+        if (grown > Integer.MAX_VALUE) {
+            throw new IOException(file + " would grow beyond 2 GB");
+        }
+        // slices of the old mapping stay valid, it is unmapped once they are gone
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, grown);
+    }
+
+    /**
+     * Writes the changed pages to disk.
+     */
+    public synchronized void flush() {
+        map.force();
+    }
+
+    public synchronized void close() throws IOException {
+        map.force();
+        channel.close();
+        access.close();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return bytes in use, header included
+     */
+    public synchronized int getUsedSize() {
+        return end;
+    }
+}
@@ -0,0 +1,69 @@
+import com.jme3.system.NanoTimer;
+
+import java.io.IOException;
+
+/**
+ * A timer that runs on the frame times of a recorded session instead of the
+ * wall clock. Once started every update advances the {@link InputReplayer}
+ * by one frame, so the game, and the physics space stepping its fixed ticks
+ * from the same time, see exactly the times of the recording however fast
+ * the replay renders. Before it is started, and after the log ended, it is
+ * an ordinary timer.
+ */
+public class ReplayTimer extends NanoTimer {
+
+    private final InputReplayer replayer;
+    private boolean started;
+    private boolean finished;
+
+    public ReplayTimer(InputReplayer replayer) {
+        this.replayer = replayer;
+    }
+
+    /**
+     * Reads the first recorded frame, it belongs to the frame that is
+     * running. The next update reads the second.
+     */
+    public void startReplay() {
+        started = true;
+        nextFrame();
+    }
+
+    @Override
+    public void update() {
+        super.update();
+        if (!started || finished) {
+            return;
+        }
+        nextFrame();
+    }
+
+    private void nextFrame() {
+        try {
+            finished = !replayer.nextFrame();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public float getTimePerFrame() {
+        return isReplaying() ? replayer.getTimePerFrame() : super.getTimePerFrame();
+    }
+
+    @Override
+    public float getFrameRate() {
+        return isReplaying() ? 1f / replayer.getTimePerFrame() : super.getFrameRate();
+    }
+
+    /**
+     * @return true while the current frame comes from the log
+     */
+    public boolean isReplaying() {
+        return started && !finished;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+}
@@ -0,0 +1,243 @@
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+
+import java.util.Arrays;
+
+/**
+ * The quantized transforms of all replicated entities at one server tick,
+ * sorted by entity id. Positions are fixed point with {@link #POSITION_SCALE}
+ * steps per world unit, rotations are packed by {@link #packRotation}.
+ * Snapshots are reused, {@link #clear} empties one for the next tick.
+ */
+public class Snapshot {
+
+    public static final byte PLAYER = 0;
+    public static final byte CANNON_BALL = 1;
+
+    /**
+     * position steps per world unit, about 3 cm
+     */
+    public static final float POSITION_SCALE = 32f;
+    private static final float ROTATION_RANGE = 0.70710678f;
+    private static final int ROTATION_BITS = 10;
+    private static final int ROTATION_MAX = (1 << ROTATION_BITS) - 1;
+
+    int tick;
+    int count;
+    int[] ids = new int[16];
+    byte[] types = new byte[16];
+    int[] x = new int[16];
+    int[] y = new int[16];
+    int[] z = new int[16];
+    int[] rotations = new int[16];
+
+    public void clear(int tick) {
+        this.tick = tick;
+        count = 0;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public byte getType(int index) {
+        return types[index];
+    }
+
+    public Vector3f getPosition(int index, Vector3f store) {
+        return store.set(x[index] / POSITION_SCALE, y[index] / POSITION_SCALE, z[index] / POSITION_SCALE);
+    }
+
+    public Quaternion getRotation(int index, Quaternion store) {
+        return unpackRotation(rotations[index], store);
+    }
+
+    /**
+     * Adds an entity, ids may come in any order until {@link #sort}.
+     */
+    public void add(int id, byte type, Vector3f position, Quaternion rotation) {
+        add(id, type, Math.round(position.x * POSITION_SCALE), Math.round(position.y * POSITION_SCALE),
+                Math.round(position.z * POSITION_SCALE), packRotation(rotation));
+    }
+
+    void add(int id, byte type, int px, int py, int pz, int rotation) {
+        if (count == ids.length) {
+            grow(count * 2);
+        }
+        ids[count] = id;
+        types[count] = type;
+        x[count] = px;
+        y[count] = py;
+        z[count] = pz;
+        rotations[count] = rotation;
+        count++;
+    }
+
+    void copy(Snapshot from, int index) {
+        add(from.ids[index], from.types[index], from.x[index], from.y[index], from.z[index], from.rotations[index]);
+    }
+
+    /**
+     * Sorts the entities by id, an insertion sort as they are mostly added in
+     * order.
+     */
+    public void sort() {
+        for (int i = 1; i < count; i++) {
+            int id = ids[i];
+            byte type = types[i];
+            int px = x[i];
+            int py = y[i];
+            int pz = z[i];
+            int rotation = rotations[i];
+            int j = i - 1;
+            while (j >= 0 && ids[j] > id) {
+                ids[j + 1] = ids[j];
+                types[j + 1] = types[j];
+                x[j + 1] = x[j];
+                y[j + 1] = y[j];
+                z[j + 1] = z[j];
+                rotations[j + 1] = rotations[j];
+                j--;
+            }
+            ids[j + 1] = id;
+            types[j + 1] = type;
+            x[j + 1] = px;
+            y[j + 1] = py;
+            z[j + 1] = pz;
+            rotations[j + 1] = rotation;
+        }
+    }
+
+    /**
+     * @return true if both snapshots are of the same tick and hold the same
+     * entities with the same quantized transforms, in the same order
+     */
+    public boolean contentEquals(Snapshot other) {
+        if (tick != other.tick || count != other.count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (ids[i] != other.ids[i] || types[i] != other.types[i] || x[i] != other.x[i] || y[i] != other.y[i]
+                    || z[i] != other.z[i] || rotations[i] != other.rotations[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return index of the entity, or -1
+     */
+    public int indexOf(int id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (ids[mid] < id) {
+                low = mid + 1;
+            } else if (ids[mid] > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        types = Arrays.copyOf(types, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        rotations = Arrays.copyOf(rotations, capacity);
+    }
+
+    /**
+     * Packs a unit quaternion into 32 bits: the index of its largest
+     * component, and the other three in 10 bits each. The largest one
+     * follows from them, its sign is made positive as q and -q are the same
+     * rotation.
+     */
+    public static int packRotation(Quaternion rotation) {
+        int largest = 0;
+        for (int i = 1; i < 4; i++) {
+            if (Math.abs(component(rotation, i)) > Math.abs(component(rotation, largest))) {
+                largest = i;
+            }
+        }
+        float sign = component(rotation, largest) < 0 ? -1f : 1f;
+        int packed = largest;
+        int shift = 2;
+        for (int i = 0; i < 4; i++) {
+            if (i == largest) {
+                continue;
+            }
+            float value = Math.max(-ROTATION_RANGE, Math.min(ROTATION_RANGE, component(rotation, i) * sign));
+            int quantized = Math.round((value + ROTATION_RANGE) / (2 * ROTATION_RANGE) * ROTATION_MAX);
+            packed |= quantized << shift;
+            shift += ROTATION_BITS;
+        }
+        return packed;
+    }
+
+    public static Quaternion unpackRotation(int packed, Quaternion store) {
+        int largest = packed & 3;
+        float qx = 0;
+        float qy = 0;
+        float qz = 0;
+        float qw = 0;
+        float sum = 0;
+        int shift = 2;
+        for (int i = 0; i < 4; i++) {
+            if (i == largest) {
+                continue;
+            }
+            int quantized = (packed >>> shift) & ROTATION_MAX;
+            float value = quantized / (float) ROTATION_MAX * (2 * ROTATION_RANGE) - ROTATION_RANGE;
+            sum += value * value;
+            shift += ROTATION_BITS;
+            if (i == 0) {
+                qx = value;
+            } else if (i == 1) {
+                qy = value;
+            } else if (i == 2) {
+                qz = value;
+            } else {
+                qw = value;
+            }
+        }
+        float value = (float) Math.sqrt(Math.max(0f, 1f - sum));
+        if (largest == 0) {
+            qx = value;
+        } else if (largest == 1) {
+            qy = value;
+        } else if (largest == 2) {
+            qz = value;
+        } else {
+            qw = value;
+        }
+        return store.set(qx, qy, qz, qw);
+    }
+
+    private static float component(Quaternion rotation, int index) {
+        switch (index) {
+            case 0:
+                return rotation.getX();
+            case 1:
+                return rotation.getY();
+            case 2:
+                return rotation.getZ();
+            default:
+                return rotation.getW();
+        }
+    }
+}
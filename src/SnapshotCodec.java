@@ -0,0 +1,192 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Writes a {@link Snapshot} as the difference to an older snapshot the
+ * receiver already has, its baseline. Without a baseline every entity is
+ * sent in full. The layout is
+ * <pre>
+ * tick, baseline tick (0 for none)
+ * removed entities: id deltas, 0 ends the list
+ * changed entities: id delta, flags, then
+ *   FULL:     type, position, rotation
+ *   POSITION: position delta to the baseline
+ *   ROTATION: rotation
+ * 0 ends the list
+ * </pre>
+ * Ids are sent as the difference to the previous id of the list, positions
+ * as zigzag var ints, so entities that did not move cost nothing and slow
+ * ones two to four bytes. Codecs keep scratch state, use one per thread.
+ */
+public class SnapshotCodec {
+
+    private static final int FULL = 1;
+    private static final int POSITION = 2;
+    private static final int ROTATION = 4;
+
+    private int[] removed = new int[16];
+
+    /**
+     * @param baseline snapshot the receiver has, null to send everything
+     */
+    public void encode(Snapshot current, Snapshot baseline, ByteBuffer out) {
+        NetworkProtocol.writeVarInt(out, current.tick);
+        NetworkProtocol.writeVarInt(out, baseline == null ? 0 : baseline.tick);
+
+        // removed: in the baseline but not in the current snapshot
+        int lastId = -1;
+        if (baseline != null) {
+            int c = 0;
+            for (int b = 0; b < baseline.count; b++) {
+                int id = baseline.ids[b];
+                while (c < current.count && current.ids[c] < id) {
+                    c++;
+                }
+                if (c == current.count || current.ids[c] != id) {
+                    NetworkProtocol.writeVarInt(out, id - lastId);
+                    lastId = id;
+                }
+            }
+        }
+        out.put((byte) 0);
+
+        lastId = -1;
+        int b = 0;
+        for (int c = 0; c < current.count; c++) {
+            int id = current.ids[c];
+            if (baseline != null) {
+                while (b < baseline.count && baseline.ids[b] < id) {
+                    b++;
+                }
+            }
+            if (baseline == null || b == baseline.count || baseline.ids[b] != id) {
+                NetworkProtocol.writeVarInt(out, id - lastId);
+                lastId = id;
+                out.put((byte) FULL);
+                out.put(current.types[c]);
+                NetworkProtocol.writeSignedVarInt(out, current.x[c]);
+                NetworkProtocol.writeSignedVarInt(out, current.y[c]);
+                NetworkProtocol.writeSignedVarInt(out, current.z[c]);
+                out.putInt(current.rotations[c]);
+                continue;
+            }
+            int dx = current.x[c] - baseline.x[b];
+            int dy = current.y[c] - baseline.y[b];
+            int dz = current.z[c] - baseline.z[b];
+            int flags = (dx != 0 || dy != 0 || dz != 0 ? POSITION : 0)
+                    | (current.rotations[c] != baseline.rotations[b] ? ROTATION : 0);
+            if (flags == 0) {
+                continue;
+            }
+            NetworkProtocol.writeVarInt(out, id - lastId);
+            lastId = id;
+            out.put((byte) flags);
+            if ((flags & POSITION) != 0) {
+                NetworkProtocol.writeSignedVarInt(out, dx);
+                NetworkProtocol.writeSignedVarInt(out, dy);
+                NetworkProtocol.writeSignedVarInt(out, dz);
+            }
+            if ((flags & ROTATION) != 0) {
+                out.putInt(current.rotations[c]);
+            }
+        }
+        out.put((byte) 0);
+    }
+
+    /**
+     * @return the tick of the baseline an encoded snapshot needs, 0 for none,
+     * without moving the buffer's position
+     */
+    public static int getBaselineTick(ByteBuffer in) {
+        int position = in.position();
+        NetworkProtocol.readVarInt(in);
+        int baselineTick = NetworkProtocol.readVarInt(in);
+        in.position(position);
+        return baselineTick;
+    }
+
+    /**
+     * @param baseline the snapshot of {@link #getBaselineTick}, null if that
+     * is 0
+     * @param out filled with the decoded snapshot
+     */
+    public void decode(ByteBuffer in, Snapshot baseline, Snapshot out) {
+        int tick = NetworkProtocol.readVarInt(in);
+        int baselineTick = NetworkProtocol.readVarInt(in);
+        if (baselineTick != 0 && (baseline == null || baseline.tick != baselineTick)) {
+            throw new IllegalArgumentException("snapshot " + tick + " needs baseline " + baselineTick);
+        }
+        if (baselineTick == 0) {
+            baseline = null;
+        }
+        out.clear(tick);
+
+        int removedCount = 0;
+        int id = -1;
+        for (int delta = NetworkProtocol.readVarInt(in); delta != 0; delta = NetworkProtocol.readVarInt(in)) {
+            id += delta;
+            if (removedCount == removed.length) {
+                removed = Arrays.copyOf(removed, removedCount * 2);
+            }
+            removed[removedCount++] = id;
+        }
+
+        int b = 0;
+        int r = 0;
+        id = -1;
+        for (int delta = NetworkProtocol.readVarInt(in); delta != 0; delta = NetworkProtocol.readVarInt(in)) {
+            id += delta;
+            // unchanged entities of the baseline before this one
+            while (baseline != null && b < baseline.count && baseline.ids[b] < id) {
+                r = copyUnlessRemoved(baseline, b++, removedCount, r, out);
+            }
+            int flags = in.get();
+            if ((flags & FULL) != 0) {
+                byte type = in.get();
+                int px = NetworkProtocol.readSignedVarInt(in);
+                int py = NetworkProtocol.readSignedVarInt(in);
+                int pz = NetworkProtocol.readSignedVarInt(in);
+                out.add(id, type, px, py, pz, in.getInt());
+                if (baseline != null && b < baseline.count && baseline.ids[b] == id) {
+                    b++;
+                }
+                continue;
+            }
+            if (baseline == null || b == baseline.count || baseline.ids[b] != id) {
+                throw new IllegalArgumentException("snapshot " + tick + " changes entity " + id + " missing in its baseline");
+            }
+            int px = baseline.x[b];
+            int py = baseline.y[b];
+            int pz = baseline.z[b];
+            int rotation = baseline.rotations[b];
+            if ((flags & POSITION) != 0) {
+                px += NetworkProtocol.readSignedVarInt(in);
+                py += NetworkProtocol.readSignedVarInt(in);
+                pz += NetworkProtocol.readSignedVarInt(in);
+            }
+            if ((flags & ROTATION) != 0) {
+                rotation = in.getInt();
+            }
+            out.add(id, baseline.types[b], px, py, pz, rotation);
+            b++;
+        }
+        while (baseline != null && b < baseline.count) {
+            r = copyUnlessRemoved(baseline, b++, removedCount, r, out);
+        }
+    }
+
+    /**
+     * @return the index of the next removed id to look at
+     */
+    private int copyUnlessRemoved(Snapshot baseline, int index, int removedCount, int r, Snapshot out) {
+        int id = baseline.ids[index];
+        while (r < removedCount && removed[r] < id) {
+            r++;
+        }
+        if (r < removedCount && removed[r] == id) {
+            return r + 1;
+        }
+        out.copy(baseline, index);
+        return r;
+    }
+}
@@ -14,16 +14,21 @@ import com.jme3.input.controls.MouseButtonTrigger;
 import com.jme3.material.Material;
 import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.ViewPort;
 import com.jme3.renderer.queue.RenderQueue.ShadowMode;
 import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
 import com.jme3.scene.shape.Box;
-import com.jme3.scene.shape.Sphere;
-import com.jme3.scene.shape.Sphere.TextureMode;
 import com.jme3.shadow.BasicShadowRenderer;
 import com.jme3.texture.Texture;
 import com.jme3.texture.Texture.WrapMode;
 
-import java.lang.reflect.Field;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 public class SuperMinecraftGalaxy extends SimpleApplication implements ActionListener {
 
@@ -35,8 +40,24 @@ public class SuperMinecraftGalaxy extends SimpleApplication implements ActionLis
     private boolean down;
     private CapsuleCollisionShape capsuleShape;
 
-    public static void main(String args[]) {
+    public static void main(String args[]) throws IOException {
+        if (args.length > 0 && args[0].equals("--headless")) {
+            HeadlessSimulation.main(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--server")) {
+            GameServer.main(args);
+            return;
+        }
         SuperMinecraftGalaxy app = new SuperMinecraftGalaxy();
+        if (args.length > 1 && args[0].equals("--record")) {
+            app.recordFile = new File(args[1]);
+        } else if (args.length > 1 && args[0].equals("--replay")) {
+            app.replayer = new InputReplayer(new File(args[1]));
+            if (app.replayer.getPlanetRadius() != PLANET_RADIUS) {
+                throw new IOException(args[1] + " was recorded on a planet of radius " + app.replayer.getPlanetRadius());
+            }
+        }
         app.start();
     }
 
@@ -60,10 +81,7 @@ public class SuperMinecraftGalaxy extends SimpleApplication implements ActionLis
     /**
      * Prepare geometries and physical nodes for bricks and cannon balls.
      */
-    private RigidBodyControl brick_phy;
-    private static final Box box;
-    private RigidBodyControl ball_phy;
-    private static final Sphere sphere;
+    private CannonBallPool cannonBalls;
     private RigidBodyControl floor_phy;
     private static final Box floor;
 
@@ -74,13 +92,112 @@ public class SuperMinecraftGalaxy extends SimpleApplication implements ActionLis
     private static final float brickWidth = 1f;
     private static final float brickHeight = 1f;
 
+    /**
+     * Block data of the planet, bricks are only created for blocks that can be seen
+     */
+    private final VoxelWorld world = new VoxelWorld();
+    private VoxelWorldNode worldNode;
+    private VoxelWorldPhysics worldPhysics;
+    private final ChunkMesher mesher = new ChunkMesher();
+    private final VoxelRaycast raycast = new VoxelRaycast(world);
+
+    /**
+     * bricks further away from the camera than this can not be dug or placed
+     */
+    private static final float EDIT_REACH = 12f;
+
+    /**
+     * Planets are generated and meshed on this pool, away from the render thread
+     */
+    private final ForkJoinPool generatorPool = new ForkJoinPool();
+    private final PlanetGenerator planetGenerator = new PlanetGenerator(generatorPool);
+
+    /**
+     * Chunks are saved here once generated, and loaded instead of generated
+     * the next time they come into view. Recorded and replayed sessions
+     * neither load nor save, they always start from the generated galaxy
+     * and their edits must not end up in the saved one.
+     */
+    private final WorldStore worldStore = new WorldStore(new File("saves", "galaxy-" + GALAXY_SEED));
+    private ChunkStreamer streamer;
+    private BitmapText progressText;
+
+    /**
+     * chunks within this distance of the player are kept in the world, it
+     * covers the camera frustum
+     */
+    private static final float STREAM_DISTANCE = 64f;
+    private final Vector3f spawnLocation = new Vector3f(-10, 0, -PLANET_RADIUS * 3);
+
+    /**
+     * radius of the planet in bricks
+     */
+    private static final int PLANET_RADIUS = 30;
+
+    /**
+     * The home planet sits at the origin, the other planets of the galaxy are
+     * placed around it by the seed. Planets are voxels only within the detail
+     * distance of their surface, and low poly proxies beyond the camera's far
+     * plane, drawn by a second view that reaches to the galaxy distance.
+     */
+    private static final long GALAXY_SEED = 1;
+    private static final int GALAXY_PLANETS = 24;
+    private static final float GALAXY_DISTANCE = 4000f;
+    private static final float PROXY_DISTANCE = 40f;
+    private static final float PLANET_DETAIL_DISTANCE = 96f;
+    private static final float PLANET_DETAIL_HYSTERESIS = 64f;
+    private PlanetLodManager planetLod;
+    private Camera galaxyCam;
+    private final GravitySystem gravitySystem = new GravitySystem();
+    private final Vector3f playerGravity = new Vector3f();
+
+    /**
+     * cannon balls flying at once
+     */
+    private static final int MAX_CANNON_BALLS = 100;
+
+    /**
+     * cannon balls that hit the planet with at least this impulse carve a
+     * crater of this radius in bricks
+     */
+    private static final float CRATER_MIN_IMPULSE = 15f;
+    private static final float CRATER_RADIUS = 2.5f;
+    private CraterSystem craters;
+
+    /**
+     * bodies further away than this from the player are simulated coarser,
+     * and beyond the far distance they are frozen
+     */
+    private static final float PHYSICS_NEAR_DISTANCE = 40f;
+    private static final float PHYSICS_FAR_DISTANCE = 120f;
+    private PhysicsLodManager physicsLod;
+
+    /**
+     * Sessions are recorded from the moment the player is dropped in, the
+     * chunks around the spawn are attached by then and the streamer works
+     * synchronously, so a replay sees the same world in every frame. The
+     * game steps the physics itself in both modes, from the frame the player
+     * is added on, so the fixed ticks of a replay start where the recording's
+     * did, see {@link #stepPhysics(float)}.
+     */
+    private File recordFile;
+    private InputRecorder recorder;
+    private InputReplayer replayer;
+    private ReplayTimer replayTimer;
+    private boolean replayingEvents;
+    private int physicsTicks;
+    private int replayTickMismatches;
+    private int replayDivergedFrame = -1;
+    private float replayMaxError;
+    private long replayStart;
+
+    /**
+     * player location difference to the recording at which a replay counts
+     * as diverged
+     */
+    private static final float REPLAY_TOLERANCE = 0.0001f;
+
     static {
-        /** Initialize the cannon ball geometry */
-        sphere = new Sphere(32, 32, 0.4f, true, false);
-        sphere.setTextureMode(TextureMode.Projected);
-        /** Initialize the brick geometry */
-        box = new Box(Vector3f.ZERO, brickLength, brickHeight, brickWidth);
-        box.scaleTextureCoordinates(new Vector2f(1f, .5f));
         /** Initialize the floor geometry */
         floor = new Box(Vector3f.ZERO, 1f, 1f, 1f);
 //        floor = new Sphere(320, 320, 1000f, true, false);
@@ -92,28 +209,100 @@ public class SuperMinecraftGalaxy extends SimpleApplication implements ActionLis
         /** Set up Physics Game */
         bulletAppState = new BulletAppState();
         stateManager.attach(bulletAppState);
+        TickMetrics.attach(bulletAppState.getPhysicsSpace());
+        TickMetrics.registerMBean();
+        if (isRecordOrReplay()) {
+            bulletAppState.setEnabled(false);
+        }
         /** Configure cam to look at scene */
         cam.setLocation(new Vector3f(0, 6f, 6f));
         cam.lookAt(Vector3f.ZERO, new Vector3f(0, 1, 0));
 
-        cam.setFrustumFar(40);
-        /** Add InputManager action: Left click triggers shooting. */
+        cam.setFrustumFar(PROXY_DISTANCE);
+        /** Add InputManager action: Left click triggers shooting, right click digs, middle click places a brick. */
         inputManager.addMapping("shoot", new MouseButtonTrigger(MouseInput.BUTTON_LEFT));
-        inputManager.addListener(actionListener, "shoot");
+        inputManager.addMapping("dig", new MouseButtonTrigger(MouseInput.BUTTON_RIGHT));
+        inputManager.addMapping("place", new MouseButtonTrigger(MouseInput.BUTTON_MIDDLE));
+        inputManager.addListener(actionListener, "shoot", "dig", "place");
 
         /** Initialize the scene, materials, and physics space */
         initMaterials();
-//        initCube(10);
-        int radius = 30;
-        initSphere(radius, 0, 0, 0, radius/2, radius);
+        cannonBalls = new CannonBallPool(rootNode, bulletAppState.getPhysicsSpace(), stone_mat, 0.4f, 1f,
+                MAX_CANNON_BALLS, GameSetup.CANNON_BALL_TIME_TO_LIVE);
+        physicsLod = new PhysicsLodManager(bulletAppState.getPhysicsSpace(), PHYSICS_NEAR_DISTANCE, PHYSICS_FAR_DISTANCE);
+        cannonBalls.setLodManager(physicsLod);
+        initWorld();
+        initGalaxy();
         initFloor();
         initCrossHairs();
         initShadows();
 //        bulletAppState.getPhysicsSpace().setGravity(Vector3f.ZERO);
         addGravityToPlanet();
-
-        addDanielPlayer(radius * 3);
         setUpKeys();
+        if (replayer != null) {
+            // the context replaced any timer set before start
+            replayTimer = new ReplayTimer(replayer);
+            setTimer(replayTimer);
+            flyCam.setEnabled(false);
+        }
+
+        startStreaming();
+    }
+
+    /**
+     * Streams the planet in around the spawn, chunks are generated or loaded
+     * and meshed on the generator pool. The player is dropped in once the
+     * chunks in view are attached, from then on the chunks follow the player.
+     */
+    private void startStreaming() {
+        progressText = new BitmapText(guiFont, false);
+        progressText.setLocalTranslation(10, settings.getHeight() - 10, 0);
+        guiNode.attachChild(progressText);
+        streamer = new ChunkStreamer(this, world, worldNode, worldPhysics, planetGenerator,
+                new ChunkStreamer.ChunkSource() {
+                    public void generate(VoxelWorld world, int chunkX, int chunkY, int chunkZ) {
+                        for (PlanetLodManager.Planet planet : planetLod.getPlanets()) {
+                            if (planet.isDetailed()) {
+                                planetGenerator.generateShellChunk(world, chunkX, chunkY, chunkZ,
+                                        planet.getCenterX(), planet.getCenterY(), planet.getCenterZ(),
+                                        planet.getInnerRadius(), planet.getOuterRadius());
+                            }
+                        }
+                    }
+                }, isRecordOrReplay() ? null : worldStore, generatorPool, STREAM_DISTANCE);
+        streamer.setSynchronous(isRecordOrReplay());
+    }
+
+    @Override
+    public void destroy() {
+        generatorPool.shutdownNow();
+        try {
+            // chunks still being saved by the pool must be done before the store closes
+            generatorPool.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (streamer != null && !isRecordOrReplay()) {
+                streamer.saveChanged();
+            }
+            worldStore.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            if (recorder != null) {
+                recorder.close();
+                System.out.println("recorded " + recorder.getFrames() + " frames and " + recorder.getEvents()
+                        + " events to " + recordFile);
+            }
+            if (replayer != null) {
+                replayer.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        super.destroy();
     }
 
     /**
@@ -133,38 +322,42 @@ public class SuperMinecraftGalaxy extends SimpleApplication implements ActionLis
         inputManager.addListener(this, "Jumps");
     }
 
-    private void addDanielPlayer(int playerlocation) {
-        capsuleShape = new CapsuleCollisionShape(1.5f, 6f, 1);
-//        capsuleShape = new CylinderCollisionShape(new Vector3f(1.5f, 6f, 1), 1);
-        player = new DanielCharacterControl(capsuleShape, 0.05f);
-        player.setJumpSpeed(20);
-        player.setFallSpeed(30);
-        player.setGravity(30);
-//        player.setMaxSlope((float)((25.0f/180.0f) * Math.PI));
-//        player.setUseViewDirection(false);
-        player.setPhysicsLocation(new Vector3f(-10, 0, -playerlocation));
-        player.setUpAxis(1);
-        bulletAppState.getPhysicsSpace().add(player);
+    private void addDanielPlayer() {
+        player = GameSetup.addPlayer(bulletAppState.getPhysicsSpace(), spawnLocation);
+        capsuleShape = (CapsuleCollisionShape) player.getCollisionShape();
+        physicsTicks = 0;
+        if (recordFile != null) {
+            try {
+                recorder = new InputRecorder(recordFile, PLANET_RADIUS);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        if (replayTimer != null) {
+            replayTimer.startReplay();
+            replayStart = System.nanoTime();
+        }
     }
 
     private void addGravityToPlanet() {
+        for (PlanetLodManager.Planet planet : planetLod.getPlanets()) {
+            gravitySystem.addSource(GravitySource.sphere(planet.getCenter(),
+                    planet.getOuterRadius() * VoxelWorld.BLOCK_SIZE, GameSetup.PLANET_SURFACE_GRAVITY));
+        }
+        // bodies fall onto the nearest planet instead of being pulled towards the others
+        gravitySystem.setMode(GravitySystem.Mode.DOMINANT);
+        bulletAppState.getPhysicsSpace().addTickListener(gravitySystem);
         bulletAppState.getPhysicsSpace().addTickListener(new PhysicsTickListener() {
             @Override
             public void prePhysicsTick(PhysicsSpace space, float f) {
-                Vector3f floorLocation = floor_phy.getPhysicsLocation();
-                // check in which direction we need to apply the force
-                // subtract the location of the dynamic node from the
-                // black holes location and normalize it
-                Vector3f direction = floorLocation.subtract(player.getPhysicsLocation()).normalize();
-
-                javax.vecmath.Vector3f[] upAxisDirection = (javax.vecmath.Vector3f[]) getPrivateField(player.getControllerId(), "upAxisDirection");
-
-
-                upAxisDirection[0].set(-direction.getX(), -direction.getY(), -direction.getZ());
-                upAxisDirection[1].set(-direction.getX(), -direction.getY(), -direction.getZ());
-                upAxisDirection[2].set(-direction.getX(), -direction.getY(), -direction.getZ());
-
-                getFlyByCamera().setUpVector(new Vector3f(-direction.getX(), -direction.getY(), -direction.getZ()));
+                physicsTicks++;
+                if (player == null) {
+                    return;
+                }
+                // the player falls along the gravity field of the planets
+                Vector3f direction = gravitySystem.getField(player.getPhysicsLocation(), playerGravity).normalizeLocal();
+                player.setUpDirection(direction.negateLocal());
+                getFlyByCamera().setUpVector(player.getUpDirection());
             }
 
 
@@ -175,26 +368,65 @@ public class SuperMinecraftGalaxy extends SimpleApplication implements ActionLis
         });
     }
 
-    public static Object getPrivateField(Object o, String fieldName) {
+    @Override
+    public void simpleUpdate(float tpf) {
+        long start = TickMetrics.start();
+        updateGame(tpf);
+        updateGalaxyView(tpf);
+        TickMetrics.stop(TickMetrics.Metric.SIMPLE_UPDATE, start);
+    }
+
+    /**
+     * The galaxy view looks where the camera looks, its scene is not part of
+     * the root node so it is updated here.
+     */
+    private void updateGalaxyView(float tpf) {
+        galaxyCam.setLocation(cam.getLocation());
+        galaxyCam.setRotation(cam.getRotation());
+        planetLod.getProxyNode().updateLogicalState(tpf);
+        planetLod.getProxyNode().updateGeometricState();
+    }
 
-        // Go and find the private field...
-        final Field fields[] = o.getClass().getDeclaredFields();
-        for (int i = 0; i < fields.length; ++i) {
-            if (fieldName.equals(fields[i].getName())) {
-                try {
-                    fields[i].setAccessible(true);
-                    return fields[i].get(o);
-                } catch (IllegalAccessException ex) {
-                    System.out.println("IllegalAccessException accessing " + fieldName);
+    private void updateGame(float tpf) {
+        Vector3f focus = player == null ? spawnLocation : player.getPhysicsLocation();
+        planetLod.update(focus);
+        streamer.update(focus, cam.getDirection());
+        if (progressText != null) {
+            progressText.setText("streaming planet, " + streamer.getChunkCount() + " chunks");
+            if (streamer.isSettled()) {
+                progressText.removeFromParent();
+                progressText = null;
+                addDanielPlayer();
+            }
+        }
+        if (replayTimer != null && replayTimer.isFinished()) {
+            finishReplay();
+            return;
+        }
+        if (replayTimer != null && replayTimer.isReplaying()) {
+            // the frame the player is added in started on the wall clock
+            tpf = replayer.getTimePerFrame();
+            // the recorded events came in before this frame's update like the real ones did
+            cam.setRotation(replayer.getCameraRotation());
+            replayingEvents = true;
+            for (int i = 0; i < replayer.getEventCount(); i++) {
+                String binding = replayer.getEventBinding(i);
+                boolean value = replayer.getEventValue(i);
+                if (binding.equals("shoot") || binding.equals("dig") || binding.equals("place")) {
+                    actionListener.onAction(binding, value, tpf);
+                } else {
+                    onAction(binding, value, tpf);
                 }
             }
+            replayingEvents = false;
+        }
+        cannonBalls.update(tpf);
+        // the impacts of every physics tick of this frame, rebuilt once
+        craters.update();
+        physicsLod.update(tpf, player == null ? cam.getLocation() : player.getPhysicsLocation());
+        if (player == null) {
+            return;
         }
-        System.out.println("Field '" + fieldName + "' not found");
-        return null;
-    }
-
-    @Override
-    public void simpleUpdate(float tpf) {
         Vector3f camDir = cam.getDirection().clone().multLocal(0.6f);
         Vector3f camLeft = cam.getLeft().clone().multLocal(0.4f);
         walkDirection.set(0, 0, 0);
@@ -211,17 +443,82 @@ public class SuperMinecraftGalaxy extends SimpleApplication implements ActionLis
             walkDirection.addLocal(camDir.negate());
         }
         player.setWalkDirection(walkDirection);
+        if (isRecordOrReplay()) {
+            stepPhysics(tpf);
+        }
         cam.setLocation(player.getPhysicsLocation());
+        endFrame(tpf);
+    }
+
+    private boolean isRecordOrReplay() {
+        return recordFile != null || replayer != null;
     }
 
     /**
-     * Every time the shoot action is triggered, a new cannon ball is produced.
+     * Steps the physics space by the frame's time in place of the disabled
+     * BulletAppState. It starts with the frame the player is added in, with
+     * no time left over from the frames before, and a frame's record holds
+     * the ticks of the frame and the player location after them.
+     */
+    private void stepPhysics(float tpf) {
+        PhysicsSpace space = bulletAppState.getPhysicsSpace();
+        space.update(tpf);
+        space.distributeEvents();
+    }
+
+    /**
+     * Records the frame, or compares it to the recording while replaying.
+     */
+    private void endFrame(float tpf) {
+        Vector3f location = player.getPhysicsLocation();
+        if (recorder != null) {
+            try {
+                recorder.frame(tpf, cam.getRotation(), physicsTicks, location);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        } else if (replayTimer != null && replayTimer.isReplaying() && replayer.getFrame() >= 0) {
+            if (physicsTicks != replayer.getPhysicsTicks()) {
+                replayTickMismatches++;
+            }
+            float error = location.distance(replayer.getPlayerLocation());
+            replayMaxError = Math.max(replayMaxError, error);
+            if (error > REPLAY_TOLERANCE && replayDivergedFrame < 0) {
+                replayDivergedFrame = replayer.getFrame();
+            }
+        }
+        physicsTicks = 0;
+    }
+
+    private void finishReplay() {
+        long wallNanos = System.nanoTime() - replayStart;
+        int frames = replayer.getFrame() + 1;
+        System.out.printf("replayed %d frames in %.2f s%n", frames, wallNanos / 1e9);
+        System.out.printf("max player error %.6f, physics tick mismatches %d%n", replayMaxError, replayTickMismatches);
+        if (replayDivergedFrame < 0 && replayTickMismatches == 0) {
+            System.out.println("trajectory matches the recording");
+        } else {
+            System.out.println("trajectory diverged at frame " + replayDivergedFrame);
+        }
+        stop();
+    }
+
+    /**
+     * Every time the shoot action is triggered, a cannon ball is taken from the pool.
      * The ball is set up to fly from the camera position in the camera direction.
+     * Dig and place change the brick the camera looks at.
      */
     private ActionListener actionListener = new ActionListener() {
         public void onAction(String name, boolean keyPressed, float tpf) {
+            if (!acceptAction(name, keyPressed)) {
+                return;
+            }
             if (name.equals("shoot") && !keyPressed) {
                 makeCannonBall();
+            } else if (name.equals("dig") && keyPressed) {
+                digBlock();
+            } else if (name.equals("place") && keyPressed) {
+                placeBlock();
             }
         }
     };
@@ -234,6 +531,8 @@ public class SuperMinecraftGalaxy extends SimpleApplication implements ActionLis
         TextureKey key = new TextureKey("Textures/Terrain/BrickWall/BrickWall.jpg");
         key.setGenerateMips(true);
         Texture tex = assetManager.loadTexture(key);
+        // chunk meshes repeat the texture once per brick face
+        tex.setWrap(WrapMode.Repeat);
         wall_mat.setTexture("ColorMap", tex);
 
         stone_mat = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
@@ -266,7 +565,7 @@ public class SuperMinecraftGalaxy extends SimpleApplication implements ActionLis
     }
 
     /**
-     * This loop builds a wall out of individual bricks.
+     * This loop fills a cube of blocks into the world.
      *
      * @param diameter
      */
@@ -277,36 +576,179 @@ public class SuperMinecraftGalaxy extends SimpleApplication implements ActionLis
         for (int k = x; k < x + diameter; k++) {
             for (int j = y; j < y + diameter; j++) {
                 for (int i = z; i < z + diameter; i++) {
-                    Vector3f vt = new Vector3f(i * 2, j * 2, k * 2);
-                    makeBrick(vt);
+                    world.setBlock(i, j, k, VoxelWorld.BRICK);
                 }
             }
         }
     }
 
-    public void initSphere(int radius, int centerX, int centerY, int centerZ, int crustThicknessInPercentIThink, int radiusOffsetInCaseItDoesNotRenderProperly) {
-        int diameter = radius * 2;
-        int x = centerX - diameter;
-        int y = centerY - diameter;
-        int z = centerZ - diameter;
+    /**
+     * Fills the crust of a sphere into the world on the generator pool and
+     * waits for it. Safe to call from any thread but the pool's own.
+     *
+     * @param centerX world coordinate of the center
+     * @param innerRadius in bricks, blocks closer to the center stay empty
+     * @param outerRadius in bricks
+     */
+    public void initSphere(float centerX, float centerY, float centerZ, float innerRadius, float outerRadius) {
+        planetGenerator.generateShell(world, VoxelWorld.toBlock(centerX), VoxelWorld.toBlock(centerY), VoxelWorld.toBlock(centerZ),
+                innerRadius, outerRadius);
+    }
 
-        float mid = (diameter - 1) / 2;
-        for (int k = 0; k < diameter; k++) {
-            for (int j = 0; j < diameter; j++) {
-                for (int i = 0; i < diameter; i++) {
-                    float partOfSphere = isPartOfSphere(i - mid, j - mid, k - mid, radius);
-                    System.out.println(partOfSphere);
-                    if (partOfSphere <= crustThicknessInPercentIThink && partOfSphere >= -radius - radiusOffsetInCaseItDoesNotRenderProperly) {
-                        Vector3f vt = new Vector3f(i * 2 + x, j * 2 + y, k * 2 + z);
-                        makeBrick(vt);
-                    }
+    /**
+     * Attaches the (still empty) scene and physics views of the world, chunks
+     * show up in them as they are built.
+     */
+    public void initWorld() {
+        worldNode = new VoxelWorldNode("planet", world, wall_mat);
+        worldPhysics = new VoxelWorldPhysics(world, bulletAppState.getPhysicsSpace());
+        rootNode.attachChild(worldNode);
+        craters = new CraterSystem(world, new CraterSystem.Editor() {
+            public boolean canEdit(int chunkX, int chunkY, int chunkZ) {
+                return streamer != null && streamer.canEdit(chunkX, chunkY, chunkZ);
+            }
+
+            public void rebuild(Chunk chunk, boolean edited) {
+                rebuildChunk(chunk);
+                if (edited) {
+                    streamer.chunkChanged(chunk);
+                }
+            }
+        }, CRATER_MIN_IMPULSE, CRATER_RADIUS);
+        bulletAppState.getPhysicsSpace().addCollisionListener(craters);
+    }
+
+    /**
+     * Places the planets of the galaxy and sets up the view that draws their
+     * proxies behind the voxels. Planets that come within the detail
+     * distance are streamed in, and streamed out again once they went back
+     * to their proxy.
+     */
+    public void initGalaxy() {
+        planetLod = new PlanetLodManager(wall_mat, PLANET_DETAIL_DISTANCE);
+        planetLod.setHysteresis(PLANET_DETAIL_HYSTERESIS);
+        planetLod.addPlanet("home", 0, 0, 0, PLANET_RADIUS - 1, PLANET_RADIUS);
+        Random random = new Random(GALAXY_SEED);
+        float gap = PLANET_DETAIL_DISTANCE + PLANET_DETAIL_HYSTERESIS;
+        for (int tries = 0; planetLod.getPlanets().size() <= GALAXY_PLANETS && tries < 1000; tries++) {
+            Vector3f location = new Vector3f(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f);
+            location.normalizeLocal().multLocal(400f + random.nextFloat() * 1600f);
+            int radius = 10 + random.nextInt(31);
+            boolean free = true;
+            for (PlanetLodManager.Planet planet : planetLod.getPlanets()) {
+                // no two planets are detailed because of the same spot
+                if (planet.getSurfaceDistance(location) < radius * VoxelWorld.BLOCK_SIZE + 2 * gap) {
+                    free = false;
+                    break;
                 }
             }
+            if (free) {
+                planetLod.addPlanet("planet " + planetLod.getPlanets().size(), VoxelWorld.toBlock(location.x),
+                        VoxelWorld.toBlock(location.y), VoxelWorld.toBlock(location.z), radius - 1, radius);
+            }
         }
+        planetLod.setListener(new PlanetLodManager.Listener() {
+            public void onDetailChanged(PlanetLodManager.Planet planet) {
+                // chunks streamed in before are missing or still have the planet
+                streamer.invalidate(planet.getCenter(), planet.getOuterRadius() * VoxelWorld.BLOCK_SIZE);
+            }
+        });
+
+        // the galaxy view is drawn first, the main view draws the voxels over it
+        galaxyCam = cam.clone();
+        galaxyCam.setFrustumPerspective(45f, (float) cam.getWidth() / cam.getHeight(), PROXY_DISTANCE, GALAXY_DISTANCE);
+        ViewPort galaxyView = renderManager.createPreView("galaxy", galaxyCam);
+        galaxyView.setClearFlags(true, true, true);
+        galaxyView.setBackgroundColor(viewPort.getBackgroundColor());
+        galaxyView.attachScene(planetLod.getProxyNode());
+        viewPort.setClearFlags(false, true, true);
     }
 
-    private float isPartOfSphere(float x, float y, float z, float R) { // Implicit circle equation
-        return x * x + y * y + z * z - R * R;
+    /**
+     * Removes the brick the camera looks at, if it is within reach.
+     */
+    public void digBlock() {
+        if (raycast.cast(cam.getLocation(), cam.getDirection(), EDIT_REACH)) {
+            editBlock(raycast.getBlockX(), raycast.getBlockY(), raycast.getBlockZ(), VoxelWorld.AIR);
+        }
+    }
+
+    /**
+     * Puts a brick onto the face of the brick the camera looks at, unless
+     * it would end up inside the player.
+     */
+    public void placeBlock() {
+        if (!raycast.cast(cam.getLocation(), cam.getDirection(), EDIT_REACH)) {
+            return;
+        }
+        if (raycast.getNormalX() == 0 && raycast.getNormalY() == 0 && raycast.getNormalZ() == 0) {
+            // the camera is inside the brick
+            return;
+        }
+        int x = raycast.getBlockX() + raycast.getNormalX();
+        int y = raycast.getBlockY() + raycast.getNormalY();
+        int z = raycast.getBlockZ() + raycast.getNormalZ();
+        if (player != null && touchesPlayer(x, y, z)) {
+            return;
+        }
+        editBlock(x, y, z, VoxelWorld.BRICK);
+    }
+
+    /**
+     * @return true if the block's bounding sphere reaches into the player's capsule
+     */
+    private boolean touchesPlayer(int x, int y, int z) {
+        Vector3f center = world.getWorldLocation(x, y, z, null).subtractLocal(player.getPhysicsLocation());
+        Vector3f up = player.getUpDirection();
+        float along = Math.max(-capsuleShape.getHeight() / 2, Math.min(capsuleShape.getHeight() / 2, center.dot(up)));
+        float reach = capsuleShape.getRadius() + VoxelWorld.BLOCK_SIZE * 0.8660254f;
+        return center.subtractLocal(up.mult(along)).lengthSquared() < reach * reach;
+    }
+
+    /**
+     * Changes one block and rebuilds its chunk in this frame, plus every
+     * neighbour chunk whose border faces touch the block. Blocks of chunks
+     * that are not streamed in yet stay as they are.
+     */
+    public void editBlock(int x, int y, int z, byte id) {
+        int chunkX = x >> Chunk.SHIFT;
+        int chunkY = y >> Chunk.SHIFT;
+        int chunkZ = z >> Chunk.SHIFT;
+        if (!streamer.canEdit(chunkX, chunkY, chunkZ) || world.setBlock(x, y, z, id) == id) {
+            return;
+        }
+        Chunk chunk = world.getChunk(chunkX, chunkY, chunkZ);
+        rebuildChunk(chunk);
+        streamer.chunkChanged(chunk);
+        rebuildBorder(x & Chunk.MASK, chunkX, chunkY, chunkZ, 1, 0, 0);
+        rebuildBorder(y & Chunk.MASK, chunkX, chunkY, chunkZ, 0, 1, 0);
+        rebuildBorder(z & Chunk.MASK, chunkX, chunkY, chunkZ, 0, 0, 1);
+    }
+
+    /**
+     * Rebuilds the neighbour chunk along one axis if the block at local
+     * coordinate local lies on that border.
+     */
+    private void rebuildBorder(int local, int chunkX, int chunkY, int chunkZ, int axisX, int axisY, int axisZ) {
+        int side = local == 0 ? -1 : local == Chunk.MASK ? 1 : 0;
+        if (side == 0) {
+            return;
+        }
+        Chunk neighbour = world.getChunk(chunkX + side * axisX, chunkY + side * axisY, chunkZ + side * axisZ);
+        if (neighbour != null) {
+            rebuildChunk(neighbour);
+        }
+    }
+
+    /**
+     * Meshes one chunk and hands the mesh to both the scene and the physics
+     * space. Call this after the blocks of a chunk changed.
+     */
+    public void rebuildChunk(Chunk chunk) {
+        mesher.mesh(world, chunk);
+        Mesh mesh = mesher.toMesh();
+        worldNode.setChunkMesh(chunk, mesh);
+        worldPhysics.setChunkMesh(chunk, mesh);
     }
 
 
@@ -322,44 +764,13 @@ public class SuperMinecraftGalaxy extends SimpleApplication implements ActionLis
     }
 
     /**
-     * This method creates one individual physical brick.
-     */
-    public void makeBrick(Vector3f loc) {
-        /** Create a brick geometry and attach to scene graph. */
-        Geometry brick_geo = new Geometry("brick", box);
-        brick_geo.setMaterial(wall_mat);
-        rootNode.attachChild(brick_geo);
-/** Position the brick geometry and activate shadows */
-        brick_geo.setLocalTranslation(loc);
-//        brick_geo.setShadowMode(ShadowMode.CastAndReceive);
-/** Make brick physical with a mass > 0.0f. */
-        brick_phy = new RigidBodyControl(0f);
-/** Add physical brick to physics space. */
-        brick_geo.addControl(brick_phy);
-        bulletAppState.getPhysicsSpace().add(brick_phy);
-
-    }
-
-    /**
-     * This method creates one individual physical cannon ball.
+     * This method shoots one physical cannon ball.
      * By defaul, the ball is accelerated and flies
      * from the camera position in the camera direction.
+     * The pool reuses old balls once too many are flying.
      */
     public void makeCannonBall() {
-        /** Create a cannon ball geometry and attach to scene graph. */
-        Geometry ball_geo = new Geometry("cannon ball", sphere);
-        ball_geo.setMaterial(stone_mat);
-        rootNode.attachChild(ball_geo);
-/** Position the cannon ball and activate shadows */
-        ball_geo.setLocalTranslation(cam.getLocation());
-        ball_geo.setShadowMode(ShadowMode.CastAndReceive);
-/** Make the ball physcial with a mass > 0.0f */
-        ball_phy = new RigidBodyControl(1f);
-/** Add physical ball to physics space. */
-        ball_geo.addControl(ball_phy);
-        bulletAppState.getPhysicsSpace().add(ball_phy);
-/** Accelerate the physcial ball to shoot it. */
-        ball_phy.setLinearVelocity(cam.getDirection().mult(25));
+        cannonBalls.fire(cam.getLocation(), cam.getDirection().mult(GameSetup.CANNON_BALL_SPEED));
     }
 
     /**
@@ -382,6 +793,9 @@ public class SuperMinecraftGalaxy extends SimpleApplication implements ActionLis
      * We do not walk yet, we just keep track of the direction the user pressed.
      */
     public void onAction(String binding, boolean value, float tpf) {
+        if (!acceptAction(binding, value)) {
+            return;
+        }
         if (binding.equals("Lefts")) {
             left = value;
         } else if (binding.equals("Rights")) {
@@ -390,8 +804,30 @@ public class SuperMinecraftGalaxy extends SimpleApplication implements ActionLis
             up = value;
         } else if (binding.equals("Downs")) {
             down = value;
-        } else if (binding.equals("Jumps")) {
+        } else if (binding.equals("Jumps") && player != null) {
             player.jump();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * While replaying only the recorded actions get through, while recording
+     * every action is logged. Actions before the recording starts are
+     * dropped, the replay could not repeat them.
+     */
+    private boolean acceptAction(String binding, boolean value) {
+        if (replayer != null) {
+            return replayingEvents;
+        }
+        if (recordFile != null && recorder == null) {
+            return false;
+        }
+        if (recorder != null) {
+            try {
+                recorder.action(binding, value);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return true;
+    }
+}
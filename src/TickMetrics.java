@@ -0,0 +1,346 @@
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.PhysicsTickListener;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Timings and counters of the phases of a physics tick and of the frame
+ * update, kept in {@link TickHistogram}s. Published as the MXBean
+ * {@value #OBJECT_NAME} by {@link #registerMBean}, and as JFR events when
+ * the JVM has Flight Recorder.<p>
+ *
+ * Measuring is off unless the system property {@code tickMetrics} is true
+ * or it is switched on through {@link #setEnabled} or JMX. Off, a phase
+ * costs one field read and no clock call:
+ * <pre>
+ * long start = TickMetrics.start();
+ * ...
+ * TickMetrics.stop(TickMetrics.Metric.STEP_UP, start);
+ * </pre>
+ * The metrics are global as the phases happen deep inside the character
+ * controllers, which may step on several threads at once.
+ */
+public final class TickMetrics {
+
+    public static final String OBJECT_NAME = "superMinecraftGalaxy:type=TickMetrics";
+
+    public enum Metric {
+
+        /**
+         * a physics tick from the first prePhysicsTick to the first
+         * physicsTick: the pre-tick listeners and the step, not the other
+         * post-tick listeners
+         */
+        TICK(true),
+        /**
+         * GravitySystem.prePhysicsTick
+         */
+        GRAVITY(true),
+        /**
+         * a character's preStep, penetration recovery included
+         */
+        PRE_STEP(true),
+        /**
+         * all recoverFromPenetration loops of a preStep
+         */
+        RECOVERY(true),
+        STEP_UP(true),
+        STEP_FORWARD(true),
+        STEP_DOWN(true),
+        /**
+         * the game's simpleUpdate
+         */
+        SIMPLE_UPDATE(true),
+        /**
+         * CraterSystem carving one batch of impacts and rebuilding its chunks
+         */
+        CRATER_BATCH(true),
+        /**
+         * recoverFromPenetration loops of a preStep
+         */
+        RECOVERY_LOOPS(false),
+        /**
+         * overlapping pairs dispatched by the recovery of a preStep
+         */
+        RECOVERY_PAIRS(false),
+        /**
+         * contact points looked at by the recovery of a preStep
+         */
+        RECOVERY_CONTACTS(false),
+        /**
+         * loop iterations of a stepForwardAndStrafe
+         */
+        FORWARD_ITERATIONS(false),
+        /**
+         * convex sweeps of a character step
+         */
+        SWEEPS(false),
+        /**
+         * impacts merged into one crater batch
+         */
+        CRATER_IMPACTS(false),
+        /**
+         * chunks rebuilt for one crater batch
+         */
+        CRATER_REBUILDS(false);
+
+        private final boolean nanos;
+
+        Metric(boolean nanos) {
+            this.nanos = nanos;
+        }
+
+        public boolean isNanos() {
+            return nanos;
+        }
+    }
+
+    private static final Metric[] METRICS = Metric.values();
+    private static final TickHistogram[] histograms = new TickHistogram[METRICS.length];
+    // sums of the running tick, for its JFR event
+    private static final LongAdder[] tickSums = new LongAdder[METRICS.length];
+    private static final AtomicLong ticks = new AtomicLong();
+    private static final boolean flightRecorder = hasFlightRecorder();
+    private static volatile boolean enabled = Boolean.getBoolean("tickMetrics");
+    private static long tickStart;
+
+    static {
+        for (int i = 0; i < METRICS.length; i++) {
+            histograms[i] = new TickHistogram();
+            tickSums[i] = new LongAdder();
+        }
+    }
+
+    private TickMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        TickMetrics.enabled = enabled;
+    }
+
+    /**
+     * @return the time to hand to {@link #stop}, 0 while disabled
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since start, nothing if start is 0.
+     */
+    public static void stop(Metric metric, long start) {
+        if (start == 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        record(metric, nanos);
+        if (metric == Metric.SIMPLE_UPDATE && flightRecorder) {
+            TickMetricsEvents.commitUpdate(nanos);
+        }
+    }
+
+    /**
+     * Records a count, e.g. the iterations of a loop.
+     */
+    public static void count(Metric metric, long value) {
+        if (enabled) {
+            record(metric, value);
+        }
+    }
+
+    private static void record(Metric metric, long value) {
+        histograms[metric.ordinal()].record(value);
+        tickSums[metric.ordinal()].add(value);
+    }
+
+    /**
+     * Adds the listener that measures {@link Metric#TICK} to a space. Add it
+     * before the other tick listeners. jME calls both halves in the order
+     * the listeners were added, so the tick starts before every pre-tick
+     * listener and ends before any other listener sees the stepped space.
+     */
+    public static void attach(PhysicsSpace space) {
+        space.addTickListener(new PhysicsTickListener() {
+            public void prePhysicsTick(PhysicsSpace space, float f) {
+                beginTick();
+            }
+
+            public void physicsTick(PhysicsSpace space, float f) {
+                endTick();
+            }
+        });
+    }
+
+    static void beginTick() {
+        if (!enabled) {
+            // off, a tick costs one field read like a phase does
+            tickStart = 0;
+            return;
+        }
+        for (LongAdder sum : tickSums) {
+            sum.reset();
+        }
+        tickStart = System.nanoTime();
+        if (flightRecorder) {
+            TickMetricsEvents.beginTick();
+        }
+    }
+
+    static void endTick() {
+        if (tickStart == 0) {
+            return;
+        }
+        stop(Metric.TICK, tickStart);
+        tickStart = 0;
+        long tick = ticks.incrementAndGet();
+        if (flightRecorder) {
+            TickMetricsEvents.commitTick(tick, tickSums);
+        }
+    }
+
+    public static TickHistogram getHistogram(Metric metric) {
+        return histograms[metric.ordinal()];
+    }
+
+    /**
+     * @return ticks measured since the last reset
+     */
+    public static long getTicks() {
+        return ticks.get();
+    }
+
+    public static void reset() {
+        for (TickHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        ticks.set(0);
+    }
+
+    /**
+     * @return one line per metric with count, mean, percentiles and
+     * maximum, times in microseconds
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-20s %10s %10s %10s %10s %10s %10s%n", "metric", "count", "mean", "p50", "p90", "p99", "max"));
+        for (Metric metric : METRICS) {
+            TickHistogram histogram = getHistogram(metric);
+            double scale = metric.isNanos() ? 1e3 : 1;
+            report.append(String.format("%-20s %10d %10.2f %10.2f %10.2f %10.2f %10.2f%n", metric, histogram.getCount(),
+                    histogram.getMean() / scale, histogram.getPercentile(0.5) / scale, histogram.getPercentile(0.9) / scale,
+                    histogram.getPercentile(0.99) / scale, histogram.getMax() / scale));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Registers the MXBean with the platform MBean server, once.
+     */
+    public static void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new Bean(), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("could not register " + OBJECT_NAME, e);
+        }
+    }
+
+    private static boolean hasFlightRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * What JMX shows of one metric, times in microseconds.
+     */
+    public static class Summary {
+
+        private final Metric metric;
+        private final TickHistogram histogram;
+        private final double scale;
+
+        Summary(Metric metric) {
+            this.metric = metric;
+            this.histogram = getHistogram(metric);
+            this.scale = metric.isNanos() ? 1e3 : 1;
+        }
+
+        public String getUnit() {
+            return metric.isNanos() ? "us" : "count";
+        }
+
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        public double getMean() {
+            return histogram.getMean() / scale;
+        }
+
+        public double getP50() {
+            return histogram.getPercentile(0.5) / scale;
+        }
+
+        public double getP90() {
+            return histogram.getPercentile(0.9) / scale;
+        }
+
+        public double getP99() {
+            return histogram.getPercentile(0.99) / scale;
+        }
+
+        public double getMax() {
+            return histogram.getMax() / scale;
+        }
+    }
+
+    private static class Bean implements TickMetricsMXBean {
+
+        public boolean isEnabled() {
+            return TickMetrics.isEnabled();
+        }
+
+        public void setEnabled(boolean enabled) {
+            TickMetrics.setEnabled(enabled);
+        }
+
+        public long getTicks() {
+            return TickMetrics.getTicks();
+        }
+
+        public Map<String, Summary> getMetrics() {
+            Map<String, Summary> metrics = new LinkedHashMap<String, Summary>();
+            for (Metric metric : METRICS) {
+                metrics.put(metric.name(), new Summary(metric));
+            }
+            return Collections.unmodifiableMap(metrics);
+        }
+
+        public String report() {
+            return TickMetrics.report();
+        }
+
+        public void reset() {
+            TickMetrics.reset();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The Flight Recorder events of {@link TickMetrics}. Only loaded when the
+ * JVM has JFR, so the game still runs on JVMs without it. An event costs
+ * nothing more than its allocation unless a recording enabled it, e.g.
+ * {@code -XX:StartFlightRecording} or {@code jcmd <pid> JFR.start}.
+ */
+final class TickMetricsEvents {
+
+    // ticks only run on the physics thread
+    private static PhysicsTickEvent tick;
+
+    private TickMetricsEvents() {
+    }
+
+    static void beginTick() {
+        tick = new PhysicsTickEvent();
+        tick.begin();
+    }
+
+    static void commitTick(long number, LongAdder[] sums) {
+        PhysicsTickEvent event = tick;
+        tick = null;
+        if (event == null || !event.shouldCommit()) {
+            return;
+        }
+        event.tick = number;
+        event.gravity = sums[TickMetrics.Metric.GRAVITY.ordinal()].sum();
+        event.preStep = sums[TickMetrics.Metric.PRE_STEP.ordinal()].sum();
+        event.recovery = sums[TickMetrics.Metric.RECOVERY.ordinal()].sum();
+        event.stepUp = sums[TickMetrics.Metric.STEP_UP.ordinal()].sum();
+        event.stepForward = sums[TickMetrics.Metric.STEP_FORWARD.ordinal()].sum();
+        event.stepDown = sums[TickMetrics.Metric.STEP_DOWN.ordinal()].sum();
+        event.recoveryLoops = sums[TickMetrics.Metric.RECOVERY_LOOPS.ordinal()].sum();
+        event.recoveryPairs = sums[TickMetrics.Metric.RECOVERY_PAIRS.ordinal()].sum();
+        event.recoveryContacts = sums[TickMetrics.Metric.RECOVERY_CONTACTS.ordinal()].sum();
+        event.forwardIterations = sums[TickMetrics.Metric.FORWARD_ITERATIONS.ordinal()].sum();
+        event.sweeps = sums[TickMetrics.Metric.SWEEPS.ordinal()].sum();
+        event.commit();
+    }
+
+    static void commitUpdate(long nanos) {
+        FrameUpdateEvent event = new FrameUpdateEvent();
+        if (event.isEnabled()) {
+            event.update = nanos;
+            event.commit();
+        }
+    }
+
+    @Name("superMinecraftGalaxy.PhysicsTick")
+    @Label("Physics Tick")
+    @Category({"Super Minecraft Galaxy", "Physics"})
+    @Description("One physics tick with the time its phases took, summed over all characters")
+    @StackTrace(false)
+    static class PhysicsTickEvent extends Event {
+
+        @Label("Tick")
+        long tick;
+
+        @Label("Gravity")
+        @Timespan
+        long gravity;
+
+        @Label("Pre Step")
+        @Timespan
+        long preStep;
+
+        @Label("Penetration Recovery")
+        @Timespan
+        long recovery;
+
+        @Label("Step Up")
+        @Timespan
+        long stepUp;
+
+        @Label("Step Forward And Strafe")
+        @Timespan
+        long stepForward;
+
+        @Label("Step Down")
+        @Timespan
+        long stepDown;
+
+        @Label("Recovery Loops")
+        long recoveryLoops;
+
+        @Label("Recovery Pairs")
+        long recoveryPairs;
+
+        @Label("Recovery Contacts")
+        long recoveryContacts;
+
+        @Label("Forward Iterations")
+        long forwardIterations;
+
+        @Label("Convex Sweeps")
+        long sweeps;
+    }
+
+    @Name("superMinecraftGalaxy.FrameUpdate")
+    @Label("Frame Update")
+    @Category({"Super Minecraft Galaxy", "Frame"})
+    @Description("The game's simpleUpdate of one frame")
+    @StackTrace(false)
+    static class FrameUpdateEvent extends Event {
+
+        @Label("Update")
+        @Timespan
+        long update;
+    }
+}
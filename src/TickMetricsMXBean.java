@@ -0,0 +1,29 @@
+import java.util.Map;
+
+/**
+ * JMX view of {@link TickMetrics}, registered as
+ * {@value TickMetrics#OBJECT_NAME}.
+ */
+public interface TickMetricsMXBean {
+
+    boolean isEnabled();
+
+    /**
+     * Switches measuring on or off while the game runs.
+     */
+    void setEnabled(boolean enabled);
+
+    long getTicks();
+
+    /**
+     * @return count, mean, p50, p90, p99 and max of every metric by name
+     */
+    Map<String, TickMetrics.Summary> getMetrics();
+
+    /**
+     * @return all metrics as a text table
+     */
+    String report();
+
+    void reset();
+}
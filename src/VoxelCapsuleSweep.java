@@ -0,0 +1,312 @@
+import com.bulletphysics.collision.broadphase.CollisionFilterGroups;
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.collision.dispatch.CollisionWorld;
+import com.bulletphysics.collision.dispatch.PairCachingGhostObject;
+import com.bulletphysics.collision.shapes.CapsuleShape;
+import com.bulletphysics.collision.shapes.ConvexShape;
+import com.bulletphysics.linearmath.Transform;
+import javax.vecmath.Vector3f;
+
+/**
+ * Sweeps a character capsule straight through the cells of a
+ * {@link VoxelWorld} instead of through Bullet's broadphase and GJK. The
+ * world is assumed to sit at the origin, block (x, y, z) being a box of half
+ * extent 1 around (x, y, z) * BLOCK_SIZE.<p>
+ *
+ * Hitting a brick with the capsule is the same as hitting the Minkowski sum
+ * of both with the capsule's center point: the brick stretched by the half
+ * height of the capsule along its axis, rounded by the capsule radius. That
+ * rounded box is tested as three boxes, each grown by the radius along one
+ * axis, twelve edge cylinders and eight corner spheres. Every solid cell near
+ * the path is reported to the callback like a separate brick object would be
+ * reported by Bullet, so the controller's slope filter works as before.<p>
+ *
+ * Only static bricks are hit, characters using it walk through dynamic
+ * bodies. Other shapes than capsules are swept by the ghost object.
+ * Not thread safe, give every character its own instance.
+ */
+public class VoxelCapsuleSweep implements DanielKinematicCharacterController.SweepTest {
+
+    private static final float EPSILON = 1e-6f;
+
+    private final VoxelWorld world;
+    /**
+     * reported as the hit object for every brick
+     */
+    private final CollisionObject voxelObject = new CollisionObject();
+    private final CollisionWorld.LocalConvexResult result =
+            new CollisionWorld.LocalConvexResult(voxelObject, null, new Vector3f(), new Vector3f(), 0f);
+
+    // scratch state of one sweep
+    private final float[] from = new float[3];
+    private final float[] move = new float[3];
+    private final float[] center = new float[3];
+    private final float[] extent = new float[3];
+    private final float[] normal = new float[3];
+    private final float[] hitNormal = new float[3];
+    private final int[] min = new int[3];
+    private final int[] max = new int[3];
+    private float radius;
+    private int testedCells;
+
+    public VoxelCapsuleSweep(VoxelWorld world) {
+        this.world = world;
+    }
+
+    /**
+     * @return a new sweep over the same world, for another character
+     */
+    public VoxelCapsuleSweep copy() {
+        return new VoxelCapsuleSweep(world);
+    }
+
+    /**
+     * @return the object reported as hit for bricks
+     */
+    public CollisionObject getVoxelObject() {
+        return voxelObject;
+    }
+
+    /**
+     * @return number of solid cells looked at in the last sweep
+     */
+    public int getTestedCells() {
+        return testedCells;
+    }
+
+    public void convexSweepTest(CollisionWorld collisionWorld, PairCachingGhostObject ghostObject, ConvexShape shape,
+            Transform start, Transform end, CollisionWorld.ConvexResultCallback callback) {
+        float allowedPenetration = collisionWorld.getDispatchInfo().allowedCcdPenetration;
+        if (!(shape instanceof CapsuleShape)) {
+            ghostObject.convexSweepTest(shape, start, end, callback, allowedPenetration);
+            return;
+        }
+        testedCells = 0;
+        if ((callback.collisionFilterMask & CollisionFilterGroups.STATIC_FILTER) == 0) {
+            return;
+        }
+        CapsuleShape capsule = (CapsuleShape) shape;
+        radius = capsule.getRadius();
+        int axis = capsule.getUpAxis();
+        float halfHeight = capsule.getHalfHeight();
+        from[0] = start.origin.x;
+        from[1] = start.origin.y;
+        from[2] = start.origin.z;
+        move[0] = end.origin.x - from[0];
+        move[1] = end.origin.y - from[1];
+        move[2] = end.origin.z - from[2];
+
+        // cells whose rounded box can touch the path of the center
+        for (int k = 0; k < 3; k++) {
+            float reach = radius + (k == axis ? halfHeight : 0f);
+            float low = Math.min(from[k], from[k] + move[k]) - reach;
+            float high = Math.max(from[k], from[k] + move[k]) + reach;
+            min[k] = VoxelWorld.toBlock(low);
+            max[k] = VoxelWorld.toBlock(high);
+        }
+        float half = VoxelWorld.BLOCK_SIZE * .5f;
+        for (int k = 0; k < 3; k++) {
+            extent[k] = half + (k == axis ? halfHeight : 0f);
+        }
+        for (int x = min[0]; x <= max[0]; x++) {
+            for (int y = min[1]; y <= max[1]; y++) {
+                for (int z = min[2]; z <= max[2]; z++) {
+                    if (!world.isSolid(x, y, z)) {
+                        continue;
+                    }
+                    testedCells++;
+                    center[0] = VoxelWorld.toWorld(x);
+                    center[1] = VoxelWorld.toWorld(y);
+                    center[2] = VoxelWorld.toWorld(z);
+                    float t = sweepCell(allowedPenetration);
+                    if (t >= 0 && t < callback.closestHitFraction) {
+                        report(callback, t, axis, half);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the fraction of the move at which the center enters the rounded
+     * box of the cell in {@link #center}, or -1 if it does not
+     */
+    private float sweepCell(float allowedPenetration) {
+        // starting inside: shallow contacts the character moves into are hits
+        // at 0, deeper ones are left to the penetration recovery
+        float distance2 = 0;
+        for (int k = 0; k < 3; k++) {
+            float d = from[k] - clamp(from[k], center[k] - extent[k], center[k] + extent[k]);
+            normal[k] = d;
+            distance2 += d * d;
+        }
+        if (distance2 < radius * radius) {
+            float distance = (float) Math.sqrt(distance2);
+            float approach = normal[0] * move[0] + normal[1] * move[1] + normal[2] * move[2];
+            if (distance > EPSILON && distance > radius - allowedPenetration && approach < 0) {
+                for (int k = 0; k < 3; k++) {
+                    hitNormal[k] = normal[k] / distance;
+                }
+                return 0f;
+            }
+            return -1f;
+        }
+
+        float best = 2f;
+        // faces: the box grown by the radius along one axis
+        for (int k = 0; k < 3; k++) {
+            float t = sweepBox(k);
+            if (t >= 0 && t < best) {
+                best = t;
+                copyNormal();
+            }
+        }
+        // edges along axis k, at the four corners of the other two axes
+        for (int k = 0; k < 3; k++) {
+            int i = (k + 1) % 3;
+            int j = (k + 2) % 3;
+            for (int corner = 0; corner < 4; corner++) {
+                float ci = center[i] + ((corner & 1) != 0 ? extent[i] : -extent[i]);
+                float cj = center[j] + ((corner & 2) != 0 ? extent[j] : -extent[j]);
+                float t = sweepEdge(k, i, j, ci, cj);
+                if (t >= 0 && t < best) {
+                    best = t;
+                    copyNormal();
+                }
+            }
+        }
+        // corners
+        for (int corner = 0; corner < 8; corner++) {
+            float t = sweepSphere(center[0] + ((corner & 1) != 0 ? extent[0] : -extent[0]),
+                    center[1] + ((corner & 2) != 0 ? extent[1] : -extent[1]),
+                    center[2] + ((corner & 4) != 0 ? extent[2] : -extent[2]));
+            if (t >= 0 && t < best) {
+                best = t;
+                copyNormal();
+            }
+        }
+        return best <= 1f ? best : -1f;
+    }
+
+    /**
+     * Slab test against the cell's box grown by the radius along axis grow.
+     */
+    private float sweepBox(int grow) {
+        float enter = -Float.MAX_VALUE;
+        float exit = Float.MAX_VALUE;
+        int enterAxis = -1;
+        for (int k = 0; k < 3; k++) {
+            float e = extent[k] + (k == grow ? radius : 0f);
+            float low = center[k] - e - from[k];
+            float high = center[k] + e - from[k];
+            if (Math.abs(move[k]) < EPSILON) {
+                if (low > 0 || high < 0) {
+                    return -1f;
+                }
+                continue;
+            }
+            float t0 = low / move[k];
+            float t1 = high / move[k];
+            if (t0 > t1) {
+                float swap = t0;
+                t0 = t1;
+                t1 = swap;
+            }
+            if (t0 > enter) {
+                enter = t0;
+                enterAxis = k;
+            }
+            exit = Math.min(exit, t1);
+        }
+        if (enterAxis < 0 || enter > exit || enter < 0 || enter > 1f) {
+            return -1f;
+        }
+        normal[0] = normal[1] = normal[2] = 0;
+        normal[enterAxis] = move[enterAxis] > 0 ? -1f : 1f;
+        return enter;
+    }
+
+    /**
+     * Hits the cylinder of the radius around the edge along axis k through
+     * (ci, cj), between the ends of the cell's box.
+     */
+    private float sweepEdge(int k, int i, int j, float ci, float cj) {
+        float oi = from[i] - ci;
+        float oj = from[j] - cj;
+        float a = move[i] * move[i] + move[j] * move[j];
+        if (a < EPSILON) {
+            return -1f;
+        }
+        float b = oi * move[i] + oj * move[j];
+        float c = oi * oi + oj * oj - radius * radius;
+        float discriminant = b * b - a * c;
+        if (c < 0 || discriminant < 0) {
+            return -1f;
+        }
+        float t = (-b - (float) Math.sqrt(discriminant)) / a;
+        if (t < 0 || t > 1f) {
+            return -1f;
+        }
+        float along = from[k] + t * move[k];
+        if (along < center[k] - extent[k] || along > center[k] + extent[k]) {
+            return -1f;
+        }
+        normal[i] = (oi + t * move[i]) / radius;
+        normal[j] = (oj + t * move[j]) / radius;
+        normal[k] = 0;
+        return t;
+    }
+
+    private float sweepSphere(float x, float y, float z) {
+        float ox = from[0] - x;
+        float oy = from[1] - y;
+        float oz = from[2] - z;
+        float a = move[0] * move[0] + move[1] * move[1] + move[2] * move[2];
+        if (a < EPSILON) {
+            return -1f;
+        }
+        float b = ox * move[0] + oy * move[1] + oz * move[2];
+        float c = ox * ox + oy * oy + oz * oz - radius * radius;
+        float discriminant = b * b - a * c;
+        if (c < 0 || discriminant < 0) {
+            return -1f;
+        }
+        float t = (-b - (float) Math.sqrt(discriminant)) / a;
+        if (t < 0 || t > 1f) {
+            return -1f;
+        }
+        normal[0] = (ox + t * move[0]) / radius;
+        normal[1] = (oy + t * move[1]) / radius;
+        normal[2] = (oz + t * move[2]) / radius;
+        return t;
+    }
+
+    private void copyNormal() {
+        hitNormal[0] = normal[0];
+        hitNormal[1] = normal[1];
+        hitNormal[2] = normal[2];
+    }
+
+    /**
+     * Hands a brick hit to the callback, with the point on the brick closest
+     * to the capsule at the time of the hit.
+     */
+    private void report(CollisionWorld.ConvexResultCallback callback, float t, int axis, float half) {
+        result.hitFraction = t;
+        result.hitNormalLocal.set(hitNormal[0], hitNormal[1], hitNormal[2]);
+        float[] point = normal;
+        for (int k = 0; k < 3; k++) {
+            float position = from[k] + t * move[k];
+            point[k] = clamp(position, center[k] - extent[k], center[k] + extent[k]);
+            if (k == axis) {
+                point[k] = clamp(point[k], center[k] - half, center[k] + half);
+            }
+        }
+        result.hitPointLocal.set(point[0], point[1], point[2]);
+        callback.addSingleResult(result, true);
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+}
@@ -0,0 +1,493 @@
+import java.util.Arrays;
+
+/**
+ * A sparse voxel octree over a cube of 2^depth blocks per side, centered on
+ * block 0, an alternative to the dense chunks of {@link VoxelWorld} for
+ * planets whose interior and surroundings are mostly one block id. Every
+ * uniform cube is a single leaf, so the memory of a planet follows the area
+ * of its surfaces instead of its volume.<p>
+ *
+ * Nodes live in one int array, in groups of eight children. A child is
+ * either the index of its own group, a leaf holding ~id for a uniform cube,
+ * or for a cube of 2 blocks per side a packed group: ~(256 + index) into a
+ * long array holding the eight block ids as bytes. Surfaces are made of such
+ * cubes, packing them takes 8 bytes instead of a group of 32. Octants are
+ * numbered x first, then y, then z. Edits split leaves down to the block and
+ * merge groups whose children became the same leaf again, so the tree stays
+ * as small as its content allows. Freed groups are reused by later
+ * splits.<p>
+ *
+ * Chunks can be filled from the tree, so it can back a
+ * {@link ChunkStreamer.ChunkSource}, and edited chunks can be written back.
+ * Not thread safe, but lookups may run in parallel while nobody edits.
+ */
+public class VoxelOctree {
+
+    /**
+     * Receives the uniform solid boxes of a region, bounds inclusive in
+     * block coordinates.
+     */
+    public interface RegionVisitor {
+
+        public void visit(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, byte id);
+    }
+
+    private static final int AIR_LEAF = ~VoxelWorld.AIR;
+    /**
+     * nodes below this are packed groups
+     */
+    private static final int LAST_LEAF = ~255;
+    private static final long SAME_BYTES = 0x0101010101010101L;
+
+    private final int depth;
+    private final int half;
+    private int root = AIR_LEAF;
+    private int[] nodes = new int[8 * 64];
+    private int used;
+    private int freeGroup = -1;
+    private int groupCount;
+    private long[] packed = new long[64];
+    private int packedUsed;
+    private int freePacked = -1;
+    private int packedCount;
+
+    //TEMP VARIABLES
+    private final int[] groupPath;
+    private final int[] slotPath;
+
+    /**
+     * @param depth the tree covers blocks -2^(depth - 1) to 2^(depth - 1) - 1
+     * on every axis, 1 to 30
+     */
+    public VoxelOctree(int depth) {
+        if (depth < 1 || depth > 30) {
+            throw new IllegalArgumentException("depth " + depth + " is not between 1 and 30");
+        }
+        this.depth = depth;
+        this.half = 1 << (depth - 1);
+        groupPath = new int[depth];
+        slotPath = new int[depth];
+    }
+
+    /**
+     * @return the smallest depth whose cube holds a sphere of radius bricks
+     * around block 0
+     */
+    public static int depthFor(float radius) {
+        int depth = 1;
+        while ((1 << (depth - 1)) - 1 < Math.ceil(radius)) {
+            depth++;
+        }
+        return depth;
+    }
+
+    public boolean contains(int x, int y, int z) {
+        return ((x + half) | (y + half) | (z + half)) >>> depth == 0;
+    }
+
+    /**
+     * @return the block id, air outside the tree
+     */
+    public byte getBlock(int x, int y, int z) {
+        int ox = x + half;
+        int oy = y + half;
+        int oz = z + half;
+        if ((ox | oy | oz) >>> depth != 0) {
+            return VoxelWorld.AIR;
+        }
+        int node = root;
+        int shift = depth - 1;
+        while (node >= 0) {
+            node = nodes[node + (((ox >> shift) & 1) | (((oy >> shift) & 1) << 1) | (((oz >> shift) & 1) << 2))];
+            shift--;
+        }
+        if (node < LAST_LEAF) {
+            return (byte) (packed[~node - 256] >>> ((ox & 1) | ((oy & 1) << 1) | ((oz & 1) << 2)) * 8);
+        }
+        return (byte) ~node;
+    }
+
+    public boolean isSolid(int x, int y, int z) {
+        return getBlock(x, y, z) != VoxelWorld.AIR;
+    }
+
+    /**
+     * Sets one block, splitting the leaf it is in and merging the groups that
+     * become uniform.
+     *
+     * @return the previous block id at that position
+     */
+    public byte setBlock(int x, int y, int z, byte id) {
+        int ox = x + half;
+        int oy = y + half;
+        int oz = z + half;
+        if ((ox | oy | oz) >>> depth != 0) {
+            throw new IllegalArgumentException("block " + x + "," + y + "," + z + " is outside the octree of depth " + depth);
+        }
+        int leaf = ~(id & 0xff);
+        int node = root;
+        int parentSlot = -1;
+        int level = 0;
+        for (int shift = depth - 1; shift > 0; shift--) {
+            if (node < 0) {
+                if (node == leaf) {
+                    return id;
+                }
+                node = split(node);
+                setSlot(parentSlot, node);
+            }
+            groupPath[level] = node;
+            slotPath[level] = parentSlot;
+            parentSlot = node + (((ox >> shift) & 1) | (((oy >> shift) & 1) << 1) | (((oz >> shift) & 1) << 2));
+            node = nodes[parentSlot];
+            level++;
+        }
+        // node is the cube of 2 blocks per side holding the block
+        if (node >= LAST_LEAF) {
+            if (node == leaf) {
+                return id;
+            }
+            node = pack(node);
+            setSlot(parentSlot, node);
+        }
+        int index = ~node - 256;
+        int bit = ((ox & 1) | ((oy & 1) << 1) | ((oz & 1) << 2)) * 8;
+        long bits = packed[index];
+        byte old = (byte) (bits >>> bit);
+        bits = (bits & ~(0xffL << bit)) | (long) (id & 0xff) << bit;
+        packed[index] = bits;
+        if (bits != (bits & 0xff) * SAME_BYTES) {
+            return old;
+        }
+        freePacked(index);
+        setSlot(parentSlot, ~(int) (bits & 0xff));
+        for (level--; level >= 0; level--) {
+            int group = groupPath[level];
+            if (!isUniform(group)) {
+                break;
+            }
+            int value = nodes[group];
+            freeGroup(group);
+            setSlot(slotPath[level], value);
+        }
+        return old;
+    }
+
+    /**
+     * Adds the bricks of a spherical shell, like
+     * {@link PlanetGenerator#generateShell} does for a {@link VoxelWorld}:
+     * blocks whose squared distance to the center lies between the squared
+     * radii. Uniform parts of the shell become single leaves right away.
+     *
+     * @param innerRadius in bricks, blocks closer to the center are left alone
+     * @param outerRadius in bricks
+     */
+    public void fillShell(int centerX, int centerY, int centerZ, float innerRadius, float outerRadius) {
+        double inner2 = (double) innerRadius * innerRadius;
+        double outer2 = (double) outerRadius * outerRadius;
+        root = fillShell(root, -half, -half, -half, depth, centerX, centerY, centerZ, inner2, outer2);
+    }
+
+    private int fillShell(int node, int x, int y, int z, int shift, int centerX, int centerY, int centerZ,
+                          double inner2, double outer2) {
+        int size = 1 << shift;
+        // distances from the center to the nearest and farthest block of the cube
+        double near2 = 0;
+        double far2 = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            double low = (axis == 0 ? x - centerX : axis == 1 ? y - centerY : z - centerZ);
+            double high = low + size - 1;
+            double near = low > 0 ? low : high < 0 ? -high : 0;
+            double far = Math.max(Math.abs(low), Math.abs(high));
+            near2 += near * near;
+            far2 += far * far;
+        }
+        if (near2 > outer2 || far2 < inner2) {
+            return node;
+        }
+        int brick = ~VoxelWorld.BRICK;
+        if (near2 >= inner2 && far2 <= outer2) {
+            if (node >= 0) {
+                freeTree(node);
+            } else if (node < LAST_LEAF) {
+                freePacked(~node - 256);
+            }
+            return brick;
+        }
+        if (node == brick) {
+            return node;
+        }
+        if (shift == 1) {
+            return fillPacked(node, x, y, z, centerX, centerY, centerZ, inner2, outer2);
+        }
+        if (node < 0) {
+            node = split(node);
+        }
+        int childShift = shift - 1;
+        int childSize = 1 << childShift;
+        for (int octant = 0; octant < 8; octant++) {
+            int child = fillShell(nodes[node + octant], x + ((octant & 1) != 0 ? childSize : 0),
+                    y + ((octant & 2) != 0 ? childSize : 0), z + ((octant & 4) != 0 ? childSize : 0),
+                    childShift, centerX, centerY, centerZ, inner2, outer2);
+            nodes[node + octant] = child;
+        }
+        if (isUniform(node)) {
+            int value = nodes[node];
+            freeGroup(node);
+            return value;
+        }
+        return node;
+    }
+
+    /**
+     * Fills the shell into a cube of 2 blocks per side, block by block.
+     */
+    private int fillPacked(int node, int x, int y, int z, int centerX, int centerY, int centerZ,
+                           double inner2, double outer2) {
+        if (node >= LAST_LEAF) {
+            node = pack(node);
+        }
+        int index = ~node - 256;
+        long bits = packed[index];
+        for (int octant = 0; octant < 8; octant++) {
+            long dx = x + (octant & 1) - centerX;
+            long dy = y + ((octant >> 1) & 1) - centerY;
+            long dz = z + ((octant >> 2) & 1) - centerZ;
+            double distance2 = dx * dx + dy * dy + dz * dz;
+            if (distance2 >= inner2 && distance2 <= outer2) {
+                bits = (bits & ~(0xffL << (octant * 8))) | (long) VoxelWorld.BRICK << (octant * 8);
+            }
+        }
+        packed[index] = bits;
+        if (bits == (bits & 0xff) * SAME_BYTES) {
+            freePacked(index);
+            return ~(int) (bits & 0xff);
+        }
+        return node;
+    }
+
+    /**
+     * Visits the uniform solid boxes that overlap a region, clipped to it.
+     * Bounds are inclusive block coordinates.
+     */
+    public void visitSolid(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, RegionVisitor visitor) {
+        visit(root, -half, -half, -half, depth, minX, minY, minZ, maxX, maxY, maxZ, visitor);
+    }
+
+    private void visit(int node, int x, int y, int z, int shift, int minX, int minY, int minZ,
+                       int maxX, int maxY, int maxZ, RegionVisitor visitor) {
+        int last = (1 << shift) - 1;
+        if (x > maxX || y > maxY || z > maxZ || x + last < minX || y + last < minY || z + last < minZ) {
+            return;
+        }
+        if (node < LAST_LEAF) {
+            long bits = packed[~node - 256];
+            for (int octant = 0; octant < 8; octant++) {
+                byte id = (byte) (bits >>> (octant * 8));
+                int blockX = x + (octant & 1);
+                int blockY = y + ((octant >> 1) & 1);
+                int blockZ = z + ((octant >> 2) & 1);
+                if (id != VoxelWorld.AIR && blockX >= minX && blockX <= maxX && blockY >= minY && blockY <= maxY
+                        && blockZ >= minZ && blockZ <= maxZ) {
+                    visitor.visit(blockX, blockY, blockZ, blockX, blockY, blockZ, id);
+                }
+            }
+            return;
+        }
+        if (node < 0) {
+            if (node != AIR_LEAF) {
+                visitor.visit(Math.max(x, minX), Math.max(y, minY), Math.max(z, minZ),
+                        Math.min(x + last, maxX), Math.min(y + last, maxY), Math.min(z + last, maxZ), (byte) ~node);
+            }
+            return;
+        }
+        int childShift = shift - 1;
+        int childSize = 1 << childShift;
+        for (int octant = 0; octant < 8; octant++) {
+            visit(nodes[node + octant], x + ((octant & 1) != 0 ? childSize : 0), y + ((octant & 2) != 0 ? childSize : 0),
+                    z + ((octant & 4) != 0 ? childSize : 0), childShift, minX, minY, minZ, maxX, maxY, maxZ, visitor);
+        }
+    }
+
+    /**
+     * Copies the blocks of one chunk from the tree into the world. The chunk
+     * is only created if it gets any solid block.
+     *
+     * @return true if the chunk got any blocks
+     */
+    public boolean fillChunk(final VoxelWorld world, final int chunkX, final int chunkY, final int chunkZ) {
+        final int originX = chunkX << Chunk.SHIFT;
+        final int originY = chunkY << Chunk.SHIFT;
+        final int originZ = chunkZ << Chunk.SHIFT;
+        final Chunk[] filled = new Chunk[1];
+        final int[] solid = new int[1];
+        visitSolid(originX, originY, originZ, originX + Chunk.MASK, originY + Chunk.MASK, originZ + Chunk.MASK,
+                new RegionVisitor() {
+                    public void visit(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, byte id) {
+                        if (filled[0] == null) {
+                            filled[0] = world.getOrCreateChunk(chunkX, chunkY, chunkZ);
+                            filled[0].clear();
+                        }
+                        byte[] blocks = filled[0].getBlockArray();
+                        for (int y = minY; y <= maxY; y++) {
+                            for (int z = minZ; z <= maxZ; z++) {
+                                int start = Chunk.index(minX - originX, y - originY, z - originZ);
+                                Arrays.fill(blocks, start, start + maxX - minX + 1, id);
+                            }
+                        }
+                        // the boxes of a tree never overlap
+                        solid[0] += (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+                    }
+                });
+        if (filled[0] == null) {
+            return false;
+        }
+        filled[0].setSolidCount(solid[0]);
+        return true;
+    }
+
+    /**
+     * Writes the blocks of a chunk into the tree, e.g. after it was edited.
+     */
+    public void writeChunk(Chunk chunk) {
+        int originX = chunk.getOriginX();
+        int originY = chunk.getOriginY();
+        int originZ = chunk.getOriginZ();
+        for (int y = 0; y < Chunk.SIZE; y++) {
+            for (int z = 0; z < Chunk.SIZE; z++) {
+                for (int x = 0; x < Chunk.SIZE; x++) {
+                    setBlock(originX + x, originY + y, originZ + z, chunk.getBlock(x, y, z));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of solid blocks in the tree
+     */
+    public long getSolidCount() {
+        final long[] count = new long[1];
+        visitSolid(-half, -half, -half, half - 1, half - 1, half - 1, new RegionVisitor() {
+            public void visit(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, byte id) {
+                count[0] += (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+            }
+        });
+        return count[0];
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return groups of eight children in use
+     */
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    /**
+     * @return packed cubes of 2 blocks per side in use
+     */
+    public int getPackedCount() {
+        return packedCount;
+    }
+
+    /**
+     * @return bytes of the groups and packed cubes in use
+     */
+    public long getUsedBytes() {
+        return (long) groupCount * 8 * 4 + (long) packedCount * 8;
+    }
+
+    /**
+     * @return bytes held by the node arrays, free space included
+     */
+    public long getMemoryBytes() {
+        return (long) nodes.length * 4 + (long) packed.length * 8;
+    }
+
+    /**
+     * @return a group of eight copies of leaf
+     */
+    private int split(int leaf) {
+        int group;
+        if (freeGroup >= 0) {
+            group = freeGroup;
+            freeGroup = nodes[group];
+        } else {
+            if (used + 8 > nodes.length) {
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+            }
+            group = used;
+            used += 8;
+        }
+        Arrays.fill(nodes, group, group + 8, leaf);
+        groupCount++;
+        return group;
+    }
+
+    private void freeGroup(int group) {
+        nodes[group] = freeGroup;
+        freeGroup = group;
+        groupCount--;
+    }
+
+    /**
+     * @return a packed cube of eight copies of leaf
+     */
+    private int pack(int leaf) {
+        int index;
+        if (freePacked >= 0) {
+            index = freePacked;
+            freePacked = (int) packed[index];
+        } else {
+            if (packedUsed == packed.length) {
+                packed = Arrays.copyOf(packed, packed.length * 2);
+            }
+            index = packedUsed++;
+        }
+        packed[index] = (~leaf & 0xff) * SAME_BYTES;
+        packedCount++;
+        return ~(256 + index);
+    }
+
+    private void freePacked(int index) {
+        packed[index] = freePacked;
+        freePacked = index;
+        packedCount--;
+    }
+
+    private void freeTree(int group) {
+        for (int octant = 0; octant < 8; octant++) {
+            int child = nodes[group + octant];
+            if (child >= 0) {
+                freeTree(child);
+            } else if (child < LAST_LEAF) {
+                freePacked(~child - 256);
+            }
+        }
+        freeGroup(group);
+    }
+
+    private boolean isUniform(int group) {
+        int value = nodes[group];
+        if (value >= 0 || value < LAST_LEAF) {
+            return false;
+        }
+        for (int octant = 1; octant < 8; octant++) {
+            if (nodes[group + octant] != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setSlot(int slot, int value) {
+        if (slot < 0) {
+            root = value;
+        } else {
+            nodes[slot] = value;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+import com.jme3.math.Vector3f;
+
+/**
+ * Finds the first solid block along a ray by walking the grid of a
+ * {@link VoxelWorld} one cell at a time (Amanatides and Woo), so picking a
+ * brick costs a few block lookups instead of a ray test against the physics
+ * space. Block (x, y, z) is the cell of edge BLOCK_SIZE centered at
+ * (x, y, z) * BLOCK_SIZE.<p>
+ *
+ * The result of the last cast is kept in the instance: the hit block, the
+ * face it was entered through and the distance along the ray. Not thread
+ * safe, use one per thread.
+ */
+public class VoxelRaycast {
+
+    private final VoxelWorld world;
+
+    private boolean hit;
+    private int blockX;
+    private int blockY;
+    private int blockZ;
+    private int normalX;
+    private int normalY;
+    private int normalZ;
+    private float distance;
+    private int visitedCells;
+
+    public VoxelRaycast(VoxelWorld world) {
+        this.world = world;
+    }
+
+    /**
+     * @param origin start of the ray in world space
+     * @param direction need not be normalized
+     * @param maxDistance in world units
+     * @return true if a solid block was hit within maxDistance
+     */
+    public boolean cast(Vector3f origin, Vector3f direction, float maxDistance) {
+        hit = false;
+        visitedCells = 0;
+        float length = direction.length();
+        if (length == 0) {
+            return false;
+        }
+        float dx = direction.x / length;
+        float dy = direction.y / length;
+        float dz = direction.z / length;
+        // the ray in block units, cell x covers [x, x + 1) there
+        float px = origin.x / VoxelWorld.BLOCK_SIZE + 0.5f;
+        float py = origin.y / VoxelWorld.BLOCK_SIZE + 0.5f;
+        float pz = origin.z / VoxelWorld.BLOCK_SIZE + 0.5f;
+        int x = (int) Math.floor(px);
+        int y = (int) Math.floor(py);
+        int z = (int) Math.floor(pz);
+        int stepX = dx > 0 ? 1 : dx < 0 ? -1 : 0;
+        int stepY = dy > 0 ? 1 : dy < 0 ? -1 : 0;
+        int stepZ = dz > 0 ? 1 : dz < 0 ? -1 : 0;
+        // world distance to cross one cell along each axis, and to the first crossing
+        float deltaX = stepX == 0 ? Float.POSITIVE_INFINITY : VoxelWorld.BLOCK_SIZE / Math.abs(dx);
+        float deltaY = stepY == 0 ? Float.POSITIVE_INFINITY : VoxelWorld.BLOCK_SIZE / Math.abs(dy);
+        float deltaZ = stepZ == 0 ? Float.POSITIVE_INFINITY : VoxelWorld.BLOCK_SIZE / Math.abs(dz);
+        float nextX = stepX == 0 ? Float.POSITIVE_INFINITY : (stepX > 0 ? x + 1 - px : px - x) * deltaX;
+        float nextY = stepY == 0 ? Float.POSITIVE_INFINITY : (stepY > 0 ? y + 1 - py : py - y) * deltaY;
+        float nextZ = stepZ == 0 ? Float.POSITIVE_INFINITY : (stepZ > 0 ? z + 1 - pz : pz - z) * deltaZ;
+        int faceX = 0;
+        int faceY = 0;
+        int faceZ = 0;
+        float travelled = 0;
+        while (travelled <= maxDistance) {
+            visitedCells++;
+            if (world.isSolid(x, y, z)) {
+                hit = true;
+                blockX = x;
+                blockY = y;
+                blockZ = z;
+                normalX = faceX;
+                normalY = faceY;
+                normalZ = faceZ;
+                distance = travelled;
+                return true;
+            }
+            if (nextX <= nextY && nextX <= nextZ) {
+                x += stepX;
+                travelled = nextX;
+                nextX += deltaX;
+                faceX = -stepX;
+                faceY = 0;
+                faceZ = 0;
+            } else if (nextY <= nextZ) {
+                y += stepY;
+                travelled = nextY;
+                nextY += deltaY;
+                faceX = 0;
+                faceY = -stepY;
+                faceZ = 0;
+            } else {
+                z += stepZ;
+                travelled = nextZ;
+                nextZ += deltaZ;
+                faceX = 0;
+                faceY = 0;
+                faceZ = -stepZ;
+            }
+        }
+        return false;
+    }
+
+    public boolean isHit() {
+        return hit;
+    }
+
+    public int getBlockX() {
+        return blockX;
+    }
+
+    public int getBlockY() {
+        return blockY;
+    }
+
+    public int getBlockZ() {
+        return blockZ;
+    }
+
+    /**
+     * @return x of the outward normal of the face the ray entered the block
+     * through, all three are 0 if the ray started inside it
+     */
+    public int getNormalX() {
+        return normalX;
+    }
+
+    public int getNormalY() {
+        return normalY;
+    }
+
+    public int getNormalZ() {
+        return normalZ;
+    }
+
+    /**
+     * @return world distance from the origin to where the ray entered the block
+     */
+    public float getDistance() {
+        return distance;
+    }
+
+    /**
+     * @return cells looked at by the last cast
+     */
+    public int getVisitedCells() {
+        return visitedCells;
+    }
+}
@@ -0,0 +1,128 @@
+import com.jme3.math.Vector3f;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The block model of the world. Blocks live in {@link Chunk}s, which are
+ * looked up by their chunk coordinates packed into a single long.
+ * Block (x, y, z) is a brick centered at (x, y, z) * BLOCK_SIZE in world space.<p>
+ *
+ * Chunks may be created from several threads at once, the blocks of a single
+ * chunk must only be written by one thread at a time.
+ */
+public class VoxelWorld {
+
+    public static final byte AIR = 0;
+    public static final byte BRICK = 1;
+
+    /**
+     * edge length of one block in world units, bricks are boxes with half extent 1
+     */
+    public static final float BLOCK_SIZE = 2f;
+
+    private final ConcurrentMap<Long, Chunk> chunks = new ConcurrentHashMap<Long, Chunk>();
+
+    /**
+     * Packs chunk coordinates into 21 bits each.
+     */
+    public static long chunkKey(int chunkX, int chunkY, int chunkZ) {
+        return ((long) (chunkX & 0x1FFFFF) << 42) | ((long) (chunkY & 0x1FFFFF) << 21) | (long) (chunkZ & 0x1FFFFF);
+    }
+
+    /**
+     * @return the block coordinate containing the world coordinate
+     */
+    public static int toBlock(float world) {
+        return (int) Math.floor(world / BLOCK_SIZE + 0.5f);
+    }
+
+    public static float toWorld(int block) {
+        return block * BLOCK_SIZE;
+    }
+
+    public Vector3f getWorldLocation(int x, int y, int z, Vector3f store) {
+        if (store == null) {
+            store = new Vector3f();
+        }
+        return store.set(toWorld(x), toWorld(y), toWorld(z));
+    }
+
+    public Chunk getChunk(int chunkX, int chunkY, int chunkZ) {
+        return chunks.get(chunkKey(chunkX, chunkY, chunkZ));
+    }
+
+    public Chunk getOrCreateChunk(int chunkX, int chunkY, int chunkZ) {
+        long key = chunkKey(chunkX, chunkY, chunkZ);
+        Chunk chunk = chunks.get(key);
+        if (chunk == null) {
+            Chunk created = new Chunk(chunkX, chunkY, chunkZ);
+            chunk = chunks.putIfAbsent(key, created);
+            if (chunk == null) {
+                chunk = created;
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Forgets a chunk, its blocks read as air afterwards.
+     *
+     * @return the removed chunk, null if there was none
+     */
+    public Chunk removeChunk(int chunkX, int chunkY, int chunkZ) {
+        return chunks.remove(chunkKey(chunkX, chunkY, chunkZ));
+    }
+
+    public Collection<Chunk> getChunks() {
+        return chunks.values();
+    }
+
+    public byte getBlock(int x, int y, int z) {
+        Chunk chunk = getChunk(x >> Chunk.SHIFT, y >> Chunk.SHIFT, z >> Chunk.SHIFT);
+        if (chunk == null) {
+            return AIR;
+        }
+        return chunk.getBlock(x & Chunk.MASK, y & Chunk.MASK, z & Chunk.MASK);
+    }
+
+    /**
+     * @return the previous block id at that position
+     */
+    public byte setBlock(int x, int y, int z, byte id) {
+        Chunk chunk;
+        if (id == AIR) {
+            chunk = getChunk(x >> Chunk.SHIFT, y >> Chunk.SHIFT, z >> Chunk.SHIFT);
+            if (chunk == null) {
+                return AIR;
+            }
+        } else {
+            chunk = getOrCreateChunk(x >> Chunk.SHIFT, y >> Chunk.SHIFT, z >> Chunk.SHIFT);
+        }
+        return chunk.setBlock(x & Chunk.MASK, y & Chunk.MASK, z & Chunk.MASK, id);
+    }
+
+    public boolean isSolid(int x, int y, int z) {
+        return getBlock(x, y, z) != AIR;
+    }
+
+    /**
+     * @return true if the block is solid and at least one of its six faces
+     * touches air
+     */
+    public boolean isExposed(int x, int y, int z) {
+        return isSolid(x, y, z)
+                && (!isSolid(x - 1, y, z) || !isSolid(x + 1, y, z)
+                || !isSolid(x, y - 1, z) || !isSolid(x, y + 1, z)
+                || !isSolid(x, y, z - 1) || !isSolid(x, y, z + 1));
+    }
+
+    public int getSolidCount() {
+        int count = 0;
+        for (Chunk chunk : chunks.values()) {
+            count += chunk.getSolidCount();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,59 @@
+import com.jme3.material.Material;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Scene graph view of a {@link VoxelWorld}: one geometry per chunk holding
+ * the mesh built by a {@link ChunkMesher}.
+ */
+public class VoxelWorldNode extends Node {
+
+    private final VoxelWorld world;
+    private final Material material;
+    private final Map<Long, Geometry> geometries = new HashMap<Long, Geometry>();
+
+    public VoxelWorldNode(String name, VoxelWorld world, Material material) {
+        super(name);
+        this.world = world;
+        this.material = material;
+    }
+
+    /**
+     * Attaches, replaces or removes the geometry of a chunk.
+     *
+     * @param mesh the new mesh, null if the chunk has no visible faces
+     */
+    public void setChunkMesh(Chunk chunk, Mesh mesh) {
+        long key = chunk.getKey();
+        Geometry geometry = geometries.get(key);
+        if (mesh == null) {
+            if (geometry != null) {
+                geometry.removeFromParent();
+                geometries.remove(key);
+            }
+            return;
+        }
+        if (geometry == null) {
+            geometry = new Geometry("chunk " + chunk.getChunkX() + "," + chunk.getChunkY() + "," + chunk.getChunkZ(), mesh);
+            geometry.setMaterial(material);
+            geometry.setLocalTranslation(VoxelWorld.toWorld(chunk.getOriginX()),
+                    VoxelWorld.toWorld(chunk.getOriginY()), VoxelWorld.toWorld(chunk.getOriginZ()));
+            geometries.put(key, geometry);
+            attachChild(geometry);
+        } else {
+            geometry.setMesh(mesh);
+        }
+    }
+
+    public Geometry getChunkGeometry(Chunk chunk) {
+        return geometries.get(chunk.getKey());
+    }
+
+    public VoxelWorld getWorld() {
+        return world;
+    }
+}
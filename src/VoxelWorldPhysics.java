@@ -0,0 +1,83 @@
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.shapes.CollisionShape;
+import com.jme3.bullet.collision.shapes.MeshCollisionShape;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Physics view of a {@link VoxelWorld}: one static body per chunk whose
+ * collision shape is the chunk's greedy surface mesh. Bullet keeps a bounding
+ * volume hierarchy over the triangles, so sweeps and contacts only look at
+ * the surface near the query instead of every brick.<p>
+ *
+ * The shape has to be rebuilt whenever the chunk changes, see
+ * {@link #setChunkMesh(Chunk, Mesh)}. The user object of a chunk body is
+ * its {@link Chunk}, so collision listeners can tell terrain apart.
+ */
+public class VoxelWorldPhysics {
+
+    private final VoxelWorld world;
+    private final PhysicsSpace space;
+    private final Map<Long, RigidBodyControl> bodies = new HashMap<Long, RigidBodyControl>();
+
+    public VoxelWorldPhysics(VoxelWorld world, PhysicsSpace space) {
+        this.world = world;
+        this.space = space;
+    }
+
+    /**
+     * Replaces the collision shape of a chunk with one built from its mesh,
+     * the mesh has to be built relative to the chunk origin like
+     * {@link ChunkMesher} does.
+     *
+     * @param mesh the chunk surface, null if the chunk has no solid faces
+     */
+    public void setChunkMesh(Chunk chunk, Mesh mesh) {
+        setChunkShape(chunk, mesh == null ? null : new MeshCollisionShape(mesh));
+    }
+
+    /**
+     * Replaces the collision shape of a chunk with a shape that was built
+     * elsewhere, e.g. by {@link PlanetGenerator} on a worker thread.
+     *
+     * @param shape the chunk surface relative to the chunk origin, null if the
+     * chunk has no solid faces
+     */
+    public void setChunkShape(Chunk chunk, CollisionShape shape) {
+        long key = chunk.getKey();
+        RigidBodyControl body = bodies.get(key);
+        if (body != null) {
+            space.remove(body);
+        }
+        if (shape == null) {
+            bodies.remove(key);
+            return;
+        }
+        if (body == null) {
+            body = new RigidBodyControl(shape, 0f);
+            body.setUserObject(chunk);
+            body.setPhysicsLocation(new Vector3f(VoxelWorld.toWorld(chunk.getOriginX()),
+                    VoxelWorld.toWorld(chunk.getOriginY()), VoxelWorld.toWorld(chunk.getOriginZ())));
+            bodies.put(key, body);
+        } else {
+            body.setCollisionShape(shape);
+        }
+        space.add(body);
+    }
+
+    public RigidBodyControl getChunkBody(Chunk chunk) {
+        return bodies.get(chunk.getKey());
+    }
+
+    public int getBodyCount() {
+        return bodies.size();
+    }
+
+    public VoxelWorld getWorld() {
+        return world;
+    }
+}
@@ -0,0 +1,230 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves the chunks of a {@link VoxelWorld} into {@link RegionFile}s in a
+ * directory, encoded by {@link ChunkCodec}, and loads them back. Empty
+ * chunks are not stored. Region files are opened on first use and stay
+ * open until {@link #close}. Chunks may be loaded and saved from several
+ * threads, but one chunk must not be saved while it is loaded.
+ */
+public class WorldStore {
+
+    private final File directory;
+    private final Map<Long, RegionFile> regions = new HashMap<Long, RegionFile>();
+    private final ThreadLocal<ChunkCodec> codecs = new ThreadLocal<ChunkCodec>() {
+        @Override
+        protected ChunkCodec initialValue() {
+            return new ChunkCodec();
+        }
+    };
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(ChunkCodec.MAX_SIZE);
+        }
+    };
+
+    public WorldStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return true if a world was saved in the directory
+     */
+    public boolean exists() {
+        return !listRegionFiles().isEmpty();
+    }
+
+    /**
+     * Loads a chunk into the world, replacing its blocks if the world has
+     * it already.
+     *
+     * @return the chunk, null if it was not saved
+     */
+    public Chunk loadChunk(VoxelWorld world, int chunkX, int chunkY, int chunkZ) throws IOException {
+        RegionFile region = getRegion(chunkX >> RegionFile.SHIFT, chunkY >> RegionFile.SHIFT, chunkZ >> RegionFile.SHIFT, false);
+        if (region == null) {
+            return null;
+        }
+        ByteBuffer data = region.read(RegionFile.index(chunkX, chunkY, chunkZ));
+        if (data == null) {
+            return null;
+        }
+        Chunk chunk = world.getOrCreateChunk(chunkX, chunkY, chunkZ);
+        codecs.get().decode(data, chunk);
+        return chunk;
+    }
+
+    /**
+     * @return true if the chunk is saved, without loading it
+     */
+    public boolean containsChunk(int chunkX, int chunkY, int chunkZ) throws IOException {
+        RegionFile region = getRegion(chunkX >> RegionFile.SHIFT, chunkY >> RegionFile.SHIFT, chunkZ >> RegionFile.SHIFT, false);
+        return region != null && region.contains(RegionFile.index(chunkX, chunkY, chunkZ));
+    }
+
+    /**
+     * Saves a chunk, or forgets it if it became empty.
+     */
+    public void saveChunk(Chunk chunk) throws IOException {
+        int index = RegionFile.index(chunk.getChunkX(), chunk.getChunkY(), chunk.getChunkZ());
+        RegionFile region = getRegion(chunk.getChunkX() >> RegionFile.SHIFT, chunk.getChunkY() >> RegionFile.SHIFT,
+                chunk.getChunkZ() >> RegionFile.SHIFT, !chunk.isEmpty());
+        if (region == null) {
+            return;
+        }
+        if (chunk.isEmpty()) {
+            region.delete(index);
+            return;
+        }
+        ByteBuffer buffer = buffers.get();
+        buffer.clear();
+        codecs.get().encode(chunk, buffer);
+        buffer.flip();
+        region.write(index, buffer);
+    }
+
+    /**
+     * Saves every chunk of the world and flushes the region files.
+     *
+     * @return the number of chunks saved
+     */
+    public int save(VoxelWorld world) throws IOException {
+        int saved = 0;
+        for (Chunk chunk : world.getChunks()) {
+            saveChunk(chunk);
+            if (!chunk.isEmpty()) {
+                saved++;
+            }
+        }
+        flush();
+        return saved;
+    }
+
+    /**
+     * Loads every saved chunk into the world, one region file per task on
+     * the pool.
+     *
+     * @return the number of chunks loaded
+     */
+    public int load(final VoxelWorld world, ForkJoinPool pool) throws IOException {
+        final List<File> files = listRegionFiles();
+        final AtomicInteger loaded = new AtomicInteger();
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(files.size());
+                    for (final File file : files) {
+                        tasks.add(new RecursiveAction() {
+                            @Override
+                            protected void compute() {
+                                try {
+                                    loaded.addAndGet(loadRegion(world, file));
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            }
+                        });
+                    }
+                    invokeAll(tasks);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return loaded.get();
+    }
+
+    private int loadRegion(VoxelWorld world, File file) throws IOException {
+        String[] coordinates = file.getName().split("\\.");
+        int regionX = Integer.parseInt(coordinates[1]);
+        int regionY = Integer.parseInt(coordinates[2]);
+        int regionZ = Integer.parseInt(coordinates[3]);
+        RegionFile region = getRegion(regionX, regionY, regionZ, false);
+        ChunkCodec codec = codecs.get();
+        int loaded = 0;
+        for (int index = 0; index < RegionFile.CHUNKS; index++) {
+            ByteBuffer data = region.read(index);
+            if (data == null) {
+                continue;
+            }
+            int chunkX = (regionX << RegionFile.SHIFT) | (index & RegionFile.MASK);
+            int chunkZ = (regionZ << RegionFile.SHIFT) | ((index >> RegionFile.SHIFT) & RegionFile.MASK);
+            int chunkY = (regionY << RegionFile.SHIFT) | (index >> (RegionFile.SHIFT + RegionFile.SHIFT));
+            codec.decode(data, world.getOrCreateChunk(chunkX, chunkY, chunkZ));
+            loaded++;
+        }
+        return loaded;
+    }
+
+    public synchronized void flush() {
+        for (RegionFile region : regions.values()) {
+            region.flush();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        for (RegionFile region : regions.values()) {
+            region.close();
+        }
+        regions.clear();
+    }
+
+    /**
+     * @return bytes the saved chunks take in the region files
+     */
+    public synchronized long getUsedSize() {
+        long size = 0;
+        for (RegionFile region : regions.values()) {
+            size += region.getUsedSize();
+        }
+        return size;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    private synchronized RegionFile getRegion(int regionX, int regionY, int regionZ, boolean create) throws IOException {
+        long key = VoxelWorld.chunkKey(regionX, regionY, regionZ);
+        RegionFile region = regions.get(key);
+        if (region == null) {
+            File file = new File(directory, "r." + regionX + "." + regionY + "." + regionZ + ".smr");
+            if (!file.exists()) {
+                if (!create) {
+                    return null;
+                }
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("could not create " + directory);
+                }
+            }
+            region = new RegionFile(file);
+            regions.put(key, region);
+        }
+        return region;
+    }
+
+    private List<File> listRegionFiles() {
+        List<File> files = new ArrayList<File>();
+        File[] listed = directory.listFiles();
+        if (listed != null) {
+            for (File file : listed) {
+                if (file.getName().startsWith("r.") && file.getName().endsWith(".smr")) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+}